@@ -0,0 +1,80 @@
+package application;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//the same matches as GameSimulation objects, as BatchSimulation columns and as VectorBatchSimulation lanes,
+//inputs change every 30 ticks in all of them
+//the score is match ticks per second on one thread, so per core, -t with the number of cores gives the whole machine
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(BatchBenchmark.MATCHES)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+	static final int MATCHES = 1024;
+
+	private GameSimulation[] simulations;
+	private BatchSimulation columns;
+	private BatchSimulation vectors;
+	private int tick;
+
+	@Setup
+	public void setUp() {
+		simulations = new GameSimulation[MATCHES];
+		for (int i = 0; i < MATCHES; i++) {
+			simulations[i] = new GameSimulation();
+		}
+		columns = new BatchSimulation(MATCHES, GameSimulation.DEFAULT_TICK_RATE, GameSimulation.DEFAULT_BALL_SPEED);
+		vectors = new VectorBatchSimulation(MATCHES, GameSimulation.DEFAULT_TICK_RATE,
+				GameSimulation.DEFAULT_BALL_SPEED);
+	}
+
+	@Benchmark
+	public void objects(Blackhole blackhole) {
+		boolean change = ++tick % 30 == 0;
+		for (int i = 0; i < MATCHES; i++) {
+			if (change) {
+				simulations[i].setPlayerInput(1 + (i & 1), (tick / 30 + i) % 3, 0);
+			}
+			simulations[i].step();
+		}
+		blackhole.consume(simulations[0].getBallX());
+	}
+
+	@Benchmark
+	public void columns(Blackhole blackhole) {
+		step(columns, blackhole);
+	}
+
+	@Benchmark
+	public void vectors(Blackhole blackhole) {
+		step(vectors, blackhole);
+	}
+
+	private void step(BatchSimulation batch, Blackhole blackhole) {
+		if (++tick % 30 == 0) {
+			for (int i = 0; i < MATCHES; i++) {
+				batch.setPlayerInput(i, 1 + (i & 1), (tick / 30 + i) % 3);
+			}
+		}
+		batch.step();
+		blackhole.consume(batch.getBallX(0));
+	}
+}
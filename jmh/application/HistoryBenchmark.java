@@ -0,0 +1,119 @@
+package application;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//queries on a match history in a temporary directory, hot pairs are among the HOT players,
+//cold ones mostly among players whose opponents have to be read from the log
+//then how long opening takes with the index and with the whole log to read
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class HistoryBenchmark {
+
+	//matches between players, and how many players play half of them
+	private static final int MATCHES = 200_000;
+	private static final int PLAYERS = 20_000;
+	private static final int HOT = 64;
+
+	private Path directory;
+	//the same log without its index
+	private Path logOnly;
+	private MatchHistory history;
+	private final String[] names = new String[PLAYERS];
+	private final Random random = new Random(2);
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("pong-history");
+		MatchHistory writing = MatchHistory.open(directory);
+		Random random = new Random(1);
+		for (int i = 0; i < MATCHES; i++) {
+			int player1 = i % 2 == 0 ? random.nextInt(HOT) : random.nextInt(PLAYERS);
+			int player2 = random.nextInt(PLAYERS);
+			writing.record("Bot" + player1, "Bot" + player2, random.nextInt(10), 1 + random.nextInt(9));
+		}
+		writing.close(60_000);
+		logOnly = Files.createTempDirectory("pong-history");
+		Files.copy(directory.resolve(MatchHistory.LOG_FILE), logOnly.resolve(MatchHistory.LOG_FILE));
+
+		history = MatchHistory.openReadOnly(directory);
+		for (int i = 0; i < PLAYERS; i++) {
+			names[i] = "Bot" + i;
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		history.close(60_000);
+		delete(directory);
+		delete(logOnly);
+	}
+
+	@Benchmark
+	public int top10() {
+		return history.top(10).size();
+	}
+
+	@Benchmark
+	public MatchHistory.HeadToHead headToHeadHot() throws IOException {
+		int i = next++;
+		return history.headToHead(names[i % HOT], names[(i / HOT + 1 + i) % HOT]);
+	}
+
+	@Benchmark
+	public MatchHistory.HeadToHead headToHeadCold() throws IOException {
+		return history.headToHead(names[random.nextInt(PLAYERS)], names[random.nextInt(PLAYERS)]);
+	}
+
+	//read only, so neither open writes an index for the next
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void openWithIndex(Blackhole blackhole) throws IOException {
+		open(directory, blackhole);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void openReadingLog(Blackhole blackhole) throws IOException {
+		open(logOnly, blackhole);
+	}
+
+	private static void open(Path directory, Blackhole blackhole) throws IOException {
+		MatchHistory opened = MatchHistory.openReadOnly(directory);
+		blackhole.consume(opened.getMatchCount());
+		opened.close(60_000);
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+}
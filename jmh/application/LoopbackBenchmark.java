@@ -0,0 +1,86 @@
+package application;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//one input frame to an echo thread and back over a loopback tcp connection
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class LoopbackBenchmark {
+
+	private ServerSocket server;
+	private Socket socket;
+	private OutputStream out;
+	private DataInputStream in;
+	private final ByteBuffer outBuffer = Protocol.allocate();
+	private final ByteBuffer inBuffer = Protocol.allocate();
+	private int sequence;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		Thread echo = new Thread(() -> echo(server), "benchmark-echo");
+		echo.setDaemon(true);
+		echo.start();
+		socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+		socket.setTcpNoDelay(true);
+		out = socket.getOutputStream();
+		in = new DataInputStream(socket.getInputStream());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		socket.close();
+		server.close();
+	}
+
+	@Benchmark
+	public byte roundtrip() throws IOException {
+		ByteBuffer frame = Protocol.encodeInput(outBuffer, Protocol.UP_PRESSED, ++sequence & 0xFFFF);
+		out.write(frame.array(), 0, frame.limit());
+		Protocol.readFrame(in, inBuffer);
+		return inBuffer.get();
+	}
+
+	private static void echo(ServerSocket server) {
+		try (Socket socket = server.accept()) {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			ByteBuffer buf = Protocol.allocate();
+			byte[] reply = new byte[Protocol.MAX_FRAME_SIZE + 2];
+			while (true) {
+				Protocol.readFrame(in, buf);
+				//length field in front again, then back in one write
+				reply[0] = (byte) (buf.limit() >> 8);
+				reply[1] = (byte) buf.limit();
+				System.arraycopy(buf.array(), 0, reply, 2, buf.limit());
+				out.write(reply, 0, buf.limit() + 2);
+			}
+		} catch (IOException e) {
+			//benchmark finished and closed the connection
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package application;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//the score text is only rebuilt after a change, drawing an unchanged board costs a version check
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class ScoreBoardBenchmark {
+
+	private ScoreBoard scoreBoard;
+	private int score;
+
+	@Setup
+	public void setUp() {
+		scoreBoard = new ScoreBoard();
+		scoreBoard.setP1Name("Player one");
+		scoreBoard.setP2Name("Player two");
+	}
+
+	@Benchmark
+	public boolean textUnchanged() {
+		return scoreBoard.refreshText();
+	}
+
+	@Benchmark
+	public boolean textAfterGoal() {
+		scoreBoard.setP1Score(++score);
+		return scoreBoard.refreshText();
+	}
+}
@@ -0,0 +1,42 @@
+package application;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//one tick of one match, the paddles keep moving so the input path is part of it
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class SimulationBenchmark {
+
+	private GameSimulation simulation;
+	private int tick;
+
+	@Setup
+	public void setUp() {
+		simulation = new GameSimulation();
+	}
+
+	@Benchmark
+	public void step(Blackhole blackhole) {
+		if (++tick % 30 == 0) {
+			simulation.setPlayerInput(2, (tick / 30) % 3, tick & 0xFFFF);
+		}
+		simulation.step();
+		blackhole.consume(simulation.getBallX());
+	}
+}
@@ -0,0 +1,136 @@
+package application;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//the old ObjectOutputStream way against the binary frames and deltas that replaced it
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class StateBenchmark {
+
+	//states in one object stream before it is started over, the handle table would grow forever otherwise
+	private static final int STREAM_STATES = 1000;
+
+	private ByteArrayOutputStream bytes;
+	private ObjectOutputStream objectOut;
+	private byte[] stream;
+	private ObjectInputStream objectIn;
+	private int count;
+	private int read;
+
+	private final ByteBuffer frame = Protocol.allocate();
+	private final short[] state = new short[Protocol.STATE_FIELDS];
+
+	private final StateEncoder encoder = new StateEncoder();
+	private final ByteBuffer keyframe = Protocol.allocate();
+	private int tick;
+
+	private final short[] base = new short[Protocol.STATE_FIELDS];
+	private final short[] decoded = new short[Protocol.STATE_FIELDS];
+	private final ByteBuffer delta = Protocol.allocate();
+
+	@Setup
+	public void setUp() throws IOException {
+		bytes = new ByteArrayOutputStream();
+		objectOut = new ObjectOutputStream(bytes);
+
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(encoded)) {
+			for (int i = 0; i < STREAM_STATES; i++) {
+				out.writeObject(new SerializedState(i, 300, 250, 260));
+			}
+		}
+		stream = encoded.toByteArray();
+
+		base[Protocol.BALL_X] = Protocol.quantize(400);
+		short[] next = new short[Protocol.STATE_FIELDS];
+		next[Protocol.BALL_X] = Protocol.quantize(404);
+		next[Protocol.BALL_Y] = Protocol.quantize(4);
+		Protocol.encodeDelta(delta, base, next, Protocol.SEND_INTERVAL);
+	}
+
+	@Benchmark
+	public void objectStreamWrite() throws IOException {
+		objectOut.writeObject(new SerializedState(count++, 300, 250, 260));
+		objectOut.flush();
+		if (count % STREAM_STATES == 0) {
+			objectOut.reset();
+			bytes.reset();
+		}
+	}
+
+	@Benchmark
+	public double objectStreamRead() throws IOException, ClassNotFoundException {
+		if (read++ % STREAM_STATES == 0) {
+			objectIn = new ObjectInputStream(new ByteArrayInputStream(stream));
+		}
+		return ((SerializedState) objectIn.readObject()).ballX;
+	}
+
+	@Benchmark
+	public ByteBuffer binaryEncode() {
+		return Protocol.encodeState(frame, count++, 400.5, 300.25, 250, 260);
+	}
+
+	@Benchmark
+	public void binaryDecode(Blackhole blackhole) throws IOException {
+		Protocol.encodeState(frame, 1, 400.5, 300.25, 250, 260);
+		frame.position(0);
+		Protocol.readFrame(frame);
+		blackhole.consume(Protocol.readState(frame, state));
+		blackhole.consume(state);
+	}
+
+	//a delta against the state before, and a keyframe every StateEncoder.KEYFRAME_INTERVAL
+	@Benchmark
+	public int deltaEncode() {
+		tick += Protocol.SEND_INTERVAL;
+		double ball = 100 + tick % 500;
+		Protocol.encodeState(keyframe, tick, ball, ball, 250, 260);
+		return encoder.encode(keyframe).limit();
+	}
+
+	@Benchmark
+	public void deltaDecode(Blackhole blackhole) throws IOException {
+		System.arraycopy(base, 0, decoded, 0, Protocol.STATE_FIELDS);
+		delta.position(0);
+		Protocol.readFrame(delta);
+		blackhole.consume(Protocol.readDelta(delta, 0, decoded));
+		blackhole.consume(decoded);
+	}
+
+	//what the server used to write for every tick
+	private static class SerializedState implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final double ballX, ballY, player1Y, player2Y;
+
+		SerializedState(double ballX, double ballY, double player1Y, double player2Y) {
+			this.ballX = ballX;
+			this.ballY = ballY;
+			this.player1Y = player1Y;
+			this.player2Y = player2Y;
+		}
+	}
+}
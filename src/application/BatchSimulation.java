@@ -0,0 +1,289 @@
+package application;
+
+import java.nio.ByteBuffer;
+
+//many matches stepped together, for offline runs like bot training and physics regression checks
+//the state is one primitive array per field instead of one GameSimulation object per match,
+//and a step goes over them in plain counted loops over the arrays, which the jit can vectorize
+//most balls are nowhere near a paddle face or a wall in a given tick and just move in a straight line,
+//the few that are get the same swept collision as GameSimulation, one match at a time
+//every match ends up bit for bit where a GameSimulation with the same settings and inputs would,
+//checkpoints are written and read in GameSimulation's format so the two can be compared and swapped
+//the arrays and the parts of a step are package private for VectorBatchSimulation, which does the same
+//steps with the incubating vector api and is only in the gradle build (vector/application)
+//
+//not thread safe, all matches share the tick rate and ball speed and there are no listeners:
+//read the scores after a step instead
+public class BatchSimulation {
+
+	static final double MAX_PADDLE_Y = GameSimulation.HEIGHT - GameSimulation.PADDLE_HEIGHT;
+	static final double MAX_BALL_Y = GameSimulation.HEIGHT - GameSimulation.BALL_SIZE;
+	static final double LEFT_FACE_X = GameSimulation.PADDLE_WIDTH;
+	static final double RIGHT_FACE_X = GameSimulation.WIDTH - GameSimulation.PADDLE_WIDTH
+			- GameSimulation.BALL_SIZE;
+	//a straight step ending this far from a paddle face can't have crossed it, rounding included
+	static final double FACE_MARGIN = 1;
+	private static final int MAX_BOUNCES = 16;
+
+	final int size;
+	private final int tickRate;
+	final double paddleStep;
+	private final double ballSpeed;
+	private final double ballStep;
+
+	final long[] ticks;
+	final double[] ballX, ballY, ballXSpeed, ballYSpeed;
+	final double[] player1Y, player2Y;
+	private final int[] player1Score, player2Score;
+	//held input bits per match, player 1 in the low two bits and player 2 above
+	final int[] inputs;
+	//where each ball would be after a straight step
+	final double[] nextX, nextY;
+	//how far each paddle moves up and down for each of the 16 input combinations
+	private final double[] up1 = new double[16], down1 = new double[16];
+	private final double[] up2 = new double[16], down2 = new double[16];
+
+	public BatchSimulation(int size, int tickRate, double ballSpeed) {
+		GameSimulation.checkSettings(tickRate, ballSpeed);
+		if (size < 1) {
+			throw new IllegalArgumentException("Need at least one match: " + size);
+		}
+		this.size = size;
+		this.tickRate = tickRate;
+		this.paddleStep = GameSimulation.PADDLE_SPEED / tickRate;
+		this.ballSpeed = ballSpeed;
+		this.ballStep = ballSpeed / tickRate;
+		ticks = new long[size];
+		ballX = new double[size];
+		ballY = new double[size];
+		ballXSpeed = new double[size];
+		ballYSpeed = new double[size];
+		player1Y = new double[size];
+		player2Y = new double[size];
+		player1Score = new int[size];
+		player2Score = new int[size];
+		inputs = new int[size];
+		nextX = new double[size];
+		nextY = new double[size];
+		for (int i = 0; i < size; i++) {
+			resetPositions(i);
+		}
+		for (int input = 0; input < 16; input++) {
+			up1[input] = (input & 1) != 0 ? paddleStep : 0;
+			down1[input] = (input & 2) != 0 ? paddleStep : 0;
+			up2[input] = (input & 4) != 0 ? paddleStep : 0;
+			down2[input] = (input & 8) != 0 ? paddleStep : 0;
+		}
+	}
+
+	//held is UP and DOWN bits like GameSimulation.setPlayerInput, used from the next step on
+	public void setPlayerInput(int match, int slot, int held) {
+		int shift = slot == 1 ? 0 : 2;
+		int bits = held & (GameSimulation.UP | GameSimulation.DOWN);
+		inputs[match] = inputs[match] & ~(3 << shift) | bits << shift;
+	}
+
+	//advance every match by exactly one tick
+	public void step() {
+		movePaddles(0, size);
+		moveStraight(0, size);
+		settle(0, size);
+	}
+
+	//paddles, without a branch on the input: a paddle that doesn't move goes by 0, and as it is
+	//always within bounds the clamps leave it where it is, so this is GameSimulation.movePaddle exactly
+	//Math.max and min spend extra branches on NaN and -0.0, which made this loop several times slower,
+	//a paddle is never either so comparing gives the same result
+	void movePaddles(int from, int to) {
+		int[] inputs = this.inputs;
+		double[] player1Y = this.player1Y;
+		double[] player2Y = this.player2Y;
+		for (int i = from; i < to; i++) {
+			ticks[i]++;
+			int input = inputs[i];
+			double y1 = player1Y[i] - up1[input];
+			y1 = y1 < 0 ? 0 : y1;
+			y1 += down1[input];
+			player1Y[i] = y1 > MAX_PADDLE_Y ? MAX_PADDLE_Y : y1;
+			double y2 = player2Y[i] - up2[input];
+			y2 = y2 < 0 ? 0 : y2;
+			y2 += down2[input];
+			player2Y[i] = y2 > MAX_PADDLE_Y ? MAX_PADDLE_Y : y2;
+		}
+	}
+
+	//the whole step in a straight line
+	void moveStraight(int from, int to) {
+		double[] ballX = this.ballX;
+		double[] ballY = this.ballY;
+		double[] nextX = this.nextX;
+		double[] nextY = this.nextY;
+		for (int i = from; i < to; i++) {
+			nextX[i] = ballX[i] + ballXSpeed[i];
+			nextY[i] = ballY[i] + ballYSpeed[i];
+		}
+	}
+
+	//taken wherever it stayed clear of the paddle faces and the walls, the rest is swept
+	void settle(int from, int to) {
+		double[] ballX = this.ballX;
+		double[] ballY = this.ballY;
+		for (int i = from; i < to; i++) {
+			double x = nextX[i];
+			double y = nextY[i];
+			if (x > LEFT_FACE_X + FACE_MARGIN && x < RIGHT_FACE_X - FACE_MARGIN && y >= 0 && y <= MAX_BALL_Y) {
+				ballX[i] = x;
+				ballY[i] = y;
+			} else {
+				sweep(i);
+			}
+		}
+	}
+
+	//match i with its straight step near a paddle face or a wall
+	void sweep(int i) {
+		moveBall(i);
+		if (ballX[i] <= 0) {
+			player2Score[i]++;
+			resetPositions(i);
+		} else if (ballX[i] >= GameSimulation.WIDTH) {
+			player1Score[i]++;
+			resetPositions(i);
+		}
+	}
+
+	//GameSimulation.moveBall for match i
+	private void moveBall(int i) {
+		double remaining = 1;
+		for (int bounce = 0; bounce < MAX_BOUNCES; bounce++) {
+			double hit = remaining;
+			boolean paddle = false;
+
+			if (ballXSpeed[i] < 0 && ballX[i] >= LEFT_FACE_X) {
+				double t = (LEFT_FACE_X - ballX[i]) / ballXSpeed[i];
+				paddle = t < hit && meetsPaddle(betweenWalls(ballY[i] + ballYSpeed[i] * t), player1Y[i]);
+				if (paddle) {
+					hit = t;
+				}
+			} else if (ballXSpeed[i] > 0 && ballX[i] <= RIGHT_FACE_X) {
+				double t = (RIGHT_FACE_X - ballX[i]) / ballXSpeed[i];
+				paddle = t < hit && meetsPaddle(betweenWalls(ballY[i] + ballYSpeed[i] * t), player2Y[i]);
+				if (paddle) {
+					hit = t;
+				}
+			}
+
+			ballX[i] += ballXSpeed[i] * hit;
+			moveBetweenWalls(i, ballYSpeed[i] * hit);
+			remaining -= hit;
+			if (!paddle) {
+				return;
+			}
+			ballX[i] = ballXSpeed[i] < 0 ? LEFT_FACE_X : RIGHT_FACE_X;
+			ballXSpeed[i] = -ballXSpeed[i];
+		}
+	}
+
+	private static double betweenWalls(double y) {
+		if (y >= 0 && y <= MAX_BALL_Y) {
+			return y;
+		}
+		double folded = foldedOffset(y);
+		return folded <= MAX_BALL_Y ? folded : 2 * MAX_BALL_Y - folded;
+	}
+
+	private void moveBetweenWalls(int i, double dy) {
+		double y = ballY[i] + dy;
+		if (y >= 0 && y <= MAX_BALL_Y) {
+			ballY[i] = y;
+			return;
+		}
+		double folded = foldedOffset(y);
+		if (folded <= MAX_BALL_Y) {
+			ballY[i] = folded;
+		} else {
+			ballY[i] = 2 * MAX_BALL_Y - folded;
+			ballYSpeed[i] = -ballYSpeed[i];
+		}
+	}
+
+	private static double foldedOffset(double y) {
+		double period = 2 * MAX_BALL_Y;
+		double folded = y % period;
+		return folded < 0 ? folded + period : folded;
+	}
+
+	private static boolean meetsPaddle(double ballY, double paddleY) {
+		return ballY + GameSimulation.BALL_SIZE >= paddleY && ballY <= paddleY + GameSimulation.PADDLE_HEIGHT;
+	}
+
+	private void resetPositions(int i) {
+		ballX[i] = GameSimulation.WIDTH / 2 - GameSimulation.BALL_SIZE / 2;
+		ballY[i] = GameSimulation.HEIGHT / 2 - GameSimulation.BALL_SIZE / 2;
+		ballXSpeed[i] = ballStep;
+		ballYSpeed[i] = ballStep;
+		player1Y[i] = GameSimulation.HEIGHT / 2 - GameSimulation.PADDLE_HEIGHT / 2;
+		player2Y[i] = GameSimulation.HEIGHT / 2 - GameSimulation.PADDLE_HEIGHT / 2;
+	}
+
+	//same bytes as GameSimulation.saveCheckpoint
+	public void saveCheckpoint(int match, ByteBuffer out) {
+		out.putLong(ticks[match]);
+		out.putDouble(ballX[match]).putDouble(ballY[match]).putDouble(ballXSpeed[match]).putDouble(ballYSpeed[match]);
+		out.putDouble(player1Y[match]).putDouble(player2Y[match]);
+		out.putInt(player1Score[match]).putInt(player2Score[match]);
+	}
+
+	//e.g. from a replay, to run it on with other inputs
+	public void restoreCheckpoint(int match, ByteBuffer in) {
+		ticks[match] = in.getLong();
+		ballX[match] = in.getDouble();
+		ballY[match] = in.getDouble();
+		ballXSpeed[match] = in.getDouble();
+		ballYSpeed[match] = in.getDouble();
+		player1Y[match] = in.getDouble();
+		player2Y[match] = in.getDouble();
+		player1Score[match] = in.getInt();
+		player2Score[match] = in.getInt();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getTickRate() {
+		return tickRate;
+	}
+
+	public double getBallSpeed() {
+		return ballSpeed;
+	}
+
+	public long getTick(int match) {
+		return ticks[match];
+	}
+
+	public double getBallX(int match) {
+		return ballX[match];
+	}
+
+	public double getBallY(int match) {
+		return ballY[match];
+	}
+
+	public double getPlayer1Y(int match) {
+		return player1Y[match];
+	}
+
+	public double getPlayer2Y(int match) {
+		return player2Y[match];
+	}
+
+	public int getPlayer1Score(int match) {
+		return player1Score[match];
+	}
+
+	public int getPlayer2Score(int match) {
+		return player2Score[match];
+	}
+}
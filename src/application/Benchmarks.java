@@ -0,0 +1,335 @@
+package application;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+//the hot paths of one tick (simulation step, batch simulation, state encoding, score text, loopback round trip)
+//and the match history queries are jmh benchmarks in jmh/application, checks that don't need minutes are unit
+//tests in test/application, what is left here runs for seconds or minutes and needs its own setup: how the
+//room ticks of one server scale with the cores and what connections cost
+//they share a small harness:
+//every benchmark runs warmup rounds for the jit, then timed rounds, and prints ns per operation
+//results go into a volatile sink so the work can't be optimized away
+//nothing here passes or fails, the checks are in test/application
+//args: [filter] to only run the matching ones, see selected
+public class Benchmarks {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 5;
+	private static final long ROUND_NANOS = 500_000_000L;
+	//operations between two clock reads
+	private static final int BATCH = 256;
+
+	private static volatile long sink;
+
+	//rooms ticked by the scaling benchmark, every HEAVY_EVERY-th of them does HEAVY_WORK times the work
+	private static final int SCALING_ROOMS = 2000;
+	private static final int HEAVY_EVERY = 100;
+	private static final int HEAVY_WORK = 50;
+	private static final long SCALING_WARMUP_NANOS = 2_000_000_000L;
+	private static final long SCALING_NANOS = 3_000_000_000L;
+	//connections held open by the connection cost benchmark
+	private static final int CONNECTIONS = 1000;
+
+	private interface Operation {
+		void run() throws Throwable;
+	}
+
+	private final String filter;
+
+	private Benchmarks(String filter) {
+		this.filter = filter;
+	}
+
+	//the one filter rule for parts and benchmarks alike: without a filter everything runs, otherwise
+	//what has the filter in its name, or a part whose name the filter starts with, e.g. "connections.pool"
+	//runs the connections part
+	private boolean selected(String name) {
+		return filter == null || name.contains(filter) || filter.startsWith(name);
+	}
+
+	//returns the mean ns per operation, 0 if filtered out
+	private double bench(String name, Operation op) throws Throwable {
+		if (!selected(name)) {
+			return 0;
+		}
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			round(op);
+		}
+		double[] results = new double[ROUNDS];
+		double sum = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			results[i] = round(op);
+			sum += results[i];
+		}
+		double mean = sum / ROUNDS;
+		double spread = 0;
+		for (double r : results) {
+			spread = Math.max(spread, Math.abs(r - mean));
+		}
+		System.out.printf("%-36s %12.1f ns/op  +- %.1f%n", name, mean, spread);
+		return mean;
+	}
+
+	//ns per operation over one round
+	private static double round(Operation op) throws Throwable {
+		long ops = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			for (int i = 0; i < BATCH; i++) {
+				op.run();
+			}
+			ops += BATCH;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < ROUND_NANOS);
+		return (double) elapsed / ops;
+	}
+
+	private void run() throws Throwable {
+		connections();
+		scaling();
+	}
+
+	//what a connection costs with the cached platform pool and with virtual threads, which need java 21:
+	//CONNECTIONS clients connect one after another to a blocking server that gives each connection a reader and
+	//a writer like Server's ConnectionHandler, the reader sends WELCOME first and both then wait
+	//prints the time from connecting to that first frame, and the heap and resident memory per open connection
+	//each of the two goes through selected on its own name like the benchmarks in bench do, so "pool" or
+	//"connections.virtual" runs just that one
+	private void connections() throws Throwable {
+		if (selected("connections.pool")) {
+			connectionCost("connections.pool", false);
+		}
+		if (!selected("connections.virtual")) {
+			return;
+		}
+		if (ThreadPools.virtualThreadsAvailable()) {
+			connectionCost("connections.virtual", true);
+		} else {
+			System.out.println("connections.virtual skipped, virtual threads need java 21, this is java "
+					+ Runtime.version().feature());
+		}
+	}
+
+	private static void connectionCost(String name, boolean virtual) throws Throwable {
+		ExecutorService pool = ThreadPools.newConnectionPool(virtual);
+		List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+		try (ServerSocket server = new ServerSocket(0, CONNECTIONS, InetAddress.getLoopbackAddress())) {
+			Thread acceptor = new Thread(() -> {
+				try {
+					while (true) {
+						Socket socket = server.accept();
+						sockets.add(socket);
+						pool.execute(() -> connectionReader(socket));
+						pool.execute(() -> connectionWriter(socket));
+					}
+				} catch (IOException e) {
+					//closed after the run
+				}
+			}, "benchmark-acceptor");
+			acceptor.setDaemon(true);
+			acceptor.start();
+
+			long heapBefore = usedHeapAfterGc();
+			long residentBefore = residentBytes();
+			LatencyHistogram firstFrame = new LatencyHistogram();
+			ByteBuffer buffer = Protocol.allocate();
+			for (int i = 0; i < CONNECTIONS; i++) {
+				long start = System.nanoTime();
+				Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+				sockets.add(socket);
+				Protocol.readFrame(new DataInputStream(socket.getInputStream()), buffer);
+				firstFrame.record(System.nanoTime() - start);
+			}
+			long heap = usedHeapAfterGc() - heapBefore;
+			long resident = residentBytes() - residentBefore;
+			System.out.printf("%-36s %s%n", name + " first frame", firstFrame.summary());
+			System.out.printf("%-36s %12.1f KB heap, %s per connection%n", name + " memory",
+					heap / 1024.0 / CONNECTIONS,
+					residentBefore < 0 ? "resident size unknown" : String.format("%.1f KB resident",
+							resident / 1024.0 / CONNECTIONS));
+		} finally {
+			synchronized (sockets) {
+				for (Socket socket : sockets) {
+					socket.close();
+				}
+			}
+			pool.shutdownNow();
+			//the threads' stacks must be gone before the next run measures its own
+			pool.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+
+	//sends WELCOME, then blocks reading until the client hangs up
+	private static void connectionReader(Socket socket) {
+		try {
+			OutputStream out = socket.getOutputStream();
+			ByteBuffer frame = Protocol.encodeWelcome(Protocol.allocate(), 1);
+			out.write(frame.array(), 0, frame.limit());
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			while (true) {
+				Protocol.readFrame(in, frame);
+			}
+		} catch (IOException e) {
+			//closed after the run
+		}
+	}
+
+	//parks like an idle writeLoop until the socket is closed and the pool interrupts it
+	private static void connectionWriter(Socket socket) {
+		while (!socket.isClosed() && !Thread.currentThread().isInterrupted()) {
+			LockSupport.park();
+		}
+	}
+
+	private static long usedHeapAfterGc() {
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	//resident set size of this process, thread stacks count there and not in the heap, -1 if unknown
+	private static long residentBytes() {
+		try {
+			for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+				if (line.startsWith("VmRSS:")) {
+					return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			//not linux
+		}
+		return -1;
+	}
+
+	//room ticks per second through a RoomScheduler with 1, 2, 4... workers up to the number of cores
+	//the workers tick in lockstep as fast as they can, so this is what the cores can carry, and
+	//divided by the tick rate it is the number of rooms one server keeps on time
+	private void scaling() throws Throwable {
+		if (!selected("scaling.rooms")) {
+			return;
+		}
+		int cores = Runtime.getRuntime().availableProcessors();
+		int tickRate = GameSimulation.DEFAULT_TICK_RATE;
+		double single = 0;
+		for (int workers = 1;; workers = Math.min(workers * 2, cores)) {
+			roomTicksPerSecond(workers, SCALING_WARMUP_NANOS);
+			double rate = roomTicksPerSecond(workers, SCALING_NANOS);
+			if (workers == 1) {
+				single = rate;
+			}
+			System.out.printf("%-36s %12.0f room ticks/s  %8.0f rooms at %d Hz  %.2fx%n",
+					"scaling.rooms " + workers + " worker(s)", rate, rate / tickRate, tickRate, rate / single);
+			if (workers == cores) {
+				break;
+			}
+		}
+	}
+
+	private static double roomTicksPerSecond(int workers, long nanos) throws Throwable {
+		RoomScheduler scheduler = new RoomScheduler(workers, GameSimulation.DEFAULT_TICK_RATE);
+		BenchmarkRoom[] rooms = new BenchmarkRoom[SCALING_ROOMS];
+		for (int i = 0; i < rooms.length; i++) {
+			//shared out in turn like the acceptor does it
+			rooms[i] = new BenchmarkRoom(i % HEAVY_EVERY == 0 ? HEAVY_WORK : 1);
+			scheduler.add(i % workers, rooms[i]);
+		}
+		long[] ticks = new long[1];
+		boolean[] stop = new boolean[1];
+		long start = System.nanoTime();
+		//the last worker to arrive decides for everyone whether there is another tick
+		CyclicBarrier barrier = new CyclicBarrier(workers, () -> {
+			ticks[0]++;
+			stop[0] = System.nanoTime() - start >= nanos;
+		});
+		Thread[] threads = new Thread[workers];
+		for (int w = 0; w < workers; w++) {
+			int worker = w;
+			threads[w] = new Thread(() -> {
+				try {
+					for (long tick = 0; !stop[0]; tick++) {
+						scheduler.runTick(worker, tick);
+						barrier.await();
+					}
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}, "benchmark-worker-" + w);
+			threads[w].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+		for (BenchmarkRoom room : rooms) {
+			room.getLock().lock();
+			try {
+				if (room.getTicks() != ticks[0]) {
+					throw new IllegalStateException("A room ran " + room.getTicks() + " of " + ticks[0] + " ticks");
+				}
+			} finally {
+				room.getLock().unlock();
+			}
+		}
+		return ticks[0] * (double) rooms.length * 1e9 / elapsed;
+	}
+
+	//a room's tick without the sockets: step, ack the inputs and encode the state for both players,
+	//a heavy room encodes it for a crowd of spectators as well
+	private static class BenchmarkRoom extends RoomScheduler.Task {
+		private final GameSimulation simulation = new GameSimulation();
+		private final ByteBuffer frame = Protocol.allocate();
+		private final StateEncoder encoder1 = new StateEncoder();
+		private final StateEncoder encoder2 = new StateEncoder();
+		private final int work;
+
+		BenchmarkRoom(int work) {
+			this.work = work;
+		}
+
+		@Override
+		protected void tick(int worker) {
+			int tick = (int) simulation.getTick();
+			if (tick % 30 == 0) {
+				simulation.setPlayerInput(2, (tick / 30) % 3, (tick / 30) & 0xFFFF);
+			}
+			simulation.step();
+			sink += Protocol.encodeInputAck(frame, simulation.getAppliedSequence(2),
+					(int) simulation.getAppliedTick(2)).limit();
+			for (int i = 0; i < work; i++) {
+				Protocol.encodeState(frame, (int) simulation.getTick(), simulation.getBallX(), simulation.getBallY(),
+						simulation.getPlayer1Y(), simulation.getPlayer2Y());
+				sink += encoder1.encode(frame).limit() + encoder2.encode(frame).limit();
+			}
+		}
+
+		@Override
+		protected boolean isFinished() {
+			return false;
+		}
+	}
+
+	public static void main(String[] args) throws Throwable {
+		System.out.println("Benchmarks on java " + Runtime.version() + ", "
+				+ Runtime.getRuntime().availableProcessors() + " cpus");
+		Benchmarks benchmarks = new Benchmarks(args.length > 0 ? args[0] : null);
+		benchmarks.run();
+	}
+}
@@ -0,0 +1,249 @@
+package application;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+//headless player for load tests, speaks the same tcp protocol as Client
+//moves its paddle towards the ball with the same input codes as Client.sendInputToServer,
+//but only reacts to where the ball was reactionMillis ago so it misses now and then
+public class BotClient implements Runnable {
+
+	//don't move while the ball is this close to the middle of the paddle
+	private static final double DEAD_ZONE = 10;
+	//states kept for the reaction delay, a second at 120 states per second
+	private static final int HISTORY = 128;
+	//inputs waiting for their ack, indexed by sequence number
+	private static final int PENDING_INPUTS = 1024;
+
+	//shared by all bots of a run, the driver reports from it
+	public static class Stats {
+		final LongAdder connected = new LongAdder();
+		//could not connect at all
+		final LongAdder refused = new LongAdder();
+		//lost the connection during the run
+		final LongAdder dropped = new LongAdder();
+		final LongAdder started = new LongAdder();
+		final LongAdder bytesIn = new LongAdder();
+		final LongAdder bytesOut = new LongAdder();
+		final LongAdder states = new LongAdder();
+		//states that never came, seen as gaps in the tick numbers longer than the interval the server sends at
+		final LongAdder missedStates = new LongAdder();
+		//how much later than its tick a state arrived, compared to the fastest one
+		final LatencyHistogram stateLateness = new LatencyHistogram();
+		//from sending an input until the server acked the tick that used it
+		final LatencyHistogram inputLatency = new LatencyHistogram();
+		volatile int tickRate;
+	}
+
+	private final String host;
+	private final int port;
+	private final String name;
+	private final long reactionNanos;
+	private final Stats stats;
+	//host and port are a directory's, asked for a room server before connecting
+	private boolean useDirectory;
+
+	private volatile Socket socket;
+	private OutputStream out;
+	private volatile boolean done;
+
+	private final ByteBuffer inBuffer = Protocol.allocate();
+	private final ByteBuffer outBuffer = Protocol.allocate();
+	private final short[] state = new short[Protocol.STATE_FIELDS];
+	private int slot = 2;
+	private double tickNanos;
+	private int lastTick;
+	private boolean hasState;
+	//ticks between states as the server sends them now, it sends fewer to a poor link (see LinkQuality)
+	private int sendInterval = Protocol.SEND_INTERVAL;
+	//the gap before the last state and the states it was counted as missing
+	private int lastGap;
+	private int lastMissed;
+	//local nanoTime of server tick 0 from the fastest state so far
+	private double tickZeroNanos;
+
+	//ball height as seen at some local time, newest at historyEnd - 1
+	private final long[] seenAt = new long[HISTORY];
+	private final double[] seenBallY = new double[HISTORY];
+	private int historyEnd;
+
+	private int held;
+	private int nextSequence = 1;
+	private final long[] sentAt = new long[PENDING_INPUTS];
+
+	public BotClient(String host, int port, String name, int reactionMillis, Stats stats) {
+		this.host = host;
+		this.port = port;
+		this.name = name;
+		this.reactionNanos = reactionMillis * 1_000_000L;
+		this.stats = stats;
+	}
+
+	//before run
+	public void setUseDirectory(boolean useDirectory) {
+		this.useDirectory = useDirectory;
+	}
+
+	@Override
+	public void run() {
+		try {
+			if (useDirectory) {
+				InetSocketAddress node = Directory.find(host, port, false);
+				socket = new Socket(node.getHostString(), node.getPort());
+			} else {
+				socket = new Socket(host, port);
+			}
+			socket.setTcpNoDelay(true);
+			out = socket.getOutputStream();
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			send(Protocol.encodeName(outBuffer, 2, name));
+			stats.connected.increment();
+
+			while (!done) {
+				byte type = Protocol.readFrame(in, inBuffer);
+				stats.bytesIn.add(inBuffer.limit() + 2);
+				if (type == Protocol.PING) {
+					//answered right away, or the server would think the bot's link is slow
+					send(Protocol.encodePong(outBuffer, inBuffer.getLong(), System.nanoTime()));
+				} else if (type == Protocol.STATE) {
+					onState(Protocol.readState(inBuffer, state));
+				} else if (type == Protocol.STATE_DELTA) {
+					onState(Protocol.readDelta(inBuffer, lastTick, state));
+				} else if (type == Protocol.INPUT_ACK) {
+					int sequence = inBuffer.getShort() & 0xFFFF;
+					long sent = sentAt[sequence % PENDING_INPUTS];
+					if (sent != 0) {
+						stats.inputLatency.record(System.nanoTime() - sent);
+						sentAt[sequence % PENDING_INPUTS] = 0;
+					}
+				} else if (type == Protocol.START) {
+					int tickRate = inBuffer.getShort() & 0xFFFF;
+					slot = inBuffer.get();
+					tickNanos = 1_000_000_000.0 / tickRate;
+					stats.tickRate = tickRate;
+					stats.started.increment();
+				}
+			}
+		} catch (IOException e) {
+			if (done) {
+				//closed by shutdown
+			} else if (out == null) {
+				stats.refused.increment();
+			} else {
+				stats.dropped.increment();
+			}
+		} finally {
+			shutdown();
+		}
+	}
+
+	private void onState(int tick) throws IOException {
+		long now = System.nanoTime();
+		stats.states.increment();
+		if (hasState && tick - lastTick > 0) {
+			countMissed(tick - lastTick, tick);
+		}
+		lastTick = tick;
+
+		if (tickNanos > 0) {
+			double sample = now - tick * tickNanos;
+			if (!hasState || sample < tickZeroNanos) {
+				tickZeroNanos = sample;
+			}
+			stats.stateLateness.record((long) (sample - tickZeroNanos));
+		}
+		hasState = true;
+
+		seenAt[historyEnd % HISTORY] = now;
+		seenBallY[historyEnd % HISTORY] = Protocol.dequantize(state[Protocol.BALL_Y]);
+		historyEnd++;
+		react(now);
+	}
+
+	//the server sends on ticks that are multiples of its interval, so a shorter gap is the interval now,
+	//and two equal longer gaps in a row ending on a multiple of them are a new interval, not states
+	//missed, so what the first of them was counted as is taken back
+	private void countMissed(int gap, int tick) {
+		int missed = 0;
+		if (gap < sendInterval) {
+			sendInterval = gap;
+		} else if (gap > sendInterval) {
+			if (gap == lastGap && tick % gap == 0 && gap <= Protocol.SEND_INTERVAL * LinkQuality.MAX_RATE_DIVISOR) {
+				sendInterval = gap;
+				stats.missedStates.add(-lastMissed);
+			} else {
+				missed = gap / sendInterval - 1;
+				stats.missedStates.add(missed);
+			}
+		}
+		lastGap = gap;
+		lastMissed = missed;
+	}
+
+	//steer towards where the ball was reactionNanos ago
+	private void react(long now) throws IOException {
+		int seen = -1;
+		for (int i = historyEnd - 1; i >= Math.max(0, historyEnd - HISTORY); i--) {
+			if (now - seenAt[i % HISTORY] >= reactionNanos) {
+				seen = i % HISTORY;
+				break;
+			}
+		}
+		if (seen < 0) {
+			return;
+		}
+
+		double ball = seenBallY[seen] + GameSimulation.BALL_SIZE / 2.0;
+		double paddle = Protocol.dequantize(state[slot == 1 ? Protocol.PLAYER1_Y : Protocol.PLAYER2_Y])
+				+ GameSimulation.PADDLE_HEIGHT / 2.0;
+		int wanted = 0;
+		if (ball < paddle - DEAD_ZONE) {
+			wanted = GameSimulation.UP;
+		} else if (ball > paddle + DEAD_ZONE) {
+			wanted = GameSimulation.DOWN;
+		}
+
+		if ((held & GameSimulation.UP) != 0 && (wanted & GameSimulation.UP) == 0) {
+			sendInput(Protocol.UP_RELEASED);
+		}
+		if ((held & GameSimulation.DOWN) != 0 && (wanted & GameSimulation.DOWN) == 0) {
+			sendInput(Protocol.DOWN_RELEASED);
+		}
+		if ((wanted & GameSimulation.UP) != 0 && (held & GameSimulation.UP) == 0) {
+			sendInput(Protocol.UP_PRESSED);
+		}
+		if ((wanted & GameSimulation.DOWN) != 0 && (held & GameSimulation.DOWN) == 0) {
+			sendInput(Protocol.DOWN_PRESSED);
+		}
+	}
+
+	private void sendInput(int code) throws IOException {
+		held = Protocol.applyInput(held, code);
+		int sequence = nextSequence;
+		nextSequence = nextSequence == 0xFFFF ? 1 : nextSequence + 1;
+		sentAt[sequence % PENDING_INPUTS] = System.nanoTime();
+		send(Protocol.encodeInput(outBuffer, code, sequence));
+	}
+
+	private void send(ByteBuffer frame) throws IOException {
+		out.write(frame.array(), 0, frame.limit());
+		stats.bytesOut.add(frame.limit());
+	}
+
+	public void shutdown() {
+		done = true;
+		try {
+			if (socket != null) {
+				socket.close();
+			}
+		} catch (IOException e) {
+			//already closed
+		}
+	}
+}
@@ -1,43 +1,74 @@
 package application;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
-import javafx.scene.Group;
 import javafx.scene.Scene;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.VBox;
-import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
 public class Client extends Application implements Runnable {
 
 	private Socket client;
-	private ObjectInputStream in;
-	private ObjectOutputStream out;
-	private boolean done = false;
+	private DataInputStream in;
+	private OutputStream out;
+	private final ByteBuffer inBuffer = Protocol.allocate();
+	private final ByteBuffer outBuffer = Protocol.allocate();
+
+	//states from the server with their tick, the draw loop interpolates between them
+	//created when the game starts since it needs the server's tick rate
+	private volatile SnapshotBuffer snapshots;
+	private final GameState renderState = new GameState(0, 0, 0, 0);
+	//state as it came over the wire, deltas are applied to it
+	private final short[] quantizedState = new short[Protocol.STATE_FIELDS];
+	private int lastTick;
+
+	//own paddle moves right away and is corrected with the server's acks, created on start
+	private volatile PaddlePredictor predictor;
+
+	//optional udp channel for state snapshots, while snapshots arrive tcp states are ignored
+	//a tcp state newer than the snapshots means the server went back to tcp, and no snapshot for
+	//UDP_TIMEOUT_NANOS means they stopped getting through, either way tcp states count again
+	//until another hello gets through
+	private DatagramChannel udpChannel;
+	private volatile boolean udpActive;
+	private final short[] snapshotState = new short[Protocol.STATE_FIELDS];
+	private volatile long lastSnapshotNanos;
+	private long staleSnapshots;
+	//tick of the newest state shown, from either channel
+	private volatile int newestTick;
+	//time between hellos, doubled every time udp falls back to tcp, and when the next one is due
+	private volatile long helloRetryNanos = HELLO_RETRY_NANOS;
+	private volatile long nextHelloNanos;
+	private static final long HELLO_RETRY_NANOS = 200_000_000L;
+	private static final long MAX_HELLO_RETRY_NANOS = 10_000_000_000L;
+	private static final long UDP_TIMEOUT_NANOS = 1_000_000_000L;
+	private static final long UDP_CHECK_MILLIS = 50;
+
+	private volatile boolean done = false;
 	private boolean gameStarted = false;
 
 	// needs to be same as server
 	// screen dimensions and paddle/ball sizes
 	private static final int WIDTH = 800;
 	private static final int HEIGHT = 600;
-	private static final int PADDLE_WIDTH = 10;
-	private static final int PADDLE_HEIGHT = 100;
-	private static final int BALL_SIZE = 15;
 
 	private double ballX, ballY;
 	private double player1Y, player2Y;
@@ -47,11 +78,23 @@ public class Client extends Application implements Runnable {
 	private TextField ipField;
 	private TextField portField;
 	private Button connectButton;
+	private CheckBox udpBox;
+	private boolean useUdp;
+	private CheckBox watchBox;
+	private boolean watching;
+	private CheckBox directoryBox;
+	private boolean useDirectory;
 
 	private ScoreBoard scoreBoard;
-
-	// Keep track of scores (who it belongs to) coming in from server
-	private boolean firstPlayerScore = true;
+	//every update from the network goes through snapshots, this checks the fx queue stays short
+	private final RenderStats renderStats = new RenderStats("Client");
+	private final ConnectionMetrics traffic = ConnectionMetrics.unlabelled();
+	//how old the newest state is when a frame is drawn
+	private final LatencyHistogram snapshotAge = Metrics.get().histogram("pong_snapshot_age_seconds",
+			"Time since the newest game state arrived, when a frame is drawn");
+	//the server pings us and we ping it, both answer with a pong
+	private final LinkQuality link = new LinkQuality();
+	private final ByteBuffer pingBuffer = Protocol.allocate();
 
 	// Client name
 	private String playerName;
@@ -61,41 +104,86 @@ public class Client extends Application implements Runnable {
 	public void run() {
 
 		try {
-			client = new Socket(ipField.getText(), Integer.parseInt(portField.getText()));
-			out = new ObjectOutputStream(client.getOutputStream());
-			in = new ObjectInputStream(client.getInputStream());
-
-			// send name to server
-			out.writeObject(playerName);
-			out.flush();
+			String host = ipField.getText();
+			int port = Integer.parseInt(portField.getText());
+			//the address is a directory's, which names the room server to use
+			if (useDirectory) {
+				InetSocketAddress node = Directory.find(host, port, watching);
+				System.out.println("Directory sent us to " + node.getHostString() + ":" + node.getPort());
+				host = node.getHostString();
+				port = node.getPort();
+			}
+			client = new Socket(host, port);
+			client.setTcpNoDelay(true);
+			out = client.getOutputStream();
+			in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+
+			//a spectator asks for a room instead of joining as a player
+			if (watching) {
+				sendFrame(Protocol.encodeWatch(outBuffer, 0));
+			} else {
+				sendNameToServer();
+			}
 			
             showAlert(Alert.AlertType.INFORMATION, "Connection Status", "Connection to server successful!");
 
-			Object message;
-			while (!done && (message = in.readObject()) != null) {
-				if (message instanceof Server.GameState) {
-					// process game state updates
-					Server.GameState gameState = (Server.GameState) message;
-					Platform.runLater(() -> updateGameState(gameState));
-				} else if (message instanceof Integer) {
-					int i = Integer.parseInt(message.toString());
-
-					// System.out.println("Integer received from server! " + i);
-
-					if (firstPlayerScore) {
-						this.scoreBoard.setP1Score(i);
-						firstPlayerScore = false;
+			while (!done) {
+				byte type = Protocol.readFrame(in, inBuffer);
+				long received = System.nanoTime();
+				traffic.received(inBuffer.limit() + 2);
+				if (link.pingDue(received)) {
+					sendPing(received);
+				}
+				if (type == Protocol.PING) {
+					sendPong(inBuffer.getLong(), received);
+				} else if (type == Protocol.PONG) {
+					link.pong(inBuffer.getLong(), inBuffer.getLong(), inBuffer.getLong(), received);
+				} else if (type == Protocol.STATE || type == Protocol.STATE_DELTA) {
+					// process game state updates, a delta applies to the previous state
+					if (type == Protocol.STATE) {
+						lastTick = Protocol.readState(inBuffer, quantizedState);
 					} else {
-						this.scoreBoard.setP2Score(i);
-						firstPlayerScore = true;
+						lastTick = Protocol.readDelta(inBuffer, lastTick, quantizedState);
 					}
-
-				} else if (message instanceof String) {
-					if (((String) message).equals("StartGame")) {
-						startGame();
+					if (!udpActive) {
+						publishState(lastTick, quantizedState);
+					} else if (lastTick - newestTick > 0) {
+						//one sent before udp took over is older than the snapshots, a newer one isn't
+						fallBackToTcp("the server sends states over TCP again");
+						publishState(lastTick, quantizedState);
+					}
+				} else if (type == Protocol.WELCOME) {
+					int token = inBuffer.getInt();
+					if (useUdp) {
+						startUdp(token);
+					}
+				} else if (type == Protocol.SCORE) {
+					scoreBoard.setP1Score(inBuffer.getInt());
+					scoreBoard.setP2Score(inBuffer.getInt());
+				} else if (type == Protocol.INPUT_ACK) {
+					PaddlePredictor p = predictor;
+					if (p != null) {
+						int sequence = inBuffer.getShort() & 0xFFFF;
+						p.acknowledge(sequence, inBuffer.getInt());
+					}
+				} else if (type == Protocol.START) {
+					int tickRate = inBuffer.getShort() & 0xFFFF;
+					int slot = inBuffer.get();
+					snapshots = new SnapshotBuffer(tickRate);
+					//slot 0 watches, both paddles are drawn as the server sends them
+					predictor = slot == 0 ? null : new PaddlePredictor(slot, tickRate);
+					if (slot == 1) {
+						scoreBoard.setP1Name(playerName);
+					}
+					startGame();
+				} else if (type == Protocol.NAME) {
+					int slot = inBuffer.get();
+					String name = Protocol.readName(inBuffer);
+					System.out.println(name);
+					if (slot == 1) {
+						scoreBoard.setP1Name(name);
 					} else {
-						System.out.println((String) message);
-						scoreBoard.setP1Name((String) message);
+						scoreBoard.setP2Name(name);
 					}
 				}
 			}
@@ -113,8 +201,96 @@ public class Client extends Application implements Runnable {
 		}
 	}
 
+	//hand a decoded state to the draw loop and correct the predicted paddle with it
+	private void publishState(int tick, short[] state) {
+		newestTick = tick;
+		SnapshotBuffer buffer = snapshots;
+		if (buffer != null) {
+			buffer.add(tick, Protocol.dequantize(state[Protocol.BALL_X]), Protocol.dequantize(state[Protocol.BALL_Y]),
+					Protocol.dequantize(state[Protocol.PLAYER1_Y]), Protocol.dequantize(state[Protocol.PLAYER2_Y]),
+					System.nanoTime());
+		}
+		PaddlePredictor p = predictor;
+		if (p != null) {
+			int field = p.getSlot() == 1 ? Protocol.PLAYER1_Y : Protocol.PLAYER2_Y;
+			p.reconcile(tick, Protocol.dequantize(state[field]));
+		}
+	}
+
+	//udp goes to the same address and port as the tcp connection
+	private void startUdp(int token) {
+		try {
+			udpChannel = DatagramChannel.open();
+			udpChannel.connect(new InetSocketAddress(client.getInetAddress(), client.getPort()));
+		} catch (IOException e) {
+			System.err.println("UDP unavailable, game state stays on TCP: " + e.getMessage());
+			return;
+		}
+
+		//for as long as the connection lasts: repeat the hello until snapshots arrive, since it may get lost,
+		//and tell the server to use tcp when they stop
+		Thread hello = new Thread(() -> {
+			ByteBuffer buf = Protocol.allocate();
+			try {
+				nextHelloNanos = System.nanoTime();
+				while (!done) {
+					long now = System.nanoTime();
+					if (!udpActive && now - nextHelloNanos >= 0) {
+						udpChannel.write(Protocol.encodeUdpHello(buf, token));
+						nextHelloNanos = now + helloRetryNanos;
+					} else if (udpActive && now - lastSnapshotNanos > UDP_TIMEOUT_NANOS) {
+						fallBackToTcp("no snapshots for " + UDP_TIMEOUT_NANOS / 1_000_000 + " ms");
+						sendFrame(Protocol.encodeUdpOff(buf));
+					}
+					Thread.sleep(UDP_CHECK_MILLIS);
+				}
+			} catch (IOException | InterruptedException e) {
+				if (!done && udpChannel.isOpen()) {
+					stopUdp("hello failed: " + e);
+				}
+			}
+		});
+		hello.setDaemon(true);
+		hello.start();
+
+		Thread receiver = new Thread(this::receiveSnapshots);
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+
+	//udp thread, snapshots that are older than one already applied are dropped
+	private void receiveSnapshots() {
+		ByteBuffer buf = Protocol.allocate();
+		try {
+			while (!done) {
+				buf.clear();
+				udpChannel.read(buf);
+				buf.flip();
+				if (Protocol.completeFrameSize(buf) < 0 || Protocol.readFrame(buf) != Protocol.SNAPSHOT) {
+					continue;
+				}
+				traffic.received(buf.limit());
+				int sequence = Protocol.readState(buf, snapshotState);
+				if (sequence - newestTick <= 0) {
+					staleSnapshots++;
+					continue;
+				}
+				lastSnapshotNanos = System.nanoTime();
+				udpActive = true;
+				publishState(sequence, snapshotState);
+			}
+		} catch (IOException e) {
+			if (!done && udpChannel.isOpen()) {
+				stopUdp(e.toString());
+			}
+		}
+		if (staleSnapshots > 0) {
+			System.out.println(staleSnapshots + " late snapshots dropped");
+		}
+	}
+
 	//update game state with the received data from server
-	public void updateGameState(Server.GameState gameState) {
+	public void updateGameState(GameState gameState) {
 		this.ballX = gameState.ballX;
 		this.ballY = gameState.ballY;
 		this.player1Y = gameState.player1Y;
@@ -126,17 +302,14 @@ public class Client extends Application implements Runnable {
 		if (!gameStarted) {
 			gameStarted = true;
 
-			Platform.runLater(() -> {
+			renderStats.runLater(() -> {
 				Stage primaryStage = new Stage();
 				primaryStage.setTitle("Ping Pong Game - Client");
 
-				Canvas canvas = new Canvas(WIDTH, HEIGHT);
-				GraphicsContext gc = canvas.getGraphicsContext2D();
-
-				Group root = new Group();
-				root.getChildren().add(canvas);
+				//layered canvases, only what changed is drawn each frame
+				GameRenderer renderer = new GameRenderer(scoreBoard);
 
-				Scene scene = new Scene(root, WIDTH, HEIGHT);
+				Scene scene = new Scene(renderer.getView(), WIDTH, HEIGHT);
 				primaryStage.setScene(scene);
 				primaryStage.show();
 
@@ -146,11 +319,27 @@ public class Client extends Application implements Runnable {
 				scene.setOnKeyPressed(this::handleKeyPress);
 				scene.setOnKeyReleased(this::handleKeyRelease);
 
-				//loop that draws what the server sends
+				//loop that draws what the server sends, smoothed out between states
 				new AnimationTimer() {
 					@Override
 					public void handle(long now) {
-						draw(gc);
+						renderStats.frameStarted(now);
+						if (snapshots.sample(now, renderState)) {
+							updateGameState(renderState);
+							snapshotAge.record(now - snapshots.getNewestReceivedNanos());
+						}
+						//the own paddle is drawn where it is predicted, not where the server had it
+						PaddlePredictor p = predictor;
+						if (p != null) {
+							p.advance(now);
+							if (p.getSlot() == 1) {
+								player1Y = p.getY();
+							} else {
+								player2Y = p.getY();
+							}
+						}
+						renderer.draw(ballX, ballY, player1Y, player2Y);
+						renderStats.frameFinished();
 					}
 				}.start();
 
@@ -167,6 +356,12 @@ public class Client extends Application implements Runnable {
 	@Override
 	public void start(Stage primaryStage) {
 		primaryStage.setTitle("Ping Pong Game - Client");
+		Metrics metrics = Metrics.get();
+		metrics.gauge("pong_link_rtt_seconds", "Smoothed round trip to the server", () -> link.getRtt() / 1e9);
+		metrics.gauge("pong_link_jitter_seconds", "Round trip variation to the server", () -> link.getJitter() / 1e9);
+		metrics.gauge("pong_link_clock_offset_seconds", "How far the server's clock is ahead of ours",
+				() -> link.getClockOffset() / 1e9);
+		metrics.exportFromProperties();
 
 		Label nameLabel = new Label("Your Name:");
 		nameField = new TextField("Client");
@@ -179,13 +374,24 @@ public class Client extends Application implements Runnable {
 
 		scoreBoard = new ScoreBoard(); //Scoreboard shows up on screen
 
+		udpBox = new CheckBox("Receive game state over UDP");
+		//on a room server this needs its spectator port
+		watchBox = new CheckBox("Watch only");
+		//ip and port are then the directory's, e.g. port 9990
+		directoryBox = new CheckBox("Find a server through a directory");
+
 		connectButton = new Button("Connect");
 		connectButton.setOnAction(event -> {
 			if (nameField.getText().isEmpty() || ipField.getText().isEmpty() || portField.getText().isEmpty()) {
 				showAlert(Alert.AlertType.ERROR, "Missing Information", "Please enter your name, server IP, and port.");
 			} else {
 				playerName = nameField.getText();
-				scoreBoard.setP2Name(playerName);
+				useUdp = udpBox.isSelected();
+				watching = watchBox.isSelected();
+				useDirectory = directoryBox.isSelected();
+				if (!watching) {
+					scoreBoard.setP2Name(playerName);
+				}
 
 				Thread clientThread = new Thread(this);
 				clientThread.start();
@@ -193,17 +399,18 @@ public class Client extends Application implements Runnable {
 			}
 		});
 
-		VBox vbox = new VBox(10, nameLabel, nameField, ipLabel, ipField, portLabel, portField, connectButton);
+		VBox vbox = new VBox(10, nameLabel, nameField, ipLabel, ipField, portLabel, portField, udpBox, watchBox,
+				directoryBox, connectButton);
 		vbox.setPadding(new Insets(10));
 
-		Scene scene = new Scene(vbox, 300, 250);
+		Scene scene = new Scene(vbox, 300, 340);
 		primaryStage.setScene(scene);
 		primaryStage.show();
 	}
 
 	//helper method for alerts
 	private void showAlert(Alert.AlertType alertType, String title, String message) {
-		Platform.runLater(() -> {
+		renderStats.runLater(() -> {
 			Alert alert = new Alert(alertType);
 			alert.setTitle(title);
 			alert.setHeaderText(null);
@@ -212,28 +419,13 @@ public class Client extends Application implements Runnable {
 		});
 	}
 
-	//draw graphics
-	private void draw(GraphicsContext gc) {
-		gc.setFill(Color.BLACK);
-		gc.fillRect(0, 0, WIDTH, HEIGHT);
-
-		gc.setFill(Color.WHITE);
-		gc.fillRect(0, player1Y, PADDLE_WIDTH, PADDLE_HEIGHT);
-		gc.fillRect(WIDTH - PADDLE_WIDTH, player2Y, PADDLE_WIDTH, PADDLE_HEIGHT);
-
-		gc.fillOval(ballX, ballY, BALL_SIZE, BALL_SIZE);
-
-		//draw scoreboard on screen
-		scoreBoard.draw(gc);
-	}
-
 	//handle pressing of key input
 	private void handleKeyPress(KeyEvent event) {
 		KeyCode code = event.getCode();
 
 		if (code == KeyCode.DOWN) {
 			try {
-				sendInputToServer(0);
+				sendInputToServer(Protocol.DOWN_PRESSED);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -242,7 +434,7 @@ public class Client extends Application implements Runnable {
 
 		if (code == KeyCode.UP) {
 			try {
-				sendInputToServer(2);
+				sendInputToServer(Protocol.UP_PRESSED);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -257,7 +449,7 @@ public class Client extends Application implements Runnable {
 
 		if (code == KeyCode.DOWN) {
 			try {
-				sendInputToServer(1);
+				sendInputToServer(Protocol.DOWN_RELEASED);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -266,7 +458,7 @@ public class Client extends Application implements Runnable {
 
 		if (code == KeyCode.UP) {
 			try {
-				sendInputToServer(3);
+				sendInputToServer(Protocol.UP_RELEASED);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -274,16 +466,59 @@ public class Client extends Application implements Runnable {
 		}
 	}
 
-	//send inputs to server for this player (player2/client) 
+	//send inputs to server for this player, numbered so the server can ack them
 	private synchronized void sendInputToServer(int input) throws IOException {
+		if (watching) {
+			return;
+		}
 		if (client != null && !client.isClosed() && out != null) {
-			out.writeObject(input);
-			out.flush();
+			PaddlePredictor p = predictor;
+			int sequence = p != null ? p.input(input) : 0;
+			sendFrame(Protocol.encodeInput(outBuffer, input, sequence));
 		} else {
 			System.out.println("Cannot send input to server: Socket is closed or output stream is null");
 		}
 	}
 
+	private synchronized void sendPing(long now) throws IOException {
+		sendFrame(Protocol.encodePing(pingBuffer, now));
+	}
+
+	private synchronized void sendPong(long pingSent, long pingReceived) throws IOException {
+		sendFrame(Protocol.encodePong(pingBuffer, pingSent, pingReceived));
+	}
+
+	//send the name of this player (player2/client)
+	private synchronized void sendNameToServer() throws IOException {
+		sendFrame(Protocol.encodeName(outBuffer, 2, playerName));
+	}
+
+	//write a frame encoded into outBuffer
+	private synchronized void sendFrame(ByteBuffer frame) throws IOException {
+		out.write(frame.array(), 0, frame.limit());
+		traffic.sent(frame.limit());
+	}
+
+	//tcp states count again, the next hello waits twice as long so a bad udp path doesn't flip back and forth
+	private void fallBackToTcp(String reason) {
+		udpActive = false;
+		helloRetryNanos = Math.min(helloRetryNanos * 2, MAX_HELLO_RETRY_NANOS);
+		nextHelloNanos = System.nanoTime() + helloRetryNanos;
+		System.err.println("Game state back on TCP, " + reason);
+	}
+
+	//the udp channel failed, states stay on tcp for the rest of the connection
+	private void stopUdp(String reason) {
+		System.err.println("UDP error, game state stays on TCP: " + reason);
+		udpActive = false;
+		try {
+			udpChannel.close();
+			sendFrame(Protocol.encodeUdpOff(Protocol.allocate()));
+		} catch (IOException e) {
+			//the tcp connection is failing as well, run() notices
+		}
+	}
+
 	//shutdown and close connection
 	public void shutdown() {
 		done = true;
@@ -294,6 +529,8 @@ public class Client extends Application implements Runnable {
 				out.close();
 			if (client != null && !client.isClosed())
 				client.close();
+			if (udpChannel != null)
+				udpChannel.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,101 @@
+package application;
+
+import java.util.concurrent.atomic.LongAdder;
+
+//bytes and frames in and out of network connections
+//totals are always kept, a labelled instance also has its own series that go away on close
+//the room server uses unlabelled ones, a series per player would be thousands of them
+public class ConnectionMetrics {
+
+	private static final Metrics METRICS = Metrics.get();
+	private static final LongAdder BYTES_IN = METRICS.counter("pong_bytes_in_total", "Bytes received");
+	private static final LongAdder BYTES_OUT = METRICS.counter("pong_bytes_out_total", "Bytes sent");
+	private static final LongAdder MESSAGES_IN = METRICS.counter("pong_messages_in_total", "Frames received");
+	private static final LongAdder MESSAGES_OUT = METRICS.counter("pong_messages_out_total", "Frames sent");
+
+	//from queueing a frame until the socket took it
+	public static final LatencyHistogram MESSAGE_LATENCY = METRICS.histogram("pong_send_latency_seconds{kind=\"message\"}",
+			"Time from queueing a frame until it was written to the socket");
+	public static final LatencyHistogram STATE_LATENCY = METRICS.histogram("pong_send_latency_seconds{kind=\"state\"}",
+			"Time from queueing a frame until it was written to the socket");
+	public static final LongAdder DROPPED_STATES = METRICS.counter("pong_dropped_states_total",
+			"States replaced by a newer one before they could be sent");
+	public static final LongAdder DROPPED_CONNECTIONS = METRICS.counter("pong_dropped_connections_total",
+			"Connections closed because the client stopped reading");
+
+	private final String label;
+	private final LongAdder bytesIn;
+	private final LongAdder bytesOut;
+	private final LongAdder messagesIn;
+	private final LongAdder messagesOut;
+	private boolean linkGauges;
+
+	private ConnectionMetrics(String label) {
+		this.label = label;
+		if (label != null) {
+			bytesIn = METRICS.counter("pong_connection_bytes_in_total" + label, "Bytes received on one connection");
+			bytesOut = METRICS.counter("pong_connection_bytes_out_total" + label, "Bytes sent on one connection");
+			messagesIn = METRICS.counter("pong_connection_messages_in_total" + label, "Frames received on one connection");
+			messagesOut = METRICS.counter("pong_connection_messages_out_total" + label, "Frames sent on one connection");
+		} else {
+			bytesIn = bytesOut = messagesIn = messagesOut = null;
+		}
+	}
+
+	public static ConnectionMetrics labelled(String connection) {
+		return new ConnectionMetrics("{connection=\"" + connection + "\"}");
+	}
+
+	public static ConnectionMetrics unlabelled() {
+		return new ConnectionMetrics(null);
+	}
+
+	public void received(int bytes) {
+		BYTES_IN.add(bytes);
+		MESSAGES_IN.increment();
+		if (label != null) {
+			bytesIn.add(bytes);
+			messagesIn.increment();
+		}
+	}
+
+	public void sent(int bytes) {
+		BYTES_OUT.add(bytes);
+		MESSAGES_OUT.increment();
+		if (label != null) {
+			bytesOut.add(bytes);
+			messagesOut.increment();
+		}
+	}
+
+	//round trip, jitter, clock offset and state rate of the connection, labelled instances only
+	public void link(LinkQuality link) {
+		if (label == null) {
+			return;
+		}
+		linkGauges = true;
+		METRICS.gauge("pong_connection_rtt_seconds" + label, "Smoothed round trip of one connection",
+				() -> link.getRtt() / 1e9);
+		METRICS.gauge("pong_connection_jitter_seconds" + label, "Round trip variation of one connection",
+				() -> link.getJitter() / 1e9);
+		METRICS.gauge("pong_connection_clock_offset_seconds" + label,
+				"How far the other side's clock is ahead of ours", () -> link.getClockOffset() / 1e9);
+		METRICS.gauge("pong_connection_state_rate_divisor" + label,
+				"How many times fewer states the connection gets than a good link", link::getRateDivisor);
+	}
+
+	public void close() {
+		if (linkGauges) {
+			METRICS.remove("pong_connection_rtt_seconds" + label);
+			METRICS.remove("pong_connection_jitter_seconds" + label);
+			METRICS.remove("pong_connection_clock_offset_seconds" + label);
+			METRICS.remove("pong_connection_state_rate_divisor" + label);
+		}
+		if (label != null) {
+			METRICS.remove("pong_connection_bytes_in_total" + label);
+			METRICS.remove("pong_connection_bytes_out_total" + label);
+			METRICS.remove("pong_connection_messages_in_total" + label);
+			METRICS.remove("pong_connection_messages_out_total" + label);
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package application;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+//lobby for several room server processes: nodes register their address and capacity and report their
+//load every second, clients ask the directory for a node and connect there
+//
+//line based text over tcp, one request per line and one reply line, so nc is enough to talk to it:
+//  from a node, on one connection it keeps open:
+//    REGISTER id host port spectatorPort capacity   OK
+//    LOAD rooms waiting                             OK, or DRAINING once the node is being drained
+//  from anyone:
+//    FIND PLAY, FIND WATCH                          NODE host port, or NONE
+//    DRAIN id                                       OK, or UNKNOWN
+//    LIST                                           a NODE line per node, then END
+//a node is forgotten when its connection closes or its reports stop for NODE_TIMEOUT_NANOS
+//
+//room servers pair players in order of arrival, so a player goes where another one is waiting if there
+//is such a node, and otherwise to the node with the lowest share of its capacity in use
+//a drained node gets no new players while its matches play out, and can be stopped once it has no rooms
+public class Directory implements Runnable {
+
+	public static final int DEFAULT_PORT = 9990;
+	public static final long REPORT_INTERVAL_MILLIS = 1000;
+	private static final long NODE_TIMEOUT_NANOS = 5_000_000_000L;
+	//a node's report is older than the players sent there just before it, the directory's own guess
+	//of whether a player waits there counts until the node had time to see them connect
+	private static final long ROUTE_SETTLE_NANOS = 2 * REPORT_INTERVAL_MILLIS * 1_000_000L;
+	private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+	//a connection that sends nothing for this long is closed, nodes report far more often
+	private static final int IDLE_TIMEOUT_MILLIS = (int) (NODE_TIMEOUT_NANOS / 1_000_000);
+	//lines longer than this are refused before more of them is read, nothing in the protocol comes near it
+	private static final int MAX_LINE = 256;
+	private static final int END_OF_STREAM = -1;
+	private static final int LINE_TOO_LONG = -2;
+
+	private final int port;
+	private ServerSocket serverSocket;
+	//virtual threads only where the runtime has them, like Server's checkbox, so java 17 gets the cached pool
+	//without the warning
+	private final ExecutorService pool = ThreadPools.newConnectionPool(ThreadPools.virtualThreadsAvailable());
+	private volatile boolean done;
+
+	//by id, guarded by this
+	private final Map<String, Node> nodes = new LinkedHashMap<>();
+
+	public Directory(int port) {
+		this.port = port;
+	}
+
+	//one room server as the directory sees it
+	private static class Node {
+		final String id;
+		final String host;
+		final int port;
+		final int spectatorPort;
+		final int capacity;
+		//the connection it registered on, the node is gone when that closes
+		final Socket socket;
+
+		int rooms;
+		//players sent there since its last report, each pair of them opens a room
+		int routed;
+		//a player is waiting there for an opponent
+		boolean waiting;
+		boolean draining;
+		long lastReport;
+		long lastRouted;
+
+		Node(String id, String host, int port, int spectatorPort, int capacity, Socket socket) {
+			this.id = id;
+			this.host = host;
+			this.port = port;
+			this.spectatorPort = spectatorPort;
+			this.capacity = capacity;
+			this.socket = socket;
+		}
+
+		//share of the capacity in use, counting rooms the players sent since the last report will open
+		double load() {
+			return (rooms + routed / 2.0) / capacity;
+		}
+
+		boolean full() {
+			return rooms + (routed + 1) / 2 >= capacity;
+		}
+
+		String describe() {
+			return "NODE " + id + " " + host + " " + port + " " + spectatorPort + " rooms " + rooms + " capacity "
+					+ capacity + (waiting ? " waiting" : "") + (draining ? " draining" : "");
+		}
+	}
+
+	public void start() throws IOException {
+		serverSocket = new ServerSocket(port);
+		new Thread(this, "directory-acceptor").start();
+		System.out.println("Directory started at port " + getPort());
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!done) {
+				Socket socket = serverSocket.accept();
+				pool.execute(() -> serve(socket));
+			}
+		} catch (IOException e) {
+			if (!done) {
+				System.err.println("Error accepting connection: " + e.getMessage());
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		Node registered = null;
+		try (Socket s = socket;
+				InputStream in = new BufferedInputStream(s.getInputStream());
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8),
+						true)) {
+			s.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+			byte[] buffer = new byte[MAX_LINE];
+			int length;
+			while ((length = readLine(in, buffer)) >= 0) {
+				String line = new String(buffer, 0, length, StandardCharsets.UTF_8);
+				String[] words = line.trim().split("\\s+");
+				String command = words[0].toUpperCase();
+				try {
+					if (command.equals("REGISTER") && words.length == 6) {
+						registered = register(words, s);
+						out.println("OK");
+					} else if (command.equals("LOAD") && words.length == 3 && registered != null) {
+						out.println(report(registered, Integer.parseInt(words[1]), words[2].equals("1")) ? "DRAINING"
+								: "OK");
+					} else if (command.equals("FIND") && words.length == 2) {
+						Node node = find(words[1].equalsIgnoreCase("WATCH"));
+						out.println(node == null ? "NONE"
+								: "NODE " + node.host + " "
+										+ (words[1].equalsIgnoreCase("WATCH") ? node.spectatorPort : node.port));
+					} else if (command.equals("DRAIN") && words.length == 2) {
+						out.println(drain(words[1]) ? "OK" : "UNKNOWN");
+					} else if (command.equals("LIST") && words.length == 1) {
+						for (String node : list()) {
+							out.println(node);
+						}
+						out.println("END");
+					} else {
+						out.println("ERROR unknown request " + line);
+					}
+				} catch (NumberFormatException e) {
+					out.println("ERROR not a number in " + line);
+				}
+			}
+			if (length == LINE_TOO_LONG) {
+				out.println("ERROR line too long");
+			}
+		} catch (IOException e) {
+			//the other side went away, or was idle for too long
+		} finally {
+			if (registered != null) {
+				unregister(registered);
+			}
+		}
+	}
+
+	//reads a line into buffer without its line break and returns its length, END_OF_STREAM at the end,
+	//or LINE_TOO_LONG as soon as it doesn't fit, without reading the rest of it
+	private static int readLine(InputStream in, byte[] buffer) throws IOException {
+		int length = 0;
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				return length == 0 ? END_OF_STREAM : length;
+			}
+			if (length == buffer.length) {
+				return LINE_TOO_LONG;
+			}
+			buffer[length++] = (byte) b;
+		}
+		if (length > 0 && buffer[length - 1] == '\r') {
+			length--;
+		}
+		return length;
+	}
+
+	private synchronized Node register(String[] words, Socket socket) {
+		int capacity = Integer.parseInt(words[5]);
+		if (capacity < 1) {
+			throw new NumberFormatException("capacity " + capacity);
+		}
+		Node node = new Node(words[1], words[2], Integer.parseInt(words[3]), Integer.parseInt(words[4]), capacity,
+				socket);
+		node.lastReport = System.nanoTime();
+		Node old = nodes.put(node.id, node);
+		if (old != null) {
+			//registered again, e.g. after losing its connection, it stays drained if it was
+			node.draining = old.draining;
+			closeQuietly(old.socket);
+		}
+		System.out.println("Node " + node.id + " at " + node.host + ":" + node.port + " registered, capacity "
+				+ capacity + " rooms");
+		return node;
+	}
+
+	private synchronized void unregister(Node node) {
+		if (nodes.get(node.id) == node) {
+			nodes.remove(node.id);
+			System.out.println("Node " + node.id + " left");
+		}
+	}
+
+	//returns whether the node is being drained
+	private synchronized boolean report(Node node, int rooms, boolean waiting) {
+		long now = System.nanoTime();
+		node.rooms = rooms;
+		node.routed = 0;
+		if (now - node.lastRouted > ROUTE_SETTLE_NANOS) {
+			node.waiting = waiting;
+		}
+		node.lastReport = now;
+		return node.draining;
+	}
+
+	//forgets the nodes whose reports stopped without their connection closing
+	private synchronized void removeSilentNodes(long now) {
+		for (Iterator<Node> it = nodes.values().iterator(); it.hasNext();) {
+			Node node = it.next();
+			if (now - node.lastReport > NODE_TIMEOUT_NANOS) {
+				System.out.println("Node " + node.id + " stopped reporting");
+				closeQuietly(node.socket);
+				it.remove();
+			}
+		}
+	}
+
+	private synchronized Node find(boolean watch) {
+		long now = System.nanoTime();
+		removeSilentNodes(now);
+		Node best = null;
+		for (Node node : nodes.values()) {
+			if (watch) {
+				//the busiest node has the most to watch, its newest room is shown
+				if (node.spectatorPort >= 0 && node.rooms > 0 && (best == null || node.rooms > best.rooms)) {
+					best = node;
+				}
+			} else if (node.waiting) {
+				//even on a drained node, or that player would never get a match
+				best = node;
+				break;
+			} else if (!node.draining && !node.full() && (best == null || node.load() < best.load())) {
+				best = node;
+			}
+		}
+		if (best != null && !watch) {
+			best.routed++;
+			best.waiting = !best.waiting;
+			best.lastRouted = now;
+		}
+		return best;
+	}
+
+	private synchronized boolean drain(String id) {
+		Node node = nodes.get(id);
+		if (node == null) {
+			return false;
+		}
+		node.draining = true;
+		System.out.println("Node " + id + " is being drained, " + node.rooms + " rooms left");
+		return true;
+	}
+
+	private synchronized List<String> list() {
+		removeSilentNodes(System.nanoTime());
+		List<String> lines = new ArrayList<>();
+		for (Node node : nodes.values()) {
+			lines.add(node.describe());
+		}
+		return lines;
+	}
+
+	public synchronized int getNodeCount() {
+		removeSilentNodes(System.nanoTime());
+		return nodes.size();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public void shutdown() {
+		done = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			System.err.println("Error during shutdown: " + e.getMessage());
+		}
+		synchronized (this) {
+			for (Node node : nodes.values()) {
+				closeQuietly(node.socket);
+			}
+		}
+		pool.shutdownNow();
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			System.err.println("Error closing connection: " + e.getMessage());
+		}
+	}
+
+	//for clients: asks the directory at host:port where to play or watch
+	public static InetSocketAddress find(String host, int port, boolean watch) throws IOException {
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+			socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+			PrintWriter out = new PrintWriter(
+					new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			out.println(watch ? "FIND WATCH" : "FIND PLAY");
+			String reply = in.readLine();
+			String[] words = reply == null ? new String[0] : reply.split(" ");
+			if (words.length != 3 || !words[0].equals("NODE")) {
+				throw new IOException("No server " + (watch ? "to watch" : "with room") + " at directory " + host + ":"
+						+ port + (reply == null ? "" : ": " + reply));
+			}
+			return new InetSocketAddress(words[1], Integer.parseInt(words[2]));
+		}
+	}
+
+	//args: [port]
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		Directory directory = new Directory(port);
+		directory.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(directory::shutdown, "directory-shutdown"));
+	}
+}
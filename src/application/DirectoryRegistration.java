@@ -0,0 +1,137 @@
+package application;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+//keeps a RoomServer registered with a Directory: registers, reports its rooms every
+//Directory.REPORT_INTERVAL_MILLIS, and registers again when the directory comes back after a restart
+//while the directory drains the node it only logs how many rooms are left, stopping it is up to whoever drained it
+public class DirectoryRegistration implements Runnable {
+
+	private static final long RETRY_MILLIS = 2000;
+	private static final int TIMEOUT_MILLIS = 5000;
+
+	private final InetSocketAddress directory;
+	//host:port as given, unresolved addresses print oddly
+	private final String directoryName;
+	private final RoomServer server;
+	//null for the defaults: the address this node reaches the directory from, and that with the port
+	private final String advertisedHost;
+	private final String nodeId;
+	private final int capacity;
+
+	private volatile boolean done;
+	private volatile Socket socket;
+	private boolean draining;
+	private int lastRooms;
+
+	public DirectoryRegistration(InetSocketAddress directory, RoomServer server, String advertisedHost, String nodeId,
+			int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least one room: " + capacity);
+		}
+		if (nodeId != null && (nodeId.isEmpty() || nodeId.matches(".*\\s.*"))) {
+			throw new IllegalArgumentException("Node id can't be empty or contain spaces: " + nodeId);
+		}
+		this.directory = directory;
+		this.directoryName = directory.getHostString() + ":" + directory.getPort();
+		this.server = server;
+		this.advertisedHost = advertisedHost;
+		this.nodeId = nodeId;
+		this.capacity = capacity;
+	}
+
+	public void start() {
+		Thread thread = new Thread(this, "room-directory");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		boolean failing = false;
+		while (!done) {
+			try (Socket s = new Socket()) {
+				socket = s;
+				s.connect(new InetSocketAddress(directory.getHostString(), directory.getPort()), TIMEOUT_MILLIS);
+				s.setSoTimeout(TIMEOUT_MILLIS);
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8),
+						true);
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+
+				String host = advertisedHost != null ? advertisedHost : s.getLocalAddress().getHostAddress();
+				String id = nodeId != null ? nodeId : host + ":" + server.getPort();
+				out.println("REGISTER " + id + " " + host + " " + server.getPort() + " " + server.getSpectatorPort() + " "
+						+ capacity);
+				expect(in, "OK");
+				System.out.println("Registered as " + id + " with the directory at " + directoryName);
+				failing = false;
+
+				while (!done) {
+					int rooms = server.getRoomCount();
+					out.println("LOAD " + rooms + " " + (server.isPlayerWaiting() ? 1 : 0));
+					String reply = in.readLine();
+					if ("DRAINING".equals(reply)) {
+						if (!draining) {
+							System.out.println("Draining, no new players are sent here, " + rooms + " rooms left");
+						}
+						if (rooms == 0 && (!draining || lastRooms > 0)) {
+							System.out.println("Drained, no rooms left, this server can be stopped");
+						}
+						draining = true;
+					} else {
+						expect(reply, "OK");
+						draining = false;
+					}
+					lastRooms = rooms;
+					Thread.sleep(Directory.REPORT_INTERVAL_MILLIS);
+				}
+			} catch (IOException e) {
+				if (!done && !failing) {
+					System.err.println("Lost the directory at " + directoryName + ", trying again: " + e.getMessage());
+					failing = true;
+				}
+				sleep(RETRY_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private static void expect(BufferedReader in, String expected) throws IOException {
+		expect(in.readLine(), expected);
+	}
+
+	private static void expect(String reply, String expected) throws IOException {
+		if (!expected.equals(reply)) {
+			throw new IOException("Directory answered " + reply);
+		}
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			done = true;
+		}
+	}
+
+	//the directory forgets the node right away instead of sending players until its reports stop
+	public void shutdown() {
+		done = true;
+		Socket s = socket;
+		if (s != null) {
+			try {
+				s.close();
+			} catch (IOException e) {
+				System.err.println("Error closing directory connection: " + e.getMessage());
+			}
+		}
+	}
+}
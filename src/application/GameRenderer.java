@@ -0,0 +1,116 @@
+package application;
+
+import javafx.scene.Group;
+import javafx.scene.Parent;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+//draws the game on three stacked canvases so a frame only touches what changed
+//background is filled once, the score layer is redrawn when the score board changes,
+//and on the transparent sprite layer the paddles and ball are cleared where they were last frame
+//and drawn where they are now. nothing is drawn at all when nothing moved
+//start with -Dpong.fullRedraw=true to draw every frame from scratch, to compare frame times
+public class GameRenderer {
+
+	private static final int WIDTH = GameSimulation.WIDTH;
+	private static final int HEIGHT = GameSimulation.HEIGHT;
+	private static final int PADDLE_WIDTH = GameSimulation.PADDLE_WIDTH;
+	private static final int PADDLE_HEIGHT = GameSimulation.PADDLE_HEIGHT;
+	private static final int BALL_SIZE = GameSimulation.BALL_SIZE;
+	//edges of shapes at fractional positions are antialiased into the next pixel
+	private static final int MARGIN = 1;
+
+	private static final boolean FULL_REDRAW = Boolean.getBoolean("pong.fullRedraw");
+
+	private final ScoreBoard scoreBoard;
+	private final Group view;
+	private final GraphicsContext scoreGc;
+	private final GraphicsContext spriteGc;
+
+	//what is on the sprite layer right now
+	private double drawnBallX = Double.NaN;
+	private double drawnBallY = Double.NaN;
+	private double drawnPlayer1Y = Double.NaN;
+	private double drawnPlayer2Y = Double.NaN;
+	private int drawnScoreVersion = -1;
+
+	public GameRenderer(ScoreBoard scoreBoard) {
+		this.scoreBoard = scoreBoard;
+		Canvas background = new Canvas(WIDTH, HEIGHT);
+		Canvas scores = new Canvas(WIDTH, HEIGHT);
+		Canvas sprites = new Canvas(WIDTH, HEIGHT);
+		scoreGc = scores.getGraphicsContext2D();
+		spriteGc = sprites.getGraphicsContext2D();
+
+		GraphicsContext gc = background.getGraphicsContext2D();
+		gc.setFill(Color.BLACK);
+		gc.fillRect(0, 0, WIDTH, HEIGHT);
+
+		view = new Group(background, scores, sprites);
+	}
+
+	public Parent getView() {
+		return view;
+	}
+
+	public void draw(double ballX, double ballY, double player1Y, double player2Y) {
+		if (FULL_REDRAW) {
+			drawEverything(ballX, ballY, player1Y, player2Y);
+			return;
+		}
+
+		int scoreVersion = scoreBoard.getVersion();
+		if (scoreVersion != drawnScoreVersion) {
+			drawnScoreVersion = scoreVersion;
+			scoreGc.clearRect(0, 0, WIDTH, HEIGHT);
+			scoreBoard.draw(scoreGc);
+		}
+
+		boolean ballMoved = ballX != drawnBallX || ballY != drawnBallY;
+		boolean player1Moved = player1Y != drawnPlayer1Y;
+		boolean player2Moved = player2Y != drawnPlayer2Y;
+		if (!ballMoved && !player1Moved && !player2Moved) {
+			return;
+		}
+
+		//clear the old places first, then draw all sprites since a cleared margin may have cut into one
+		//that didn't move
+		if (ballMoved) {
+			clear(drawnBallX, drawnBallY, BALL_SIZE, BALL_SIZE);
+		}
+		if (player1Moved) {
+			clear(0, drawnPlayer1Y, PADDLE_WIDTH, PADDLE_HEIGHT);
+		}
+		if (player2Moved) {
+			clear(WIDTH - PADDLE_WIDTH, drawnPlayer2Y, PADDLE_WIDTH, PADDLE_HEIGHT);
+		}
+		drawSprites(spriteGc, ballX, ballY, player1Y, player2Y);
+	}
+
+	private void clear(double x, double y, double w, double h) {
+		if (!Double.isNaN(x) && !Double.isNaN(y)) {
+			spriteGc.clearRect(x - MARGIN, y - MARGIN, w + 2 * MARGIN, h + 2 * MARGIN);
+		}
+	}
+
+	private void drawSprites(GraphicsContext gc, double ballX, double ballY, double player1Y, double player2Y) {
+		gc.setFill(Color.WHITE);
+		gc.fillRect(0, player1Y, PADDLE_WIDTH, PADDLE_HEIGHT);
+		gc.fillRect(WIDTH - PADDLE_WIDTH, player2Y, PADDLE_WIDTH, PADDLE_HEIGHT);
+		gc.fillOval(ballX, ballY, BALL_SIZE, BALL_SIZE);
+
+		drawnBallX = ballX;
+		drawnBallY = ballY;
+		drawnPlayer1Y = player1Y;
+		drawnPlayer2Y = player2Y;
+	}
+
+	//the old way, everything on the sprite layer every frame
+	private void drawEverything(double ballX, double ballY, double player1Y, double player2Y) {
+		spriteGc.setFill(Color.BLACK);
+		spriteGc.fillRect(0, 0, WIDTH, HEIGHT);
+		drawSprites(spriteGc, ballX, ballY, player1Y, player2Y);
+		scoreBoard.draw(spriteGc);
+	}
+}
@@ -0,0 +1,389 @@
+package application;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+//physics, paddle movement, collisions and scoring for one match
+//no javafx in here, so it can run on a headless server
+//advances in fixed steps, either on its own tick thread (start) or stepped by the caller (step)
+public class GameSimulation implements Runnable {
+
+	//screen
+	public static final int WIDTH = 800;
+	public static final int HEIGHT = 600;
+	//paddle
+	public static final int PADDLE_WIDTH = 10;
+	public static final int PADDLE_HEIGHT = 100;
+	//ball
+	public static final int BALL_SIZE = 15;
+
+	public static final int DEFAULT_TICK_RATE = 60;
+
+	//speeds in pixels per second, 5 and 2 pixels per tick at the default tick rate
+	public static final double PADDLE_SPEED = 300.0;
+	public static final double DEFAULT_BALL_SPEED = 120.0;
+
+	//where the ball's top left corner is when it touches the bottom wall or a paddle face
+	private static final double MAX_BALL_Y = HEIGHT - BALL_SIZE;
+	private static final double LEFT_FACE_X = PADDLE_WIDTH;
+	private static final double RIGHT_FACE_X = WIDTH - PADDLE_WIDTH - BALL_SIZE;
+	//paddle bounces within one tick before the rest of the ball's step is dropped,
+	//only reached at absurd speeds since the ball has to cross the whole field between two
+	private static final int MAX_BOUNCES = 16;
+
+	//input bits
+	public static final int UP = 1;
+	public static final int DOWN = 2;
+
+	//bytes written by saveCheckpoint
+	public static final int CHECKPOINT_SIZE = 8 + 6 * 8 + 2 * 4;
+
+	//called from the tick thread
+	public interface Listener {
+		void onTick(GameSimulation simulation);
+
+		void onScore(GameSimulation simulation);
+	}
+
+	private final int tickRate;
+	private final long tickNanos;
+	private final double paddleStep;
+	private final double ballSpeed;
+	private final double ballStep;
+	private Listener listener;
+	private TickStats tickStats;
+
+	//game state variables
+	private double ballX, ballY, ballXSpeed, ballYSpeed;
+	private double player1Y, player2Y;
+	private int player1Score, player2Score;
+	private long tick;
+
+	//held input bits and the sequence number of the input that set them, packed as (sequence << 2) | bits
+	//so both change together, written from input or network threads and latched at the start of each tick
+	private volatile int player1Input, player2Input;
+	private int player1Held, player2Held;
+	//sequence number of the latched input per slot and the first tick that used it
+	private final int[] appliedSequence = new int[3];
+	private final long[] appliedTick = new long[3];
+
+	private volatile boolean running;
+	private Thread thread;
+
+	public GameSimulation() {
+		this(DEFAULT_TICK_RATE);
+	}
+
+	public GameSimulation(int tickRate) {
+		this(tickRate, DEFAULT_BALL_SPEED);
+	}
+
+	//ball speed in pixels per second along each axis, collisions are swept so any speed works
+	public GameSimulation(int tickRate, double ballSpeed) {
+		checkSettings(tickRate, ballSpeed);
+		this.tickRate = tickRate;
+		this.tickNanos = 1_000_000_000L / tickRate;
+		this.paddleStep = PADDLE_SPEED / tickRate;
+		this.ballSpeed = ballSpeed;
+		this.ballStep = ballSpeed / tickRate;
+		resetPositions();
+	}
+
+	//throws IllegalArgumentException for settings no simulation can run with
+	public static void checkSettings(int tickRate, double ballSpeed) {
+		if (tickRate < 1 || tickRate > 1000) {
+			throw new IllegalArgumentException("Tick rate must be between 1 and 1000: " + tickRate);
+		}
+		if (!(ballSpeed > 0) || Double.isInfinite(ballSpeed)) {
+			throw new IllegalArgumentException("Ball speed must be above 0: " + ballSpeed);
+		}
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	//measures the tick loop started with start(), set before starting it
+	public void setTickStats(TickStats tickStats) {
+		this.tickStats = tickStats;
+	}
+
+	//start ticking on a dedicated thread
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "game-simulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	//tick loop, sleeps until the next tick is due
+	@Override
+	public void run() {
+		long nextTick = System.nanoTime();
+		while (running) {
+			long start = System.nanoTime();
+			step();
+			Listener l = listener;
+			if (l != null) {
+				l.onTick(this);
+			}
+			if (tickStats != null) {
+				tickStats.record(start, System.nanoTime());
+			}
+
+			nextTick += tickNanos;
+			long wait = nextTick - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			} else if (-wait > tickNanos * tickRate) {
+				//more than a second behind (e.g. machine was suspended), skip ahead instead of catching up
+				nextTick = System.nanoTime();
+			}
+		}
+	}
+
+	//advance the game by exactly one tick
+	public void step() {
+		boolean scored;
+		synchronized (this) {
+			scored = advance();
+		}
+		//listeners may do network io, keep them outside the lock
+		if (scored) {
+			Listener l = listener;
+			if (l != null) {
+				l.onScore(this);
+			}
+		}
+	}
+
+	//returns true if someone scored this tick
+	private boolean advance() {
+		tick++;
+
+		player1Held = latch(1, player1Input);
+		player2Held = latch(2, player2Input);
+		player1Y = movePaddle(player1Y, player1Held, paddleStep);
+		player2Y = movePaddle(player2Y, player2Held, paddleStep);
+
+		moveBall();
+
+		if (ballX <= 0) {
+			player2Score++;
+			resetPositions();
+			return true;
+		} else if (ballX >= WIDTH) {
+			player1Score++;
+			resetPositions();
+			return true;
+		}
+		return false;
+	}
+
+	//the ball travels its whole step for this tick along a line and bounces off the first paddle face
+	//it meets on the way, then goes on with what is left of the step
+	//so at any speed or tick rate it can't pass through a paddle between two ticks
+	private void moveBall() {
+		//fraction of this tick's step still to travel
+		double remaining = 1;
+		for (int bounce = 0; bounce < MAX_BOUNCES; bounce++) {
+			double hit = remaining;
+			boolean paddle = false;
+
+			//a paddle face only counts when the ball comes from in front of it and meets the paddle there
+			if (ballXSpeed < 0 && ballX >= LEFT_FACE_X) {
+				double t = (LEFT_FACE_X - ballX) / ballXSpeed;
+				paddle = t < hit && meetsPaddle(betweenWalls(ballY + ballYSpeed * t), player1Y);
+				if (paddle) {
+					hit = t;
+				}
+			} else if (ballXSpeed > 0 && ballX <= RIGHT_FACE_X) {
+				double t = (RIGHT_FACE_X - ballX) / ballXSpeed;
+				paddle = t < hit && meetsPaddle(betweenWalls(ballY + ballYSpeed * t), player2Y);
+				if (paddle) {
+					hit = t;
+				}
+			}
+
+			ballX += ballXSpeed * hit;
+			moveBetweenWalls(ballYSpeed * hit);
+			remaining -= hit;
+			if (!paddle) {
+				return;
+			}
+			//exactly on the face, rounding must not leave it behind the paddle
+			ballX = ballXSpeed < 0 ? LEFT_FACE_X : RIGHT_FACE_X;
+			ballXSpeed = -ballXSpeed;
+		}
+	}
+
+	//top and bottom walls only change y, so however often the ball bounces between them in one step
+	//its height is the straight line folded back and forth between 0 and MAX_BALL_Y
+	private static double betweenWalls(double y) {
+		if (y >= 0 && y <= MAX_BALL_Y) {
+			return y;
+		}
+		double folded = foldedOffset(y);
+		return folded <= MAX_BALL_Y ? folded : 2 * MAX_BALL_Y - folded;
+	}
+
+	private void moveBetweenWalls(double dy) {
+		double y = ballY + dy;
+		if (y >= 0 && y <= MAX_BALL_Y) {
+			ballY = y;
+			return;
+		}
+		double folded = foldedOffset(y);
+		if (folded <= MAX_BALL_Y) {
+			ballY = folded;
+		} else {
+			//an odd number of bounces, it is on its way back
+			ballY = 2 * MAX_BALL_Y - folded;
+			ballYSpeed = -ballYSpeed;
+		}
+	}
+
+	//y within one down and back cycle between the walls, 0 up to 2 * MAX_BALL_Y
+	private static double foldedOffset(double y) {
+		double period = 2 * MAX_BALL_Y;
+		double folded = y % period;
+		return folded < 0 ? folded + period : folded;
+	}
+
+	private static boolean meetsPaddle(double ballY, double paddleY) {
+		return ballY + BALL_SIZE >= paddleY && ballY <= paddleY + PADDLE_HEIGHT;
+	}
+
+	private int latch(int slot, int input) {
+		int sequence = input >>> 2;
+		if (sequence != appliedSequence[slot]) {
+			appliedSequence[slot] = sequence;
+			appliedTick[slot] = tick;
+		}
+		return input & (UP | DOWN);
+	}
+
+	//one tick of paddle movement, shared with client side prediction so both move the same way
+	public static double movePaddle(double y, int held, double step) {
+		if ((held & UP) != 0) {
+			y = Math.max(y - step, 0);
+		}
+		if ((held & DOWN) != 0) {
+			y = Math.min(y + step, HEIGHT - PADDLE_HEIGHT);
+		}
+		return y;
+	}
+
+	private void resetPositions() {
+		ballX = WIDTH / 2 - BALL_SIZE / 2;
+		ballY = HEIGHT / 2 - BALL_SIZE / 2;
+		ballXSpeed = ballStep;
+		ballYSpeed = ballStep;
+		player1Y = HEIGHT / 2 - PADDLE_HEIGHT / 2;
+		player2Y = HEIGHT / 2 - PADDLE_HEIGHT / 2;
+	}
+
+	//copy positions for rendering on another thread
+	public synchronized void copyState(GameState state) {
+		state.ballX = ballX;
+		state.ballY = ballY;
+		state.player1Y = player1Y;
+		state.player2Y = player2Y;
+	}
+
+	//everything the next tick depends on apart from input, for replay checkpoints
+	public synchronized void saveCheckpoint(ByteBuffer out) {
+		out.putLong(tick);
+		out.putDouble(ballX).putDouble(ballY).putDouble(ballXSpeed).putDouble(ballYSpeed);
+		out.putDouble(player1Y).putDouble(player2Y);
+		out.putInt(player1Score).putInt(player2Score);
+	}
+
+	public synchronized void restoreCheckpoint(ByteBuffer in) {
+		tick = in.getLong();
+		ballX = in.getDouble();
+		ballY = in.getDouble();
+		ballXSpeed = in.getDouble();
+		ballYSpeed = in.getDouble();
+		player1Y = in.getDouble();
+		player2Y = in.getDouble();
+		player1Score = in.getInt();
+		player2Score = in.getInt();
+	}
+
+	public void setPlayer1Input(boolean up, boolean down) {
+		setPlayerInput(1, (up ? UP : 0) | (down ? DOWN : 0), 0);
+	}
+
+	//held is UP and DOWN bits, sequence is what the client numbered this input (0 for local input)
+	public void setPlayerInput(int slot, int held, int sequence) {
+		int input = (sequence << 2) | (held & (UP | DOWN));
+		if (slot == 1) {
+			player1Input = input;
+		} else {
+			player2Input = input;
+		}
+	}
+
+	//UP and DOWN bits the last tick used for slot
+	public int getAppliedInput(int slot) {
+		return slot == 1 ? player1Held : player2Held;
+	}
+
+	//sequence number of the input in effect for slot
+	public int getAppliedSequence(int slot) {
+		return appliedSequence[slot];
+	}
+
+	//first tick that used that input
+	public long getAppliedTick(int slot) {
+		return appliedTick[slot];
+	}
+
+	public int getTickRate() {
+		return tickRate;
+	}
+
+	public double getBallSpeed() {
+		return ballSpeed;
+	}
+
+	public long getTick() {
+		return tick;
+	}
+
+	public double getBallX() {
+		return ballX;
+	}
+
+	public double getBallY() {
+		return ballY;
+	}
+
+	public double getPlayer1Y() {
+		return player1Y;
+	}
+
+	public double getPlayer2Y() {
+		return player2Y;
+	}
+
+	public int getPlayer1Score() {
+		return player1Score;
+	}
+
+	public int getPlayer2Score() {
+		return player2Score;
+	}
+}
@@ -0,0 +1,21 @@
+package application;
+
+//state of the game
+public class GameState {
+	double ballX, ballY;
+	double player1Y, player2Y;
+
+	public GameState(double ballX, double ballY, double player1Y, double player2Y) {
+		this.ballX = ballX;
+		this.ballY = ballY;
+		this.player1Y = player1Y;
+		this.player2Y = player2Y;
+	}
+
+	public void updateGameState(GameState gameState) {
+		this.player1Y = gameState.player1Y;
+		this.player2Y = gameState.player2Y;
+		this.ballX = gameState.ballX;
+		this.ballY = gameState.ballY;
+	}
+}
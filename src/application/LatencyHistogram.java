@@ -0,0 +1,79 @@
+package application;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+//counts of durations in nanoseconds, log scaled: 32 buckets per power of two, so any value is
+//within about 3% of its bucket's edge whether it is a few microseconds or several seconds
+//record is safe from any number of threads, percentiles are read while recording goes on
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder sum = new LongAdder();
+
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(bucket(value));
+		sum.add(value);
+	}
+
+	//values below 32 get a bucket each, above that the top 5 bits below the highest one pick the bucket
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	//largest value that lands in the bucket
+	private static long upperEdge(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+
+	public long count() {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	public long sum() {
+		return sum.sum();
+	}
+
+	//upper edge of the bucket holding the given fraction (0.5, 0.99...) of all samples, in nanos
+	public long percentile(double fraction) {
+		long total = count();
+		if (total == 0) {
+			return 0;
+		}
+		long wanted = Math.max(1, (long) Math.ceil(total * fraction));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= wanted) {
+				return upperEdge(i);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	//p50/p90/p99/max in milliseconds for reports
+	public String summary() {
+		return String.format("p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms (%d samples)",
+				percentile(0.5) / 1e6, percentile(0.9) / 1e6, percentile(0.99) / 1e6, percentile(1.0) / 1e6,
+				count());
+	}
+}
@@ -0,0 +1,128 @@
+package application;
+
+import java.util.concurrent.atomic.LongAdder;
+
+//round trip, jitter and clock offset of one connection from PING and PONG frames, the way NTP does it:
+//t0 ping sent (our clock), t1 ping received and t2 pong sent (their clock), t3 pong received (our clock)
+//round trip = (t3 - t0) - (t2 - t1), offset of their clock = ((t1 - t0) + (t2 - t3)) / 2
+//rtt and jitter are smoothed like tcp's srtt and rttvar, the offset comes from the sample with the
+//shortest round trip among the last RECENT_SAMPLES, it had the least queueing to make it lopsided,
+//and that shortest round trip is the baseline queueing is measured against
+//
+//it also decides how often the connection gets a state: the interval doubles when the link shows
+//congestion, a state replaced before the socket took it or a round trip well above the best one,
+//and halves again after a while without any, so a poor link gets fewer states instead of a backlog
+//the methods are synchronized because Server reads pongs and sends states on different threads
+public class LinkQuality {
+
+	public static final long PING_INTERVAL_NANOS = 1_000_000_000L;
+	//states go out every SEND_INTERVAL ticks times this, at most
+	public static final int MAX_RATE_DIVISOR = 8;
+	//queueing delay (smoothed round trip over the best one) that counts as congestion
+	private static final long MIN_QUEUEING_NANOS = 25_000_000L;
+	//a quiet link gets back one step of rate this long after its last congestion or change
+	private static final long RECOVERY_NANOS = 2_000_000_000L;
+	//the rate is not cut again sooner than this, the previous cut needs time to show
+	private static final long MIN_CUT_SPACING_NANOS = 250_000_000L;
+	//at one ping a second, a path that got slower for good stops looking congested after half a minute
+	private static final int RECENT_SAMPLES = 32;
+
+	private static final Metrics METRICS = Metrics.get();
+	public static final LatencyHistogram RTT = METRICS.histogram("pong_rtt_seconds",
+			"Round trip times measured with ping and pong");
+	private static final LongAdder RATE_CUTS = METRICS.counter("pong_send_rate_cuts_total",
+			"Times a connection's state rate was halved because of congestion");
+
+	private long lastPing = Long.MIN_VALUE;
+	private int samples;
+	private long smoothedRtt;
+	private long rttVariation;
+	private long minRtt;
+	private final long[] recentRtts = new long[RECENT_SAMPLES];
+	private final long[] recentOffsets = new long[RECENT_SAMPLES];
+	private long clockOffset;
+
+	private int rateDivisor = 1;
+	private long lastChange = System.nanoTime() - RECOVERY_NANOS;
+	private long lastCongestion = lastChange;
+
+	//true at most once per PING_INTERVAL_NANOS, the caller then sends PING with now
+	public synchronized boolean pingDue(long now) {
+		if (lastPing != Long.MIN_VALUE && now - lastPing < PING_INTERVAL_NANOS) {
+			return false;
+		}
+		lastPing = now;
+		return true;
+	}
+
+	//a PONG to one of our pings arrived at received
+	public synchronized void pong(long pingSent, long pingReceived, long pongSent, long received) {
+		long rtt = (received - pingSent) - (pongSent - pingReceived);
+		if (rtt < 0) {
+			return;
+		}
+		long offset = ((pingReceived - pingSent) + (pongSent - received)) / 2;
+		RTT.record(rtt);
+		if (samples == 0) {
+			smoothedRtt = rtt;
+			rttVariation = rtt / 2;
+		} else {
+			rttVariation += (Math.abs(smoothedRtt - rtt) - rttVariation) / 4;
+			smoothedRtt += (rtt - smoothedRtt) / 8;
+		}
+
+		int slot = samples % RECENT_SAMPLES;
+		recentRtts[slot] = rtt;
+		recentOffsets[slot] = offset;
+		samples++;
+		int best = 0;
+		for (int i = 1; i < Math.min(samples, RECENT_SAMPLES); i++) {
+			if (recentRtts[i] < recentRtts[best]) {
+				best = i;
+			}
+		}
+		minRtt = recentRtts[best];
+		clockOffset = recentOffsets[best];
+
+		if (smoothedRtt - minRtt > Math.max(MIN_QUEUEING_NANOS, minRtt / 2)) {
+			congested(received);
+		}
+	}
+
+	//the socket could not keep up with the states we gave it
+	public synchronized void congested(long now) {
+		lastCongestion = now;
+		if (rateDivisor < MAX_RATE_DIVISOR && now - lastChange >= Math.max(MIN_CUT_SPACING_NANOS, smoothedRtt)) {
+			rateDivisor *= 2;
+			lastChange = now;
+			RATE_CUTS.increment();
+		}
+	}
+
+	//ticks between states for this connection, a multiple of Protocol.SEND_INTERVAL
+	public synchronized int sendInterval(long now) {
+		if (rateDivisor > 1 && now - lastCongestion >= RECOVERY_NANOS && now - lastChange >= RECOVERY_NANOS) {
+			rateDivisor /= 2;
+			lastChange = now;
+		}
+		return Protocol.SEND_INTERVAL * rateDivisor;
+	}
+
+	//nanoseconds, 0 until the first pong
+	public synchronized long getRtt() {
+		return smoothedRtt;
+	}
+
+	public synchronized long getJitter() {
+		return rttVariation;
+	}
+
+	//add to our nanoTime to get the other side's
+	public synchronized long getClockOffset() {
+		return clockOffset;
+	}
+
+	public synchronized int getRateDivisor() {
+		return rateDivisor;
+	}
+}
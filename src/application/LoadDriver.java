@@ -0,0 +1,121 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+//load test for capacity planning, starts many BotClients against a server and reports how it holds up
+//every few seconds and at the end: states per second per connection against what the tick rate promises,
+//missed states, how late states arrive, input ack latency and bytes per second per connection
+//bots run on virtual threads when the runtime has them
+public class LoadDriver {
+
+	private static final long REPORT_INTERVAL_MILLIS = 5000;
+
+	private final String host;
+	private final int port;
+	private final int botCount;
+	private final int reactionMillis;
+	private final int connectsPerSecond;
+	private final boolean useDirectory;
+	private final BotClient.Stats stats = new BotClient.Stats();
+	private final List<BotClient> bots = new ArrayList<>();
+
+	//counters at the last report, to print rates for the interval
+	private long lastReportNanos;
+	private long lastBytesIn;
+	private long lastBytesOut;
+	private long lastStates;
+
+	public LoadDriver(String host, int port, int botCount, int reactionMillis, int connectsPerSecond,
+			boolean useDirectory) {
+		this.host = host;
+		this.port = port;
+		this.botCount = botCount;
+		this.reactionMillis = reactionMillis;
+		this.connectsPerSecond = connectsPerSecond;
+		this.useDirectory = useDirectory;
+	}
+
+	public void run(int seconds) throws InterruptedException {
+		//virtual threads where the runtime has them, the cached pool on java 17 without the warning
+		ExecutorService pool = ThreadPools.newConnectionPool(ThreadPools.virtualThreadsAvailable());
+		long start = System.nanoTime();
+		long end = start + seconds * 1_000_000_000L;
+		lastReportNanos = start;
+		long nextReport = start + REPORT_INTERVAL_MILLIS * 1_000_000L;
+
+		//connect at a steady pace instead of all at once so the accept backlog keeps up
+		long connectGap = 1_000_000_000L / Math.max(1, connectsPerSecond);
+		int launched = 0;
+		while (System.nanoTime() < end) {
+			long now = System.nanoTime();
+			while (launched < botCount && now - start >= launched * connectGap) {
+				BotClient bot = new BotClient(host, port, "Bot" + launched, reactionMillis, stats);
+				bot.setUseDirectory(useDirectory);
+				bots.add(bot);
+				pool.execute(bot);
+				launched++;
+			}
+			if (now >= nextReport) {
+				report("interval");
+				nextReport += REPORT_INTERVAL_MILLIS * 1_000_000L;
+			}
+			Thread.sleep(10);
+		}
+
+		report("final");
+		for (BotClient bot : bots) {
+			bot.shutdown();
+		}
+		pool.shutdownNow();
+	}
+
+	private void report(String label) {
+		long now = System.nanoTime();
+		double seconds = (now - lastReportNanos) / 1e9;
+		long bytesIn = stats.bytesIn.sum();
+		long bytesOut = stats.bytesOut.sum();
+		long states = stats.states.sum();
+		long connected = stats.connected.sum() - stats.dropped.sum();
+		double perConnection = Math.max(1, connected) * seconds;
+
+		int tickRate = stats.tickRate;
+		double expectedStates = tickRate > 0 ? (double) tickRate / Protocol.SEND_INTERVAL : 0;
+
+		System.out.printf("[%s] bots %d connected, %d in games, %d refused, %d dropped%n", label, connected,
+				stats.started.sum(), stats.refused.sum(), stats.dropped.sum());
+		System.out.printf("  states/s per connection %.1f (tick rate %d promises %.1f), %d missed in total%n",
+				(states - lastStates) / perConnection, tickRate, expectedStates, stats.missedStates.sum());
+		System.out.printf("  bytes/s per connection in %.0f, out %.0f%n", (bytesIn - lastBytesIn) / perConnection,
+				(bytesOut - lastBytesOut) / perConnection);
+		System.out.println("  state lateness " + stats.stateLateness.summary());
+		System.out.println("  input ack latency " + stats.inputLatency.summary());
+
+		lastReportNanos = now;
+		lastBytesIn = bytesIn;
+		lastBytesOut = bytesOut;
+		lastStates = states;
+	}
+
+	//args: host port bots [seconds] [reaction ms] [connects per second] [directory]
+	//with directory, host and port are a Directory's and every bot asks it where to play
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length < 3) {
+			System.out.println("Usage: LoadDriver host port bots [seconds] [reactionMs] [connectsPerSecond] [directory]");
+			return;
+		}
+		String host = args[0];
+		int port = Integer.parseInt(args[1]);
+		int bots = Integer.parseInt(args[2]);
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 60;
+		int reaction = args.length > 4 ? Integer.parseInt(args[4]) : 150;
+		int connectRate = args.length > 5 ? Integer.parseInt(args[5]) : 200;
+		boolean directory = args.length > 6 && args[6].equals("directory");
+
+		System.out.println("Starting " + bots + " bots against " + host + ":" + port
+				+ (directory ? " (directory)" : "") + " for " + seconds + " s");
+		new LoadDriver(host, port, bots, reaction, connectRate, directory).run(seconds);
+		System.exit(0);
+	}
+}
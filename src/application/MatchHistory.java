@@ -0,0 +1,775 @@
+package application;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+//every finished match appended to a log on disk, and an index in memory of who beat whom
+//
+//log file LOG_FILE, big endian:
+//  header: MAGIC, FORMAT_VERSION (short)
+//  records, each followed by the crc32 of its bytes:
+//    PLAYER, id (int), name length, utf-8 name      the first time a name plays, ids count up from 0
+//    MATCH, end time in epoch millis (long), player 1 id, player 2 id, score 1, score 2 (ints),
+//           offset of the previous MATCH of player 1 and of player 2 (longs, -1 before their first)
+//a record cut short by a crash is cut off the log when it is opened again
+//
+//the index holds every player's totals, ranked for top n, and the offset of their newest match,
+//so the matches of a player form a chain through the log, newest first
+//head to head records come from the opponent tables of the HOT_PLAYERS players asked about last,
+//a player not among them gets a table by walking their chain once, so memory grows with the players
+//and not with every pair that ever met
+//
+//index file INDEX_FILE, written every CHECKPOINT_BYTES of log and on close: every player's totals and
+//newest match, and how much of the log that covers, so opening only reads the log written after it
+//
+//record only queues the match, one writer thread appends whatever is queued with a single write and
+//force, and puts it in the index after that, so a slow disk never stalls a tick
+public class MatchHistory {
+
+	public static final int MAGIC = 0x504E4748; //PNGH
+	public static final int INDEX_MAGIC = 0x504E4749; //PNGI
+	public static final short FORMAT_VERSION = 1;
+	public static final String LOG_FILE = "history.ponglog";
+	public static final String INDEX_FILE = "history.pongindex";
+
+	private static final int HEADER_SIZE = 4 + 2;
+	private static final byte PLAYER = 1;
+	private static final byte MATCH = 2;
+	private static final int CRC_SIZE = 4;
+	private static final int MATCH_SIZE = 1 + 8 + 4 * 4 + 8 + 8 + CRC_SIZE;
+	private static final int MAX_PLAYER_SIZE = 1 + 4 + 1 + Protocol.MAX_NAME_BYTES + CRC_SIZE;
+	private static final long CHECKPOINT_BYTES = 1 << 20;
+	private static final int HOT_PLAYERS = 1024;
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+	//the log is mapped this much at a time when opening
+	private static final long SCAN_WINDOW = 64 << 20;
+
+	//best first: most wins, then fewest losses, then who played first
+	private static final Comparator<Player> RANKING = (a, b) -> a.wins != b.wins ? Integer.compare(b.wins, a.wins)
+			: a.losses != b.losses ? Integer.compare(a.losses, b.losses) : Integer.compare(a.id, b.id);
+
+	private final Path logFile;
+	private final Path indexFile;
+	private final FileChannel channel;
+	//keeps a second process from writing the same log, null when read only
+	private final FileLock fileLock;
+	//null when read only
+	private final ExecutorService writer;
+
+	//guarded by this
+	private final List<Player> players = new ArrayList<>();
+	private final Map<String, Player> byName = new HashMap<>();
+	//players with at least one match
+	private final TreeSet<Player> ranking = new TreeSet<>(RANKING);
+	//per hot player: wins, losses and draws against each opponent, least recently used first
+	private final LinkedHashMap<Player, Map<Player, int[]>> opponents = new LinkedHashMap<Player, Map<Player, int[]>>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Player, Map<Player, int[]>> eldest) {
+			return size() > HOT_PLAYERS;
+		}
+	};
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(MATCH_SIZE);
+	private long matches;
+
+	private final Queue<Finished> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean flushQueued = new AtomicBoolean();
+	private volatile boolean closed;
+	//only touched on the writer thread once opened
+	private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+	private final CRC32 crc = new CRC32();
+	private long logEnd;
+	private long indexedEnd;
+	private boolean failed;
+
+	private static final class Player {
+		final int id;
+		final String name;
+		//guarded by the history
+		int wins;
+		int losses;
+		int draws;
+		long pointsFor;
+		long pointsAgainst;
+		//newest match in the index
+		long lastMatch = -1;
+		//newest match written to the log, ahead of lastMatch while a batch is being written, writer thread only
+		long writtenMatch = -1;
+
+		Player(int id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		int games() {
+			return wins + losses + draws;
+		}
+	}
+
+	//a match waiting for the writer
+	private static final class Finished {
+		final String name1;
+		final String name2;
+		final int score1;
+		final int score2;
+		final long endMillis;
+		//set by the writer
+		Player player1;
+		Player player2;
+		long offset;
+
+		Finished(String name1, String name2, int score1, int score2, long endMillis) {
+			this.name1 = name1;
+			this.name2 = name2;
+			this.score1 = score1;
+			this.score2 = score2;
+			this.endMillis = endMillis;
+		}
+	}
+
+	//a player's totals when they were asked for
+	public static final class Standing {
+		public final String name;
+		public final int wins;
+		public final int losses;
+		public final int draws;
+		public final long pointsFor;
+		public final long pointsAgainst;
+
+		Standing(Player player) {
+			name = player.name;
+			wins = player.wins;
+			losses = player.losses;
+			draws = player.draws;
+			pointsFor = player.pointsFor;
+			pointsAgainst = player.pointsAgainst;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + wins + " won, " + losses + " lost, " + draws + " drawn, points " + pointsFor + "-"
+					+ pointsAgainst;
+		}
+	}
+
+	//matches between two players, counted from the first one's side
+	public static final class HeadToHead {
+		public final String name1;
+		public final String name2;
+		public final int wins1;
+		public final int wins2;
+		public final int draws;
+
+		HeadToHead(String name1, String name2, int wins1, int wins2, int draws) {
+			this.name1 = name1;
+			this.name2 = name2;
+			this.wins1 = wins1;
+			this.wins2 = wins2;
+			this.draws = draws;
+		}
+
+		@Override
+		public String toString() {
+			return name1 + " " + wins1 + " - " + wins2 + " " + name2 + ", " + draws + " drawn";
+		}
+	}
+
+	private MatchHistory(Path directory, boolean writable) throws IOException {
+		logFile = directory.resolve(LOG_FILE);
+		indexFile = directory.resolve(INDEX_FILE);
+		if (writable) {
+			Files.createDirectories(directory);
+			channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			fileLock = channel.tryLock();
+			if (fileLock == null) {
+				channel.close();
+				throw new IOException(logFile + " is written by another process");
+			}
+		} else {
+			channel = FileChannel.open(logFile, StandardOpenOption.READ);
+			fileLock = null;
+		}
+		try {
+			load(writable);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		if (writable) {
+			writer = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "history-writer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			if (indexedEnd != logEnd) {
+				writer.execute(this::saveIndex);
+			}
+		} else {
+			writer = null;
+		}
+	}
+
+	//the history in directory, created if there is none, for one process at a time
+	public static MatchHistory open(Path directory) throws IOException {
+		return new MatchHistory(directory, true);
+	}
+
+	//for looking at the history of a running server, record is not allowed
+	public static MatchHistory openReadOnly(Path directory) throws IOException {
+		return new MatchHistory(directory, false);
+	}
+
+	private void load(boolean writable) throws IOException {
+		long start = System.nanoTime();
+		long size = channel.size();
+		if (size == 0 && writable) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putShort(FORMAT_VERSION).flip();
+			writeFully(header, 0);
+			channel.force(true);
+			size = HEADER_SIZE;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(header, 0);
+		if (header.getInt() != MAGIC) {
+			throw new IOException(logFile + " is not a match history");
+		}
+		short version = header.getShort();
+		if (version != FORMAT_VERSION) {
+			throw new IOException(logFile + " has history format " + version + ", expected " + FORMAT_VERSION);
+		}
+
+		long from = HEADER_SIZE;
+		try {
+			from = loadIndex(size);
+		} catch (NoSuchFileException e) {
+			//new, or never closed before its first CHECKPOINT_BYTES
+		} catch (IOException e) {
+			System.err.println("Ignoring match history index " + indexFile + ", reading the whole log: "
+					+ e.getMessage());
+		}
+		indexedEnd = from;
+
+		long position = from;
+		while (position < size) {
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+					Math.min(SCAN_WINDOW, size - position));
+			int read = scan(window, position);
+			if (read == 0) {
+				//a window holds many records, so this one is unfinished or damaged
+				break;
+			}
+			position += read;
+		}
+		if (position < size) {
+			if (writable) {
+				channel.truncate(position);
+				System.err.println("Cut " + (size - position) + " bytes of an unfinished record off " + logFile);
+			}
+		}
+		logEnd = position;
+		System.out.println("Match history: " + matches + " matches of " + players.size() + " players, read "
+				+ (position - from) + " bytes of log after the index in " + (System.nanoTime() - start) / 1_000_000
+				+ " ms");
+	}
+
+	//returns how much of the log the index covers, only changes the index if all of it could be read
+	private long loadIndex(long logSize) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+		if (in.remaining() < 4 + 2 + 8 + 8 + 4 + CRC_SIZE) {
+			throw new IOException("too short");
+		}
+		CRC32 check = new CRC32();
+		check.update(in.array(), 0, in.limit() - CRC_SIZE);
+		if ((int) check.getValue() != in.getInt(in.limit() - CRC_SIZE)) {
+			throw new IOException("checksum does not match");
+		}
+		if (in.getInt() != INDEX_MAGIC || in.getShort() != FORMAT_VERSION) {
+			throw new IOException("not an index of this format");
+		}
+		long covered = in.getLong();
+		if (covered < HEADER_SIZE || covered > logSize) {
+			throw new IOException("covers " + covered + " bytes of a " + logSize + " byte log");
+		}
+		long indexedMatches = in.getLong();
+		int count = in.getInt();
+		List<Player> loaded = new ArrayList<>(count);
+		for (int id = 0; id < count; id++) {
+			byte[] name = new byte[in.get() & 0xFF];
+			in.get(name);
+			Player player = new Player(id, new String(name, StandardCharsets.UTF_8));
+			player.wins = in.getInt();
+			player.losses = in.getInt();
+			player.draws = in.getInt();
+			player.pointsFor = in.getLong();
+			player.pointsAgainst = in.getLong();
+			player.lastMatch = in.getLong();
+			player.writtenMatch = player.lastMatch;
+			loaded.add(player);
+		}
+		synchronized (this) {
+			for (Player player : loaded) {
+				players.add(player);
+				byName.put(player.name, player);
+				if (player.games() > 0) {
+					ranking.add(player);
+				}
+			}
+			matches = indexedMatches;
+		}
+		return covered;
+	}
+
+	//puts the whole records at the start of window in the index, returns their size
+	private int scan(MappedByteBuffer window, long windowOffset) {
+		int p = 0;
+		int limit = window.limit();
+		while (p < limit) {
+			byte type = window.get(p);
+			int size;
+			if (type == PLAYER && p + 6 <= limit) {
+				size = 1 + 4 + 1 + (window.get(p + 5) & 0xFF) + CRC_SIZE;
+			} else if (type == MATCH) {
+				size = MATCH_SIZE;
+			} else {
+				break;
+			}
+			if (p + size > limit) {
+				break;
+			}
+			crc.reset();
+			window.limit(p + size - CRC_SIZE).position(p);
+			crc.update(window);
+			window.limit(limit);
+			if ((int) crc.getValue() != window.getInt(p + size - CRC_SIZE)) {
+				break;
+			}
+			if (type == PLAYER) {
+				int id = window.getInt(p + 1);
+				if (id != players.size()) {
+					break;
+				}
+				byte[] name = new byte[size - 6 - CRC_SIZE];
+				window.position(p + 6);
+				window.get(name);
+				addPlayer(new String(name, StandardCharsets.UTF_8));
+			} else {
+				int id1 = window.getInt(p + 9);
+				int id2 = window.getInt(p + 13);
+				if (id1 < 0 || id2 < 0 || id1 >= players.size() || id2 >= players.size() || id1 == id2) {
+					break;
+				}
+				Player player1 = players.get(id1);
+				Player player2 = players.get(id2);
+				long offset = windowOffset + p;
+				apply(player1, player2, window.getInt(p + 17), window.getInt(p + 21), offset);
+				player1.writtenMatch = offset;
+				player2.writtenMatch = offset;
+			}
+			p += size;
+		}
+		return p;
+	}
+
+	private synchronized Player addPlayer(String name) {
+		Player player = new Player(players.size(), name);
+		players.add(player);
+		byName.put(name, player);
+		return player;
+	}
+
+	//a match that ended, from any thread, only queued here
+	//matches without two names or between two players of the same name are not recorded, and neither
+	//are matches nobody scored in: a player connected and left again before the game got going
+	public void record(String name1, String name2, int score1, int score2) {
+		if (writer == null) {
+			throw new IllegalStateException(logFile + " was opened read only");
+		}
+		if (name1 == null || name2 == null || name1.isEmpty() || name2.isEmpty() || score1 + score2 == 0
+				|| closed) {
+			return;
+		}
+		name1 = Protocol.fitName(name1);
+		name2 = Protocol.fitName(name2);
+		if (name1.equals(name2)) {
+			return;
+		}
+		queue.add(new Finished(name1, name2, score1, score2, System.currentTimeMillis()));
+		if (flushQueued.compareAndSet(false, true)) {
+			try {
+				writer.execute(this::flush);
+			} catch (RejectedExecutionException e) {
+				//closed in the meantime
+			}
+		}
+	}
+
+	//writer thread
+	private void flush() {
+		flushQueued.set(false);
+		List<Finished> batch = new ArrayList<>();
+		Finished match;
+		while ((match = queue.poll()) != null) {
+			batch.add(match);
+		}
+		if (batch.isEmpty() || failed) {
+			return;
+		}
+		try {
+			for (Finished finished : batch) {
+				finished.player1 = playerToWrite(finished.name1);
+				finished.player2 = playerToWrite(finished.name2);
+				ensureSpace(MATCH_SIZE);
+				int start = writeBuffer.position();
+				finished.offset = logEnd + start;
+				writeBuffer.put(MATCH).putLong(finished.endMillis);
+				writeBuffer.putInt(finished.player1.id).putInt(finished.player2.id);
+				writeBuffer.putInt(finished.score1).putInt(finished.score2);
+				writeBuffer.putLong(finished.player1.writtenMatch).putLong(finished.player2.writtenMatch);
+				endRecord(start);
+				finished.player1.writtenMatch = finished.offset;
+				finished.player2.writtenMatch = finished.offset;
+			}
+			writeOut();
+			channel.force(false);
+		} catch (IOException e) {
+			//the server goes on without history
+			failed = true;
+			System.err.println("Could not write match history " + logFile + ", no more matches are recorded: "
+					+ e.getMessage());
+			return;
+		}
+		//on disk now, so the chains in the index only ever point at written matches
+		for (Finished finished : batch) {
+			apply(finished.player1, finished.player2, finished.score1, finished.score2, finished.offset);
+		}
+		if (logEnd - indexedEnd >= CHECKPOINT_BYTES) {
+			saveIndex();
+		}
+	}
+
+	//writer thread, a PLAYER record goes into the batch the first time a name plays
+	private Player playerToWrite(String name) throws IOException {
+		Player player;
+		synchronized (this) {
+			player = byName.get(name);
+		}
+		if (player != null) {
+			return player;
+		}
+		player = addPlayer(name);
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		ensureSpace(MAX_PLAYER_SIZE);
+		int start = writeBuffer.position();
+		writeBuffer.put(PLAYER).putInt(player.id).put((byte) bytes.length).put(bytes);
+		endRecord(start);
+		return player;
+	}
+
+	private void endRecord(int start) {
+		crc.reset();
+		crc.update(writeBuffer.array(), start, writeBuffer.position() - start);
+		writeBuffer.putInt((int) crc.getValue());
+	}
+
+	private void ensureSpace(int bytes) throws IOException {
+		if (writeBuffer.remaining() < bytes) {
+			writeOut();
+		}
+	}
+
+	private void writeOut() throws IOException {
+		writeBuffer.flip();
+		logEnd += writeFully(writeBuffer, logEnd);
+		writeBuffer.clear();
+	}
+
+	private int writeFully(ByteBuffer buffer, long position) throws IOException {
+		int written = 0;
+		while (buffer.hasRemaining()) {
+			written += channel.write(buffer, position + written);
+		}
+		return written;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException(logFile + " ends at " + (position + buffer.position()));
+			}
+		}
+		buffer.flip();
+	}
+
+	private synchronized void apply(Player player1, Player player2, int score1, int score2, long offset) {
+		ranking.remove(player1);
+		ranking.remove(player2);
+		if (score1 > score2) {
+			player1.wins++;
+			player2.losses++;
+		} else if (score1 < score2) {
+			player1.losses++;
+			player2.wins++;
+		} else {
+			player1.draws++;
+			player2.draws++;
+		}
+		player1.pointsFor += score1;
+		player1.pointsAgainst += score2;
+		player2.pointsFor += score2;
+		player2.pointsAgainst += score1;
+		player1.lastMatch = offset;
+		player2.lastMatch = offset;
+		ranking.add(player1);
+		ranking.add(player2);
+
+		Map<Player, int[]> table = opponents.get(player1);
+		if (table != null) {
+			tally(table, player2, score1, score2);
+		}
+		table = opponents.get(player2);
+		if (table != null) {
+			tally(table, player1, score2, score1);
+		}
+		matches++;
+	}
+
+	private static void tally(Map<Player, int[]> table, Player opponent, int mine, int theirs) {
+		int[] record = table.computeIfAbsent(opponent, o -> new int[3]);
+		record[mine > theirs ? 0 : mine < theirs ? 1 : 2]++;
+	}
+
+	//writer thread, the index is only changed there so it can be read without the lock
+	private void saveIndex() {
+		Path temporary = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+		try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			CheckedOutputStream checked = new CheckedOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(file)), new CRC32());
+			DataOutputStream out = new DataOutputStream(checked);
+			out.writeInt(INDEX_MAGIC);
+			out.writeShort(FORMAT_VERSION);
+			out.writeLong(logEnd);
+			out.writeLong(matches);
+			out.writeInt(players.size());
+			for (Player player : players) {
+				byte[] name = player.name.getBytes(StandardCharsets.UTF_8);
+				out.writeByte(name.length);
+				out.write(name);
+				out.writeInt(player.wins);
+				out.writeInt(player.losses);
+				out.writeInt(player.draws);
+				out.writeLong(player.pointsFor);
+				out.writeLong(player.pointsAgainst);
+				out.writeLong(player.lastMatch);
+			}
+			out.writeInt((int) checked.getChecksum().getValue());
+			out.flush();
+			file.force(true);
+		} catch (IOException e) {
+			System.err.println("Could not write match history index " + indexFile + ": " + e.getMessage());
+			return;
+		}
+		try {
+			Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			indexedEnd = logEnd;
+		} catch (IOException e) {
+			System.err.println("Could not replace match history index " + indexFile + ": " + e.getMessage());
+		}
+	}
+
+	//the n best players
+	public synchronized List<Standing> top(int n) {
+		List<Standing> standings = new ArrayList<>();
+		for (Player player : ranking) {
+			if (standings.size() == n) {
+				break;
+			}
+			standings.add(new Standing(player));
+		}
+		return standings;
+	}
+
+	//null if the player never played
+	public synchronized Standing getStanding(String name) {
+		Player player = byName.get(name);
+		return player == null || player.games() == 0 ? null : new Standing(player);
+	}
+
+	//null if either of them never played, quick once one of them is among the hot players,
+	//otherwise the one with fewer matches has their chain read from the log
+	public synchronized HeadToHead headToHead(String name1, String name2) throws IOException {
+		Player player1 = byName.get(name1);
+		Player player2 = byName.get(name2);
+		if (player1 == null || player2 == null || player1 == player2 || player1.games() == 0
+				|| player2.games() == 0) {
+			return null;
+		}
+		Map<Player, int[]> table = opponents.get(player1);
+		boolean reversed = false;
+		if (table == null) {
+			table = opponents.get(player2);
+			reversed = table != null;
+		}
+		if (table == null) {
+			reversed = player2.games() < player1.games();
+			Player walked = reversed ? player2 : player1;
+			table = readOpponents(walked);
+			opponents.put(walked, table);
+		}
+		int[] record = table.get(reversed ? player1 : player2);
+		if (record == null) {
+			return new HeadToHead(player1.name, player2.name, 0, 0, 0);
+		}
+		return reversed ? new HeadToHead(player1.name, player2.name, record[1], record[0], record[2])
+				: new HeadToHead(player1.name, player2.name, record[0], record[1], record[2]);
+	}
+
+	//with the lock held, follows the player's chain of matches through the log
+	private Map<Player, int[]> readOpponents(Player player) throws IOException {
+		Map<Player, int[]> table = new HashMap<>();
+		long offset = player.lastMatch;
+		while (offset >= 0) {
+			readFully(readBuffer, offset);
+			if (readBuffer.get() != MATCH) {
+				throw new IOException(logFile + " has no match at " + offset);
+			}
+			readBuffer.getLong();
+			int id1 = readBuffer.getInt();
+			int id2 = readBuffer.getInt();
+			int score1 = readBuffer.getInt();
+			int score2 = readBuffer.getInt();
+			long previous1 = readBuffer.getLong();
+			long previous2 = readBuffer.getLong();
+			if (id1 == player.id) {
+				tally(table, players.get(id2), score1, score2);
+				offset = previous1;
+			} else {
+				tally(table, players.get(id1), score2, score1);
+				offset = previous2;
+			}
+		}
+		return table;
+	}
+
+	public synchronized long getMatchCount() {
+		return matches;
+	}
+
+	public synchronized int getPlayerCount() {
+		return players.size();
+	}
+
+	//until the matches recorded so far are on disk and in the index
+	public void awaitWrites(long timeoutMillis) {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.submit(this::flush).get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException | RejectedExecutionException e) {
+			System.err.println("Match history not fully written: " + e);
+		}
+	}
+
+	//writes what is queued and the index, then closes the log, waits up to timeoutMillis for that
+	public void close(long timeoutMillis) {
+		closed = true;
+		if (writer == null) {
+			closeChannel();
+			return;
+		}
+		try {
+			writer.execute(() -> {
+				flush();
+				if (!failed && logEnd != indexedEnd) {
+					saveIndex();
+				}
+				closeChannel();
+			});
+		} catch (RejectedExecutionException e) {
+			//closed before
+			return;
+		}
+		writer.shutdown();
+		try {
+			if (!writer.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				System.err.println("Match history not fully written, the next start reads the rest of the log");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void closeChannel() {
+		try {
+			//closing the channel releases the lock too
+			channel.close();
+		} catch (IOException e) {
+			System.err.println("Could not close match history " + logFile + ": " + e.getMessage());
+		}
+	}
+
+	//args: directory [top [n] | player name | vs name1 name2]
+	//reads the history without writing to it, also while a server records to it
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: MatchHistory directory [top [n] | player name | vs name1 name2]");
+			System.exit(2);
+		}
+		MatchHistory history = openReadOnly(Paths.get(args[0]));
+		String query = args.length > 1 ? args[1] : "top";
+		if (query.equals("player") && args.length == 3) {
+			Standing standing = history.getStanding(args[2]);
+			System.out.println(standing == null ? args[2] + " never played" : standing);
+		} else if (query.equals("vs") && args.length == 4) {
+			HeadToHead record = history.headToHead(args[2], args[3]);
+			System.out.println(record == null ? "One of them never played" : record);
+		} else {
+			int n = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+			int place = 1;
+			for (Standing standing : history.top(n)) {
+				System.out.println(place++ + ". " + standing);
+			}
+		}
+		history.close(0);
+	}
+}
@@ -0,0 +1,260 @@
+package application;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpServer;
+
+//process wide metrics for servers and clients
+//counters and histograms are made on first use, gauges read their value when asked
+//a series name may carry prometheus labels, e.g. pong_bytes_out_total{connection="3"}
+//readable over jmx as the bean application:type=Metrics and as prometheus text on http://localhost:port/metrics
+public final class Metrics {
+
+	private static final Metrics DEFAULT = new Metrics();
+
+	//quantiles exported for histograms
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 1.0 };
+
+	private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private final Map<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+	private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+	//help text per metric name without labels
+	private final Map<String, String> help = new ConcurrentHashMap<>();
+
+	private HttpServer httpServer;
+
+	public static Metrics get() {
+		return DEFAULT;
+	}
+
+	public LongAdder counter(String series, String description) {
+		help.putIfAbsent(baseName(series), description);
+		return counters.computeIfAbsent(series, s -> new LongAdder());
+	}
+
+	//durations in nanoseconds, exported in seconds
+	public LatencyHistogram histogram(String series, String description) {
+		help.putIfAbsent(baseName(series), description);
+		return histograms.computeIfAbsent(series, s -> new LatencyHistogram());
+	}
+
+	public void gauge(String series, String description, DoubleSupplier value) {
+		help.putIfAbsent(baseName(series), description);
+		gauges.put(series, value);
+	}
+
+	//drop a series, e.g. the ones of a closed connection
+	public void remove(String series) {
+		counters.remove(series);
+		gauges.remove(series);
+		histograms.remove(series);
+	}
+
+	private static String baseName(String series) {
+		int brace = series.indexOf('{');
+		return brace < 0 ? series : series.substring(0, brace);
+	}
+
+	//adds a label to a series name that may already have some
+	private static String withLabel(String series, String label) {
+		int brace = series.indexOf('{');
+		if (brace < 0) {
+			return series + "{" + label + "}";
+		}
+		return series.substring(0, brace + 1) + label + "," + series.substring(brace + 1);
+	}
+
+	private static String withSuffix(String series, String suffix) {
+		int brace = series.indexOf('{');
+		return brace < 0 ? series + suffix : series.substring(0, brace) + suffix + series.substring(brace);
+	}
+
+	//every value as one flat name -> number map, histograms become quantiles, sum and count
+	public Map<String, Double> snapshot() {
+		Map<String, Double> values = new TreeMap<>();
+		counters.forEach((name, counter) -> values.put(name, (double) counter.sum()));
+		gauges.forEach((name, gauge) -> values.put(name, gauge.getAsDouble()));
+		histograms.forEach((name, histogram) -> {
+			for (double q : QUANTILES) {
+				values.put(withLabel(name, "quantile=\"" + q + "\""), histogram.percentile(q) / 1e9);
+			}
+			values.put(withSuffix(name, "_sum"), histogram.sum() / 1e9);
+			values.put(withSuffix(name, "_count"), (double) histogram.count());
+		});
+		return values;
+	}
+
+	//prometheus text exposition format, the series of one metric together under its help and type
+	public String scrape() {
+		Map<String, StringBuilder> families = new TreeMap<>();
+		for (Map.Entry<String, Double> entry : snapshot().entrySet()) {
+			String family = familyOf(baseName(entry.getKey()));
+			families.computeIfAbsent(family, f -> new StringBuilder())
+					.append(entry.getKey()).append(' ').append(format(entry.getValue())).append('\n');
+		}
+		StringBuilder out = new StringBuilder();
+		families.forEach((family, lines) -> {
+			out.append("# HELP ").append(family).append(' ').append(help.getOrDefault(family, family)).append('\n');
+			out.append("# TYPE ").append(family).append(' ').append(typeOf(family)).append('\n');
+			out.append(lines);
+		});
+		return out.toString();
+	}
+
+	//histogram _sum and _count lines belong to the histogram's family
+	private String familyOf(String base) {
+		for (String suffix : new String[] { "_sum", "_count" }) {
+			if (base.endsWith(suffix)) {
+				String family = base.substring(0, base.length() - suffix.length());
+				if (isHistogram(family)) {
+					return family;
+				}
+			}
+		}
+		return base;
+	}
+
+	private boolean isHistogram(String family) {
+		for (String name : histograms.keySet()) {
+			if (baseName(name).equals(family)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String typeOf(String family) {
+		if (isHistogram(family)) {
+			return "summary";
+		}
+		for (String name : counters.keySet()) {
+			if (baseName(name).equals(family)) {
+				return "counter";
+			}
+		}
+		return "gauge";
+	}
+
+	private static String format(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	//jmx bean, registering twice is harmless
+	public void registerMBean() {
+		try {
+			ObjectName name = new ObjectName("application:type=Metrics");
+			if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), name);
+			}
+		} catch (JMException e) {
+			System.err.println("Could not register metrics with JMX: " + e.getMessage());
+		}
+	}
+
+	//prometheus text on /metrics, only reachable from this machine
+	public synchronized void serveHttp(int port) throws IOException {
+		if (httpServer != null) {
+			return;
+		}
+		httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		httpServer.createContext("/metrics", exchange -> {
+			byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		httpServer.start();
+		System.out.println("Metrics at http://localhost:" + httpServer.getAddress().getPort() + "/metrics");
+	}
+
+	//jmx always, http when -Dpong.metricsPort is set, for the javafx programs that have no config file
+	public void exportFromProperties() {
+		registerMBean();
+		Integer port = Integer.getInteger("pong.metricsPort");
+		if (port != null) {
+			try {
+				serveHttp(port);
+			} catch (IOException e) {
+				System.err.println("Could not serve metrics on port " + port + ": " + e.getMessage());
+			}
+		}
+	}
+
+	//every series is a read only attribute
+	private class Bean implements DynamicMBean {
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Double value = snapshot().get(attribute);
+			if (value == null) {
+				throw new AttributeNotFoundException(attribute);
+			}
+			return value;
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			Map<String, Double> values = snapshot();
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes) {
+				Double value = values.get(attribute);
+				if (value != null) {
+					list.add(new Attribute(attribute, value));
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			List<MBeanAttributeInfo> attributes = new ArrayList<>();
+			for (String name : snapshot().keySet()) {
+				attributes.add(new MBeanAttributeInfo(name, "java.lang.Double",
+						help.getOrDefault(familyOf(baseName(name)), name), true, false, false));
+			}
+			return new MBeanInfo(Metrics.class.getName(), "Ping pong metrics",
+					attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) {
+			throw new UnsupportedOperationException("Metrics are read only");
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException("Metrics have no operations");
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package application;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//local relay for trying the udp transport on a bad network
+//sits between one client and a server on the same port number for tcp and udp,
+//tcp is passed through untouched, datagrams are dropped, delayed and (through jitter) reordered
+//point the client at the conditioner's port instead of the server's
+public class NetworkConditioner {
+
+	private final int listenPort;
+	private final InetSocketAddress target;
+	private final double lossRate;
+	private final int delayMillis;
+	private final int jitterMillis;
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	private DatagramChannel clientSide;
+	private DatagramChannel serverSide;
+	//where the client's datagrams come from, replies go back there
+	private volatile SocketAddress clientAddress;
+
+	private final AtomicLong forwarded = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	public NetworkConditioner(int listenPort, InetSocketAddress target, double lossRate, int delayMillis,
+			int jitterMillis) {
+		this.listenPort = listenPort;
+		this.target = target;
+		this.lossRate = lossRate;
+		this.delayMillis = delayMillis;
+		this.jitterMillis = jitterMillis;
+	}
+
+	public void start() throws IOException {
+		clientSide = DatagramChannel.open();
+		clientSide.bind(new InetSocketAddress(listenPort));
+		serverSide = DatagramChannel.open();
+		serverSide.connect(target);
+
+		ServerSocket tcp = new ServerSocket(listenPort);
+		startThread("conditioner-tcp", () -> acceptTcp(tcp));
+		startThread("conditioner-up", this::relayClientDatagrams);
+		startThread("conditioner-down", this::relayServerDatagrams);
+		scheduler.scheduleAtFixedRate(this::printStats, 5, 5, TimeUnit.SECONDS);
+
+		System.out.println("Relaying port " + listenPort + " to " + target + " with " + (lossRate * 100) + "% loss, "
+				+ delayMillis + " ms delay and " + jitterMillis + " ms jitter");
+	}
+
+	private void acceptTcp(ServerSocket tcp) {
+		try {
+			while (true) {
+				Socket client = tcp.accept();
+				Socket server = new Socket(target.getAddress(), target.getPort());
+				client.setTcpNoDelay(true);
+				server.setTcpNoDelay(true);
+				startThread("conditioner-tcp-up", () -> pipe(client, server));
+				startThread("conditioner-tcp-down", () -> pipe(server, client));
+			}
+		} catch (IOException e) {
+			System.err.println("TCP relay stopped: " + e.getMessage());
+		}
+	}
+
+	private void pipe(Socket from, Socket to) {
+		byte[] buf = new byte[4096];
+		try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				out.write(buf, 0, n);
+			}
+		} catch (IOException e) {
+			//one side closed, close the other below
+		} finally {
+			closeQuietly(from);
+			closeQuietly(to);
+		}
+	}
+
+	private void relayClientDatagrams() {
+		try {
+			while (true) {
+				ByteBuffer buf = ByteBuffer.allocate(Protocol.MAX_FRAME_SIZE);
+				clientAddress = clientSide.receive(buf);
+				buf.flip();
+				impair(buf, serverSide, target);
+			}
+		} catch (IOException e) {
+			System.err.println("UDP relay stopped: " + e.getMessage());
+		}
+	}
+
+	private void relayServerDatagrams() {
+		try {
+			while (true) {
+				ByteBuffer buf = ByteBuffer.allocate(Protocol.MAX_FRAME_SIZE);
+				serverSide.receive(buf);
+				buf.flip();
+				if (clientAddress != null) {
+					impair(buf, clientSide, clientAddress);
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("UDP relay stopped: " + e.getMessage());
+		}
+	}
+
+	//drop or schedule one datagram, each one gets its own delay so jitter reorders them
+	private void impair(ByteBuffer datagram, DatagramChannel channel, SocketAddress to) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (random.nextDouble() < lossRate) {
+			dropped.incrementAndGet();
+			return;
+		}
+		forwarded.incrementAndGet();
+		long delay = delayMillis + (jitterMillis > 0 ? random.nextInt(jitterMillis + 1) : 0);
+		scheduler.schedule(() -> {
+			try {
+				channel.send(datagram, to);
+			} catch (IOException e) {
+				System.err.println("UDP send failed: " + e.getMessage());
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void printStats() {
+		System.out.println("Datagrams forwarded: " + forwarded + ", dropped: " + dropped);
+	}
+
+	private static void startThread(String name, Runnable task) {
+		new Thread(task, name).start();
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			//already closed
+		}
+	}
+
+	//args: listenPort serverHost serverPort [loss percent] [delay ms] [jitter ms]
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.out.println("Usage: NetworkConditioner listenPort serverHost serverPort [loss%] [delayMs] [jitterMs]");
+			return;
+		}
+		int listenPort = Integer.parseInt(args[0]);
+		InetSocketAddress target = new InetSocketAddress(args[1], Integer.parseInt(args[2]));
+		double loss = args.length > 3 ? Double.parseDouble(args[3]) / 100.0 : 0.05;
+		int delay = args.length > 4 ? Integer.parseInt(args[4]) : 50;
+		int jitter = args.length > 5 ? Integer.parseInt(args[5]) : 20;
+		new NetworkConditioner(listenPort, target, loss, delay, jitter).start();
+	}
+}
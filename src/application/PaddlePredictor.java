@@ -0,0 +1,134 @@
+package application;
+
+//client side prediction of the player's own paddle
+//the paddle moves locally as soon as a key is pressed, one GameSimulation.movePaddle per local tick
+//at the server's tick rate. every input is numbered and the server acks the first tick that used it,
+//so when an authoritative state for tick T arrives we know how much of each input the server has
+//already applied and only replay the rest on top of the server's position
+//inputs and local ticks happen on the fx thread, acks and states come from network threads
+public class PaddlePredictor {
+
+	//inputs the server never acks (e.g. two within one tick) are dropped once this many are waiting
+	//a power of two, the inputs are a ring in the arrays below
+	private static final int MAX_INPUTS = 256;
+
+	private final int slot;
+	private final double paddleStep;
+	private final long tickNanos;
+
+	//the input the last authoritative state was based on, followed by everything sent since
+	//kept in primitive arrays so pressing keys and reconciling never allocate
+	private final int[] sequences = new int[MAX_INPUTS];
+	private final int[] helds = new int[MAX_INPUTS];
+	//local tick count when it was pressed, it is in effect from the next local tick on
+	private final long[] firstTicks = new long[MAX_INPUTS];
+	//first server tick that used it, -1 until acked
+	private final long[] appliedTicks = new long[MAX_INPUTS];
+	private int oldest;
+	private int count;
+	private int held;
+	private int nextSequence = 1;
+
+	private long localTicks;
+	private long lastTickNanos = -1;
+	private double y = GameSimulation.HEIGHT / 2 - GameSimulation.PADDLE_HEIGHT / 2;
+
+	public PaddlePredictor(int slot, int tickRate) {
+		this.slot = slot;
+		this.paddleStep = GameSimulation.PADDLE_SPEED / tickRate;
+		this.tickNanos = 1_000_000_000L / tickRate;
+	}
+
+	public int getSlot() {
+		return slot;
+	}
+
+	//record a key change, returns the sequence number to send with it
+	public synchronized int input(int code) {
+		held = Protocol.applyInput(held, code);
+		int sequence = nextSequence;
+		nextSequence = nextSequence == 0xFFFF ? 1 : nextSequence + 1;
+		if (count == MAX_INPUTS) {
+			oldest = index(1);
+			count--;
+		}
+		int i = index(count++);
+		sequences[i] = sequence;
+		helds[i] = held;
+		firstTicks[i] = localTicks;
+		appliedTicks[i] = -1;
+		return sequence;
+	}
+
+	//array index of the i-th oldest input
+	private int index(int i) {
+		return (oldest + i) & (MAX_INPUTS - 1);
+	}
+
+	//run local ticks up to now
+	public synchronized void advance(long nowNanos) {
+		if (lastTickNanos < 0 || nowNanos - lastTickNanos > 1_000_000_000L) {
+			//first frame, or the window was stalled, don't replay a whole second at once
+			lastTickNanos = nowNanos;
+			return;
+		}
+		while (nowNanos - lastTickNanos >= tickNanos) {
+			lastTickNanos += tickNanos;
+			localTicks++;
+			y = GameSimulation.movePaddle(y, held, paddleStep);
+		}
+	}
+
+	public synchronized void acknowledge(int sequence, int tick) {
+		for (int i = count - 1; i >= 0; i--) {
+			if (sequences[index(i)] == sequence) {
+				appliedTicks[index(i)] = tick;
+				return;
+			}
+		}
+	}
+
+	//start over from the server's position at tick and replay what it has not seen yet
+	public synchronized void reconcile(int tick, double serverY) {
+		int anchor = -1;
+		for (int i = count - 1; i >= 0; i--) {
+			long appliedTick = appliedTicks[index(i)];
+			if (appliedTick >= 0 && appliedTick <= tick) {
+				anchor = i;
+				break;
+			}
+		}
+
+		double predicted = serverY;
+		int replayFrom = 0;
+		if (anchor >= 0) {
+			//older inputs are fully contained in every state from now on
+			oldest = index(anchor);
+			count -= anchor;
+			long serverTicks = tick - appliedTicks[oldest] + 1;
+			predicted = replay(predicted, helds[oldest], ticksUnder(0) - serverTicks);
+			replayFrom = 1;
+		}
+		for (int i = replayFrom; i < count; i++) {
+			predicted = replay(predicted, helds[index(i)], ticksUnder(i));
+		}
+		y = predicted;
+	}
+
+	//local ticks taken while input i was the newest one
+	private long ticksUnder(int i) {
+		long end = i + 1 < count ? firstTicks[index(i + 1)] : localTicks;
+		return end - firstTicks[index(i)];
+	}
+
+	private double replay(double y, int held, long ticks) {
+		for (long t = 0; t < ticks && held != 0; t++) {
+			y = GameSimulation.movePaddle(y, held, paddleStep);
+		}
+		return y;
+	}
+
+	public synchronized double getY() {
+		return y;
+	}
+}
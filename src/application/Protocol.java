@@ -0,0 +1,333 @@
+package application;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+//binary wire format shared by server and client
+//every frame is [length:u16][version:u8][type:u8][payload], length counts the bytes after itself
+public final class Protocol {
+
+	public static final int VERSION = 6;
+
+	//frame types
+	public static final byte STATE = 1; //keyframe, server tick, then ballX, ballY, player1Y, player2Y quantized to shorts
+	public static final byte SCORE = 2; //player1 score, player2 score as ints
+	public static final byte NAME = 3; //player slot (1 or 2), name length, utf-8 name
+	public static final byte START = 4; //server tick rate, player slot of the receiver, 0 for a spectator
+	public static final byte INPUT = 5; //input code (see below), sequence number
+	public static final byte STATE_DELTA = 6; //ticks since the previous state, field mask, then only the fields that changed
+	public static final byte WELCOME = 7; //token the client quotes in UDP_HELLO
+	public static final byte UDP_HELLO = 8; //datagram, token from WELCOME
+	public static final byte SNAPSHOT = 9; //datagram, same payload as STATE, the tick doubles as sequence number
+	public static final byte INPUT_ACK = 10; //input sequence number, first server tick that used it
+	public static final byte WATCH = 11; //first frame of a spectator, room id to watch, 0 for the newest room
+	public static final byte PING = 12; //sender's nanoTime, either side may send it
+	public static final byte PONG = 13; //the ping's time, then the receiver's nanoTime when it arrived and when answered
+	public static final byte UDP_OFF = 14; //no payload, client to server over tcp: snapshots stopped, send states over tcp
+
+	//quantized state is kept in a short[STATE_FIELDS], positions in 1/QUANT pixels
+	public static final int QUANT = 8;
+	public static final int STATE_FIELDS = 4;
+	public static final int BALL_X = 0;
+	public static final int BALL_Y = 1;
+	public static final int PLAYER1_Y = 2;
+	public static final int PLAYER2_Y = 3;
+
+	//STATE_DELTA mask bits
+	private static final int BALL_STEP = 1; //ball moved by less than 16 pixels, dx and dy as bytes
+	private static final int BALL_MOVED = 2; //ball jumped, new x and y as shorts
+	private static final int PLAYER1_MOVED = 4;
+	private static final int PLAYER2_MOVED = 8;
+	public static final int MAX_DELTA_TICKS = 255;
+
+	//input codes sent by the client, same values the old Integer messages used
+	public static final int DOWN_PRESSED = 0;
+	public static final int DOWN_RELEASED = 1;
+	public static final int UP_PRESSED = 2;
+	public static final int UP_RELEASED = 3;
+
+	//servers send state every SEND_INTERVAL ticks (30 Hz at the default tick rate), clients interpolate in between
+	public static final int SEND_INTERVAL = 2;
+
+	public static final int HEADER_SIZE = 4;
+	public static final int MAX_NAME_BYTES = 64;
+	public static final int MAX_FRAME_SIZE = HEADER_SIZE + 2 + MAX_NAME_BYTES;
+
+	private Protocol() {
+	}
+
+	//one buffer per writer, big enough for any frame
+	public static ByteBuffer allocate() {
+		return ByteBuffer.allocate(MAX_FRAME_SIZE);
+	}
+
+	public static ByteBuffer encodeState(ByteBuffer buf, int tick, double ballX, double ballY, double player1Y,
+			double player2Y) {
+		begin(buf, STATE);
+		putState(buf, tick, ballX, ballY, player1Y, player2Y);
+		return end(buf);
+	}
+
+	//self-contained state for the unreliable channel, the tick lets the client drop old ones
+	public static ByteBuffer encodeSnapshot(ByteBuffer buf, int tick, double ballX, double ballY, double player1Y,
+			double player2Y) {
+		begin(buf, SNAPSHOT);
+		putState(buf, tick, ballX, ballY, player1Y, player2Y);
+		return end(buf);
+	}
+
+	private static void putState(ByteBuffer buf, int tick, double ballX, double ballY, double player1Y,
+			double player2Y) {
+		buf.putInt(tick);
+		buf.putShort(quantize(ballX));
+		buf.putShort(quantize(ballY));
+		buf.putShort(quantize(player1Y));
+		buf.putShort(quantize(player2Y));
+	}
+
+	public static ByteBuffer encodeWelcome(ByteBuffer buf, int token) {
+		begin(buf, WELCOME);
+		buf.putInt(token);
+		return end(buf);
+	}
+
+	public static ByteBuffer encodeUdpHello(ByteBuffer buf, int token) {
+		begin(buf, UDP_HELLO);
+		buf.putInt(token);
+		return end(buf);
+	}
+
+	public static ByteBuffer encodeUdpOff(ByteBuffer buf) {
+		begin(buf, UDP_OFF);
+		return end(buf);
+	}
+
+	//only what changed between base and state, the receiver applies it to its last state
+	//tickStep is how many ticks state is ahead of base, at most MAX_DELTA_TICKS
+	public static ByteBuffer encodeDelta(ByteBuffer buf, short[] base, short[] state, int tickStep) {
+		int dx = state[BALL_X] - base[BALL_X];
+		int dy = state[BALL_Y] - base[BALL_Y];
+		int mask = 0;
+		if (dx != 0 || dy != 0) {
+			mask |= dx == (byte) dx && dy == (byte) dy ? BALL_STEP : BALL_MOVED;
+		}
+		if (state[PLAYER1_Y] != base[PLAYER1_Y]) {
+			mask |= PLAYER1_MOVED;
+		}
+		if (state[PLAYER2_Y] != base[PLAYER2_Y]) {
+			mask |= PLAYER2_MOVED;
+		}
+
+		begin(buf, STATE_DELTA);
+		buf.put((byte) tickStep);
+		buf.put((byte) mask);
+		if ((mask & BALL_STEP) != 0) {
+			buf.put((byte) dx);
+			buf.put((byte) dy);
+		} else if ((mask & BALL_MOVED) != 0) {
+			buf.putShort(state[BALL_X]);
+			buf.putShort(state[BALL_Y]);
+		}
+		if ((mask & PLAYER1_MOVED) != 0) {
+			buf.putShort(state[PLAYER1_Y]);
+		}
+		if ((mask & PLAYER2_MOVED) != 0) {
+			buf.putShort(state[PLAYER2_Y]);
+		}
+		return end(buf);
+	}
+
+	public static ByteBuffer encodeScore(ByteBuffer buf, int player1Score, int player2Score) {
+		begin(buf, SCORE);
+		buf.putInt(player1Score);
+		buf.putInt(player2Score);
+		return end(buf);
+	}
+
+	public static ByteBuffer encodeName(ByteBuffer buf, int slot, String name) {
+		byte[] bytes = fitName(name).getBytes(StandardCharsets.UTF_8);
+		begin(buf, NAME);
+		buf.put((byte) slot);
+		buf.put((byte) bytes.length);
+		buf.put(bytes);
+		return end(buf);
+	}
+
+	//name cut to MAX_NAME_BYTES of utf-8 without splitting a character
+	public static String fitName(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length <= MAX_NAME_BYTES) {
+			return name;
+		}
+		//back up while the first byte left out continues a character (10xxxxxx)
+		int length = MAX_NAME_BYTES;
+		while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+			length--;
+		}
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	public static ByteBuffer encodeStart(ByteBuffer buf, int tickRate, int slot) {
+		begin(buf, START);
+		buf.putShort((short) tickRate);
+		buf.put((byte) slot);
+		return end(buf);
+	}
+
+	public static ByteBuffer encodeInput(ByteBuffer buf, int code, int sequence) {
+		begin(buf, INPUT);
+		buf.put((byte) code);
+		buf.putShort((short) sequence);
+		return end(buf);
+	}
+
+	public static ByteBuffer encodeWatch(ByteBuffer buf, int room) {
+		begin(buf, WATCH);
+		buf.putInt(room);
+		return end(buf);
+	}
+
+	public static ByteBuffer encodePing(ByteBuffer buf, long now) {
+		begin(buf, PING);
+		buf.putLong(now);
+		return end(buf);
+	}
+
+	public static ByteBuffer encodePong(ByteBuffer buf, long pingSent, long pingReceived) {
+		begin(buf, PONG);
+		buf.putLong(pingSent);
+		buf.putLong(pingReceived);
+		buf.putLong(System.nanoTime());
+		return end(buf);
+	}
+
+	public static ByteBuffer encodeInputAck(ByteBuffer buf, int sequence, int tick) {
+		begin(buf, INPUT_ACK);
+		buf.putShort((short) sequence);
+		buf.putInt(tick);
+		return end(buf);
+	}
+
+	//applies an input code to held UP and DOWN bits
+	public static int applyInput(int held, int code) {
+		if (code == DOWN_PRESSED) {
+			return held | GameSimulation.DOWN;
+		} else if (code == DOWN_RELEASED) {
+			return held & ~GameSimulation.DOWN;
+		} else if (code == UP_PRESSED) {
+			return held | GameSimulation.UP;
+		} else if (code == UP_RELEASED) {
+			return held & ~GameSimulation.UP;
+		}
+		return held;
+	}
+
+	//blocks until a whole frame is in buf, returns its type with buf positioned at the payload
+	public static byte readFrame(DataInputStream in, ByteBuffer buf) throws IOException {
+		int length = checkLength(in.readUnsignedShort(), buf.capacity());
+		in.readFully(buf.array(), 0, length);
+		buf.clear();
+		buf.limit(length);
+		return readHeader(buf);
+	}
+
+	//for non-blocking readers, buf is in read mode and may hold partial frames
+	//returns the size of the next frame including its length field, or -1 if it is not complete yet
+	public static int completeFrameSize(ByteBuffer buf) throws IOException {
+		if (buf.remaining() < 2) {
+			return -1;
+		}
+		int length = checkLength(buf.getShort(buf.position()) & 0xFFFF, MAX_FRAME_SIZE);
+		return buf.remaining() >= length + 2 ? length + 2 : -1;
+	}
+
+	//skips the length field of a complete frame, returns its type with buf positioned at the payload
+	public static byte readFrame(ByteBuffer buf) throws IOException {
+		buf.position(buf.position() + 2);
+		return readHeader(buf);
+	}
+
+	private static int checkLength(int length, int max) throws IOException {
+		if (length < HEADER_SIZE - 2 || length > max) {
+			throw new IOException("Invalid frame length: " + length);
+		}
+		return length;
+	}
+
+	private static byte readHeader(ByteBuffer buf) throws IOException {
+		int version = buf.get() & 0xFF;
+		if (version != VERSION) {
+			throw new IOException("Unsupported protocol version: " + version);
+		}
+		return buf.get();
+	}
+
+	//payload of a STATE or SNAPSHOT frame into state, returns the tick
+	public static int readState(ByteBuffer buf, short[] state) {
+		int tick = buf.getInt();
+		for (int i = 0; i < STATE_FIELDS; i++) {
+			state[i] = buf.getShort();
+		}
+		return tick;
+	}
+
+	//reads an encoded STATE frame without moving its position, returns the tick
+	public static int peekState(ByteBuffer frame, short[] state) {
+		int payload = frame.position() + HEADER_SIZE;
+		for (int i = 0; i < STATE_FIELDS; i++) {
+			state[i] = frame.getShort(payload + 4 + i * 2);
+		}
+		return frame.getInt(payload);
+	}
+
+	//payload of a STATE_DELTA frame, applied to the previous state in place, returns the new tick
+	public static int readDelta(ByteBuffer buf, int previousTick, short[] state) {
+		int tick = previousTick + (buf.get() & 0xFF);
+		int mask = buf.get();
+		if ((mask & BALL_STEP) != 0) {
+			state[BALL_X] += buf.get();
+			state[BALL_Y] += buf.get();
+		} else if ((mask & BALL_MOVED) != 0) {
+			state[BALL_X] = buf.getShort();
+			state[BALL_Y] = buf.getShort();
+		}
+		if ((mask & PLAYER1_MOVED) != 0) {
+			state[PLAYER1_Y] = buf.getShort();
+		}
+		if ((mask & PLAYER2_MOVED) != 0) {
+			state[PLAYER2_Y] = buf.getShort();
+		}
+		return tick;
+	}
+
+	public static short quantize(double position) {
+		return (short) Math.round(position * QUANT);
+	}
+
+	public static double dequantize(int position) {
+		return position / (double) QUANT;
+	}
+
+	//reads the name payload of a NAME frame, slot is read separately before this
+	public static String readName(ByteBuffer buf) {
+		int length = buf.get() & 0xFF;
+		String name = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+		buf.position(buf.position() + length);
+		return name;
+	}
+
+	private static void begin(ByteBuffer buf, byte type) {
+		buf.clear();
+		buf.putShort((short) 0); //length, filled in by end()
+		buf.put((byte) VERSION);
+		buf.put(type);
+	}
+
+	private static ByteBuffer end(ByteBuffer buf) {
+		buf.putShort(0, (short) (buf.position() - 2));
+		buf.flip();
+		return buf;
+	}
+}
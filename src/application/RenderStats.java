@@ -0,0 +1,99 @@
+package application;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javafx.application.Platform;
+
+//frame times and runnables waiting on the fx thread for one window, in Metrics with a window label
+//and printed every few seconds with -Dpong.renderStats=true
+//only what is posted through RenderStats.runLater is counted, when queued and when it runs, so pendingPosts
+//isn't the whole fx event queue but a window whose posts keep piling up shows up as a rising count
+public class RenderStats {
+
+	private static final long REPORT_INTERVAL_NANOS = 5_000_000_000L;
+	private static final boolean REPORT = Boolean.getBoolean("pong.renderStats");
+
+	private final String name;
+	private final AtomicInteger pendingPosts = new AtomicInteger();
+	private final AtomicInteger maxPendingPosts = new AtomicInteger();
+
+	//the rest is only touched on the fx thread
+	private long frameStartNanos;
+	private long lastPulse = -1;
+	private long lastReport = -1;
+	private int frames;
+	private long frameNanosTotal;
+	private long maxFrameNanos;
+	private long maxPulseGap;
+
+	private final LatencyHistogram frameTimes;
+	//frames per second over the last full second
+	private volatile double fps;
+	private long fpsWindowStart = -1;
+	private int fpsFrames;
+
+	public RenderStats(String name) {
+		this.name = name;
+		String label = "{window=\"" + name + "\"}";
+		Metrics metrics = Metrics.get();
+		frameTimes = metrics.histogram("pong_frame_seconds" + label, "Time spent drawing one frame");
+		metrics.gauge("pong_fps" + label, "Frames drawn per second over the last second", () -> fps);
+		metrics.gauge("pong_fx_pending_posts" + label,
+				"Runnables posted through RenderStats.runLater that have not run yet", pendingPosts::get);
+	}
+
+	public void runLater(Runnable task) {
+		int queued = pendingPosts.incrementAndGet();
+		maxPendingPosts.accumulateAndGet(queued, Math::max);
+		Platform.runLater(() -> {
+			pendingPosts.decrementAndGet();
+			task.run();
+		});
+	}
+
+	//call at the start of AnimationTimer.handle with its now
+	public void frameStarted(long now) {
+		frameStartNanos = System.nanoTime();
+		if (lastPulse >= 0) {
+			maxPulseGap = Math.max(maxPulseGap, now - lastPulse);
+		}
+		lastPulse = now;
+		if (lastReport < 0) {
+			lastReport = now;
+		}
+
+		if (fpsWindowStart < 0) {
+			fpsWindowStart = now;
+		}
+		fpsFrames++;
+		if (now - fpsWindowStart >= 1_000_000_000L) {
+			fps = fpsFrames * 1e9 / (now - fpsWindowStart);
+			fpsWindowStart = now;
+			fpsFrames = 0;
+		}
+	}
+
+	//call at the end of AnimationTimer.handle
+	public void frameFinished() {
+		long frameNanos = System.nanoTime() - frameStartNanos;
+		frameTimes.record(frameNanos);
+		frames++;
+		frameNanosTotal += frameNanos;
+		maxFrameNanos = Math.max(maxFrameNanos, frameNanos);
+
+		if (REPORT && lastPulse - lastReport >= REPORT_INTERVAL_NANOS) {
+			System.out.printf("%s: %d frames, frame time avg %.2f ms max %.2f ms, longest pulse gap %.1f ms, "
+					+ "pending posts %d (max %d)%n", name, frames, frameNanosTotal / 1e6 / frames, maxFrameNanos / 1e6,
+					maxPulseGap / 1e6, pendingPosts.get(), maxPendingPosts.getAndSet(pendingPosts.get()));
+			lastReport = lastPulse;
+			frames = 0;
+			frameNanosTotal = 0;
+			maxFrameNanos = 0;
+			maxPulseGap = 0;
+		}
+	}
+
+	public int getPendingPosts() {
+		return pendingPosts.get();
+	}
+}
@@ -0,0 +1,262 @@
+package application;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+//plays a log written by ReplayRecorder back on a headless GameSimulation, as fast as the cpu allows
+//seek restores the nearest checkpoint before the wanted tick and simulates only the rest
+//while playing, every checkpoint passed is compared with the simulation, so replaying old logs
+//after a physics change shows the first tick where the game went differently
+public class ReplayPlayer {
+
+	private final ByteBuffer log;
+	private final int tickRate;
+	private final double ballSpeed;
+	private final int checkpointInterval;
+	private final long startMillis;
+	private final GameSimulation simulation;
+
+	//every checkpoint's tick and where its state starts in the log, found when opening
+	private long[] checkpointTicks = new long[16];
+	private int[] checkpointOffsets = new int[16];
+	private int checkpoints;
+	private long lastTick = -1;
+	private final String[] names = new String[3];
+
+	//next record to read and the input run being played
+	private int position;
+	private int runInputs;
+	private int runLeft;
+	//tick of the first checkpoint the simulation did not match, -1 if none so far
+	private long divergedAt = -1;
+
+	private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(GameSimulation.CHECKPOINT_SIZE);
+
+	public ReplayPlayer(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (log.remaining() < ReplayRecorder.HEADER_SIZE || log.getInt() != ReplayRecorder.MAGIC) {
+			throw new IOException(file + " is not a replay");
+		}
+		short version = log.getShort();
+		if (version != ReplayRecorder.FORMAT_VERSION) {
+			throw new IOException(file + " has replay format " + version + ", expected "
+					+ ReplayRecorder.FORMAT_VERSION);
+		}
+		tickRate = log.getShort() & 0xFFFF;
+		ballSpeed = log.getDouble();
+		checkpointInterval = log.getInt();
+		startMillis = log.getLong();
+		index();
+		if (checkpoints == 0) {
+			throw new IOException(file + " has no starting state");
+		}
+		simulation = new GameSimulation(tickRate, ballSpeed);
+		seek(checkpointTicks[0]);
+	}
+
+	//one pass over the records to find the checkpoints, the names and the length of the match
+	private void index() {
+		int p = ReplayRecorder.HEADER_SIZE;
+		long tick = 0;
+		while (p < log.limit()) {
+			byte type = log.get(p);
+			if (type >= 0) {
+				tick += (type >> 4) + 1;
+				p++;
+			} else if (type == ReplayRecorder.CHECKPOINT) {
+				if (p + 1 + GameSimulation.CHECKPOINT_SIZE > log.limit()) {
+					break;
+				}
+				if (checkpoints == checkpointTicks.length) {
+					checkpointTicks = Arrays.copyOf(checkpointTicks, checkpoints * 2);
+					checkpointOffsets = Arrays.copyOf(checkpointOffsets, checkpoints * 2);
+				}
+				tick = log.getLong(p + 1);
+				checkpointTicks[checkpoints] = tick;
+				checkpointOffsets[checkpoints] = p + 1;
+				checkpoints++;
+				p += 1 + GameSimulation.CHECKPOINT_SIZE;
+			} else if (type == ReplayRecorder.NAME) {
+				int end = nameEnd(p);
+				if (end < 0) {
+					break;
+				}
+				int slot = log.get(p + 1);
+				if (slot == 1 || slot == 2) {
+					byte[] bytes = new byte[end - p - 3];
+					log.get(p + 3, bytes);
+					names[slot] = new String(bytes, StandardCharsets.UTF_8);
+				}
+				p = end;
+			} else {
+				//END, or a record cut off when the server died
+				break;
+			}
+		}
+		lastTick = tick;
+	}
+
+	//simulates one more tick with the recorded input, false when the log has no more ticks
+	public boolean step() {
+		if (runLeft == 0 && !nextRun()) {
+			return false;
+		}
+		runLeft--;
+		simulation.setPlayerInput(1, runInputs & 3, 0);
+		simulation.setPlayerInput(2, runInputs >> 2 & 3, 0);
+		simulation.step();
+		return true;
+	}
+
+	//reads records up to the next input run, checking checkpoints and picking up names on the way
+	private boolean nextRun() {
+		while (position < log.limit()) {
+			byte type = log.get(position);
+			if (type >= 0) {
+				runInputs = type & 0x0F;
+				runLeft = (type >> 4) + 1;
+				position++;
+				return true;
+			} else if (type == ReplayRecorder.CHECKPOINT) {
+				if (position + 1 + GameSimulation.CHECKPOINT_SIZE > log.limit()) {
+					return false;
+				}
+				check(position + 1);
+				position += 1 + GameSimulation.CHECKPOINT_SIZE;
+			} else if (type == ReplayRecorder.NAME) {
+				//names were picked up when opening
+				int end = nameEnd(position);
+				if (end < 0) {
+					return false;
+				}
+				position = end;
+			} else {
+				//END, or a record cut off when the server died
+				return false;
+			}
+		}
+		return false;
+	}
+
+	//where the record after the NAME record at p starts, -1 if it is cut off
+	private int nameEnd(int p) {
+		if (p + 3 > log.limit()) {
+			return -1;
+		}
+		int end = p + 3 + (log.get(p + 2) & 0xFF);
+		return end > log.limit() ? -1 : end;
+	}
+
+	//compare the simulation with the recorded checkpoint at offset
+	private void check(int offset) {
+		checkpointBuffer.clear();
+		simulation.saveCheckpoint(checkpointBuffer);
+		checkpointBuffer.flip();
+		if (divergedAt < 0 && !checkpointBuffer.equals(log.slice(offset, GameSimulation.CHECKPOINT_SIZE))) {
+			divergedAt = log.getLong(offset);
+		}
+	}
+
+	//restore the last checkpoint at or before tick and simulate from there, ends early if the log does
+	public void seek(long tick) {
+		int i = 0;
+		while (i + 1 < checkpoints && checkpointTicks[i + 1] <= tick) {
+			i++;
+		}
+		int offset = checkpointOffsets[i];
+		simulation.restoreCheckpoint(log.duplicate().position(offset));
+		position = offset + GameSimulation.CHECKPOINT_SIZE;
+		runLeft = 0;
+		while (simulation.getTick() < tick && step()) {
+			//simulating up to tick
+		}
+	}
+
+	//plays to the end, returns the first checkpoint tick the simulation disagreed with or -1
+	public long verify() {
+		seek(checkpointTicks[0]);
+		divergedAt = -1;
+		while (step()) {
+			//every checkpoint is checked on the way
+		}
+		return divergedAt;
+	}
+
+	public GameSimulation getSimulation() {
+		return simulation;
+	}
+
+	public long getLastTick() {
+		return lastTick;
+	}
+
+	public long getFirstTick() {
+		return checkpointTicks[0];
+	}
+
+	public int getTickRate() {
+		return tickRate;
+	}
+
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public long getDivergedAt() {
+		return divergedAt;
+	}
+
+	//last name the log has for slot 1 or 2, null if the player never sent one
+	public String getName(int slot) {
+		return names[slot];
+	}
+
+	//args: replay file [tick to seek to]
+	//without a tick the whole match is played and checked against its checkpoints
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: ReplayPlayer file [tick]");
+			System.exit(2);
+		}
+		ReplayPlayer player = new ReplayPlayer(Paths.get(args[0]));
+		System.out.printf("%s: ticks %d to %d at %d ticks per second (%.1f s of play), ball speed %.0f, "
+				+ "checkpoint every %d ticks%n", args[0], player.getFirstTick(), player.getLastTick(),
+				player.getTickRate(), (player.getLastTick() - player.getFirstTick()) / (double) player.getTickRate(),
+				player.ballSpeed, player.getCheckpointInterval());
+
+		long start = System.nanoTime();
+		if (args.length > 1) {
+			player.seek(Long.parseLong(args[1]));
+		} else {
+			long diverged = player.verify();
+			if (diverged >= 0) {
+				System.out.println("Replay differs from the recording at the checkpoint of tick " + diverged);
+			} else {
+				System.out.println("Replay matches every checkpoint");
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		GameSimulation simulation = player.getSimulation();
+		System.out.printf("at tick %d: %s %d - %d %s, ball (%.1f, %.1f), paddles %.1f and %.1f%n",
+				simulation.getTick(), player.getName(1), simulation.getPlayer1Score(), simulation.getPlayer2Score(),
+				player.getName(2), simulation.getBallX(), simulation.getBallY(), simulation.getPlayer1Y(),
+				simulation.getPlayer2Y());
+		System.out.printf("simulated in %.3f s%n", seconds);
+		if (player.getDivergedAt() >= 0) {
+			System.exit(1);
+		}
+	}
+}
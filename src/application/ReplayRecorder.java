@@ -0,0 +1,219 @@
+package application;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+//records a match as an append only log that ReplayPlayer can simulate again tick by tick
+//the simulation is deterministic, so the log only needs the starting state and the input bits
+//each tick used, plus a checkpoint of the full state every so often for seeking and checking
+//
+//file format, big endian:
+//  header: MAGIC, FORMAT_VERSION (short), tick rate (short), ball speed (double),
+//          checkpoint interval (int), start time in epoch millis (long)
+//  records:
+//    0rrriiii  input bits iiii (player 1 in the low two bits, player 2 above) for rrr + 1 ticks
+//    CHECKPOINT, GameSimulation.saveCheckpoint after the ticks so far, the first one is the start
+//    NAME, slot, name length, utf-8 name
+//    END, last tick, right after a final checkpoint, missing if the process died
+//
+//the tick thread only puts bytes into a buffer, full buffers and every checkpoint are handed to one
+//writer thread shared by all recorders, so a slow disk never stalls a tick
+public class ReplayRecorder {
+
+	public static final int MAGIC = 0x504E4752; //PNGR
+	public static final short FORMAT_VERSION = 1;
+	public static final int HEADER_SIZE = 4 + 2 + 2 + 8 + 4 + 8;
+
+	public static final byte CHECKPOINT = (byte) 0x80;
+	public static final byte NAME = (byte) 0x81;
+	public static final byte END = (byte) 0x82;
+	public static final int MAX_RUN = 8;
+
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 600;
+
+	private static final int CHUNK_SIZE = 4096;
+	private static final int MAX_RECORD_SIZE = 1 + GameSimulation.CHECKPOINT_SIZE;
+
+	private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "replay-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Path file;
+	private final GameSimulation simulation;
+	private final int checkpointInterval;
+
+	//filled by the recording threads, guarded by this
+	private ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+	private int runInputs;
+	private int runLength;
+	private boolean closed;
+
+	//emptied buffers come back from the writer
+	private final Queue<ByteBuffer> spareBuffers = new ConcurrentLinkedQueue<>();
+	//only touched on the writer thread
+	private FileChannel channel;
+	private boolean failed;
+
+	//starts with a checkpoint of the simulation as it is now
+	public ReplayRecorder(Path file, GameSimulation simulation, int checkpointInterval) {
+		this.file = file;
+		this.simulation = simulation;
+		this.checkpointInterval = checkpointInterval;
+		buffer.putInt(MAGIC);
+		buffer.putShort(FORMAT_VERSION);
+		buffer.putShort((short) simulation.getTickRate());
+		buffer.putDouble(simulation.getBallSpeed());
+		buffer.putInt(checkpointInterval);
+		buffer.putLong(System.currentTimeMillis());
+		checkpoint();
+	}
+
+	//a new replay file in directory named after the start time and match, null if the directory can not be made
+	public static ReplayRecorder start(Path directory, String match, GameSimulation simulation) {
+		try {
+			Files.createDirectories(directory);
+		} catch (IOException e) {
+			System.err.println("Could not create replay directory " + directory + ": " + e.getMessage());
+			return null;
+		}
+		Path file = directory.resolve("match-" + System.currentTimeMillis() + "-" + match + ".pongreplay");
+		return new ReplayRecorder(file, simulation, DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	//after each step, on the thread that steps the simulation
+	public synchronized void tick() {
+		if (closed) {
+			return;
+		}
+		int inputs = simulation.getAppliedInput(1) | simulation.getAppliedInput(2) << 2;
+		if (runLength > 0 && (inputs != runInputs || runLength == MAX_RUN)) {
+			endRun();
+		}
+		runInputs = inputs;
+		runLength++;
+
+		if (simulation.getTick() % checkpointInterval == 0) {
+			checkpoint();
+			handOver();
+		}
+	}
+
+	public synchronized void name(int slot, String name) {
+		if (closed) {
+			return;
+		}
+		byte[] bytes = Protocol.fitName(name).getBytes(StandardCharsets.UTF_8);
+		endRun();
+		ensureSpace(3 + bytes.length);
+		buffer.put(NAME).put((byte) slot).put((byte) bytes.length).put(bytes);
+	}
+
+	//writes what is left and closes the file once the writer got to it
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		//the state at the end too, so playing the whole log checks every tick of it
+		checkpoint();
+		ensureSpace(9);
+		buffer.put(END).putLong(simulation.getTick());
+		closed = true;
+		handOver();
+		WRITER.execute(this::closeChannel);
+	}
+
+	//the writer is a daemon thread, call this before exiting so recorders closed just before are on disk
+	public static void awaitWrites(long timeoutMillis) {
+		try {
+			WRITER.submit(() -> {
+			}).get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException e) {
+			System.err.println("Replays not fully written: " + e);
+		}
+	}
+
+	private void checkpoint() {
+		endRun();
+		ensureSpace(MAX_RECORD_SIZE);
+		buffer.put(CHECKPOINT);
+		simulation.saveCheckpoint(buffer);
+	}
+
+	private void endRun() {
+		if (runLength == 0) {
+			return;
+		}
+		ensureSpace(1);
+		buffer.put((byte) ((runLength - 1) << 4 | runInputs));
+		runLength = 0;
+	}
+
+	private void ensureSpace(int bytes) {
+		if (buffer.remaining() < bytes) {
+			handOver();
+		}
+	}
+
+	private void handOver() {
+		if (buffer.position() == 0) {
+			return;
+		}
+		ByteBuffer full = buffer;
+		full.flip();
+		ByteBuffer next = spareBuffers.poll();
+		buffer = next != null ? next : ByteBuffer.allocate(CHUNK_SIZE);
+		WRITER.execute(() -> write(full));
+	}
+
+	//writer thread
+	private void write(ByteBuffer chunk) {
+		try {
+			if (!failed) {
+				if (channel == null) {
+					channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+							StandardOpenOption.TRUNCATE_EXISTING);
+				}
+				while (chunk.hasRemaining()) {
+					channel.write(chunk);
+				}
+			}
+		} catch (IOException e) {
+			//the match goes on without a replay
+			failed = true;
+			System.err.println("Could not write replay " + file + ": " + e.getMessage());
+		} finally {
+			chunk.clear();
+			spareBuffers.add(chunk);
+		}
+	}
+
+	private void closeChannel() {
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Could not close replay " + file + ": " + e.getMessage());
+		}
+	}
+
+	public Path getFile() {
+		return file;
+	}
+}
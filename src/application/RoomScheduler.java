@@ -0,0 +1,174 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+//spreads the ticks of many rooms over a fixed set of workers, one per core, with work stealing
+//each room belongs to the shard of one worker, which also handles the room's network events
+//on every tick a worker runs its own shard from the front and then helps the unfinished shards of
+//the others from the back, so the rooms queued behind a heavy one are taken over by idle workers
+//instead of ticking late, and a busy tick ends with every worker on whatever is left
+//every room runs its ticks one after the other, each one on whichever worker gets the room's lock first,
+//so a room behind its owner's schedule is caught up by the others, and a room one worker is busy with
+//is passed over by the rest instead of making them wait
+//the owner takes the same lock for the room's network events
+//
+//the workers are the callers of runTick, RoomServer's event loops or the benchmark's threads,
+//nothing here allocates unless a room is added or removed
+public class RoomScheduler {
+
+	private static final Metrics METRICS = Metrics.get();
+	private static final LatencyHistogram ROOM_TICK = METRICS.histogram("pong_room_tick_seconds",
+			"Time to run one room's tick");
+	private static final LongAdder DEADLINE_MISSES = METRICS.counter("pong_room_deadline_misses_total",
+			"Room ticks that finished after the next tick was due");
+	private static final LongAdder STOLEN = METRICS.counter("pong_room_ticks_stolen_total",
+			"Room ticks run by a worker that does not own the room");
+
+	private final Shard[] shards;
+	private final long tickNanos;
+	//a room more than this many ticks behind skips ahead instead of catching up
+	private final long maxLag;
+	//tick n is due at epoch + n * tickNanos on every worker
+	private final long epoch = System.nanoTime();
+
+	public RoomScheduler(int workers, int tickRate) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("Need at least one worker: " + workers);
+		}
+		tickNanos = 1_000_000_000L / tickRate;
+		maxLag = tickRate;
+		shards = new Shard[workers];
+		for (int i = 0; i < workers; i++) {
+			shards[i] = new Shard();
+		}
+	}
+
+	//one room as far as the scheduler is concerned
+	public abstract static class Task {
+		//written with the lock held, read without it to pass over rooms that are done for this tick
+		private volatile long lastTick = -1;
+		private final ReentrantLock lock = new ReentrantLock();
+		//counted with the lock held
+		private long ticks;
+		private long deadlineMisses;
+
+		//one tick, with the lock held, worker is the index of the worker running it
+		protected abstract void tick(int worker);
+
+		//a finished task is dropped from its shard after its owner's next tick
+		protected abstract boolean isFinished();
+
+		//held while ticking, take it to touch the room from anywhere else
+		public ReentrantLock getLock() {
+			return lock;
+		}
+
+		//call with the lock held
+		public long getTicks() {
+			return ticks;
+		}
+
+		//ticks that were not done before the next one was due, call with the lock held
+		public long getDeadlineMisses() {
+			return deadlineMisses;
+		}
+	}
+
+	private static class Shard {
+		//owner only
+		private final List<Task> owned = new ArrayList<>();
+		//what the other workers go through, replaced when rooms come or go
+		private volatile Task[] tasks = new Task[0];
+		//the owner got through its own rooms for this tick, nothing left to help with
+		private volatile long finishedTick = -1;
+	}
+
+	//worker thread only, the task is ticked from its next tick on
+	public void add(int worker, Task task) {
+		Shard shard = shards[worker];
+		shard.owned.add(task);
+		shard.tasks = shard.owned.toArray(new Task[0]);
+	}
+
+	//worker thread only, drops the finished tasks of its shard
+	public void removeFinished(int worker) {
+		Shard shard = shards[worker];
+		if (shard.owned.removeIf(Task::isFinished)) {
+			shard.tasks = shard.owned.toArray(new Task[0]);
+		}
+	}
+
+	public long dueNanos(long tick) {
+		return epoch + tick * tickNanos;
+	}
+
+	//the last tick that is due at now
+	public long tickAt(long now) {
+		return (now - epoch) / tickNanos;
+	}
+
+	//worker's pass for tick, once it is due: its own rooms first, then whatever the others have left
+	//each room runs the ticks it has due by then
+	public void runTick(int worker, long tick) {
+		Shard own = shards[worker];
+		Task[] tasks = own.tasks;
+		for (int i = 0; i < tasks.length; i++) {
+			tryRun(tasks[i], worker, tick);
+		}
+		own.finishedTick = tick;
+
+		for (int s = 1; s < shards.length; s++) {
+			Shard other = shards[(worker + s) % shards.length];
+			Task[] theirs = other.tasks;
+			for (int i = theirs.length - 1; i >= 0 && other.finishedTick < tick; i--) {
+				if (tryRun(theirs[i], worker, tick)) {
+					STOLEN.increment();
+				}
+			}
+		}
+	}
+
+	private boolean tryRun(Task task, int worker, long tick) {
+		if (task.lastTick >= tick || !task.lock.tryLock()) {
+			return false;
+		}
+		try {
+			long next = task.lastTick + 1;
+			if (next > tick) {
+				//another worker ticked it in the meantime
+				return false;
+			}
+			if (tick - next > maxLag) {
+				//new, or more than a second behind
+				next = tick;
+			}
+			//a room that fell behind catches up right away, like a loop does
+			for (; next <= tick; next++) {
+				long start = System.nanoTime();
+				task.tick(worker);
+				long end = System.nanoTime();
+				task.lastTick = next;
+				ROOM_TICK.record(end - start);
+				task.ticks++;
+				if (end - dueNanos(next) > tickNanos) {
+					task.deadlineMisses++;
+					DEADLINE_MISSES.increment();
+				}
+			}
+		} finally {
+			task.lock.unlock();
+		}
+		return true;
+	}
+
+	public int getWorkers() {
+		return shards.length;
+	}
+
+	public long getTickNanos() {
+		return tickNanos;
+	}
+}
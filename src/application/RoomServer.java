@@ -0,0 +1,892 @@
+package application;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+//headless server hosting many matches at once, both players of a room are remote clients
+//the acceptor pairs players in order of arrival, and watches a waiting player's socket so one who
+//left isn't paired with the next, each room's sockets then belong to one of a few
+//selector loops, one per core by default, that read and write without blocking
+//the loops tick all rooms together through a RoomScheduler, a loop done with its own rooms takes
+//over the rooms another loop has not got to yet, so one heavy room does not hold up the rest
+//spectators connect to a separate port and name the room they want to watch in a WATCH frame
+public class RoomServer implements Runnable {
+
+	public static final int DEFAULT_PORT = 9999;
+	//rooms a server tells the directory it takes
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	//reliable frames a session may have queued before the client is considered lost
+	private static final int MAX_QUEUED_MESSAGES = 64;
+	//what a session can hold of frames not read completely yet
+	private static final int READ_BUFFER_SIZE = Protocol.MAX_FRAME_SIZE * 4;
+
+	private final int port;
+	private final int tickRate;
+	private final double ballSpeed;
+	private final EventLoop[] loops;
+	private final Thread[] loopThreads;
+	private final RoomScheduler scheduler;
+	private final AtomicInteger roomCount = new AtomicInteger();
+	//room ids for spectators and replay files, starting at 1
+	private final AtomicInteger roomIds = new AtomicInteger();
+	private final Map<Integer, Room> openRooms = new ConcurrentHashMap<>();
+	//rooms are not recorded while this is null
+	private volatile Path replayDirectory;
+	//finished matches are not kept while this is null
+	private volatile MatchHistory history;
+	//no spectators unless set, 0 picks a free port
+	private int spectatorPort = -1;
+	private ServerSocketChannel spectatorChannel;
+	private Selector watchSelector;
+	//totals only, a series per player would be thousands of them
+	private final ConnectionMetrics traffic = ConnectionMetrics.unlabelled();
+
+	private ServerSocketChannel serverChannel;
+	private Selector acceptSelector;
+	private volatile boolean done;
+	private int nextLoop;
+
+	//first player of the next room, waits until a second player connects
+	//registered for reading on the acceptor's selector, what they send meanwhile goes to the room
+	private volatile SocketChannel waiting;
+	private SelectionKey waitingKey;
+	private ByteBuffer waitingBytes;
+
+	public RoomServer(int port, int loopCount, int tickRate, double ballSpeed) {
+		this.port = port;
+		this.tickRate = tickRate;
+		this.ballSpeed = ballSpeed;
+		//fail here rather than on a loop thread when the first room opens
+		GameSimulation.checkSettings(tickRate, ballSpeed);
+		if (loopCount < 1) {
+			throw new IllegalArgumentException("Need at least one loop: " + loopCount);
+		}
+		this.loops = new EventLoop[loopCount];
+		this.loopThreads = new Thread[loopCount];
+		this.scheduler = new RoomScheduler(loopCount, tickRate);
+		Metrics.get().gauge("pong_rooms", "Matches being played", roomCount::get);
+		Metrics.get().gauge("pong_spectators", "Spectators watching a match", this::getSpectatorCount);
+	}
+
+	public void setReplayDirectory(Path replayDirectory) {
+		this.replayDirectory = replayDirectory;
+	}
+
+	//the caller opens and closes it
+	public void setMatchHistory(MatchHistory history) {
+		this.history = history;
+	}
+
+	//before start
+	public void setSpectatorPort(int spectatorPort) {
+		this.spectatorPort = spectatorPort;
+	}
+
+	public void start() throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port), 1024);
+		serverChannel.configureBlocking(false);
+		acceptSelector = Selector.open();
+		serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop(i);
+			loopThreads[i] = new Thread(loops[i], "room-loop-" + i);
+			loopThreads[i].start();
+		}
+		new Thread(this, "room-acceptor").start();
+		if (spectatorPort >= 0) {
+			spectatorChannel = ServerSocketChannel.open();
+			spectatorChannel.bind(new InetSocketAddress(spectatorPort), 1024);
+			spectatorChannel.configureBlocking(false);
+			watchSelector = Selector.open();
+			spectatorChannel.register(watchSelector, SelectionKey.OP_ACCEPT);
+			new Thread(this::acceptSpectators, "room-watch").start();
+			System.out.println("Spectators connect to port " + getSpectatorPort());
+		}
+
+		System.out.println("Room server started at port " + getPort() + " with " + loops.length + " loops at "
+				+ tickRate + " ticks per second");
+	}
+
+	//acceptor thread
+	@Override
+	public void run() {
+		try {
+			while (!done) {
+				acceptSelector.select();
+				for (SelectionKey key : acceptSelector.selectedKeys()) {
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						SocketChannel channel;
+						while ((channel = serverChannel.accept()) != null) {
+							channel.configureBlocking(false);
+							channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+							pair(channel);
+						}
+					} else if (key.isReadable()) {
+						readWaiting();
+					}
+				}
+				acceptSelector.selectedKeys().clear();
+			}
+		} catch (IOException e) {
+			if (!done) {
+				System.err.println("Error accepting connection: " + e.getMessage());
+				shutdown();
+			}
+		} finally {
+			if (waiting != null) {
+				closeQuietly(waiting);
+			}
+			try {
+				acceptSelector.close();
+			} catch (IOException e) {
+				System.err.println("Error closing selector: " + e.getMessage());
+			}
+		}
+	}
+
+	//the new player joins the waiting one, unless that one has left since, then they wait themselves
+	//reading once more first, the waiting player's socket may have closed since the last select
+	private void pair(SocketChannel channel) throws IOException {
+		if (waiting != null && readWaiting()) {
+			waitingKey.cancel();
+			loops[nextLoop].open(waiting, waitingBytes, channel);
+			nextLoop = (nextLoop + 1) % loops.length;
+			waiting = null;
+		} else {
+			waitingBytes = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			waitingKey = channel.register(acceptSelector, SelectionKey.OP_READ);
+			waiting = channel;
+		}
+	}
+
+	//keeps what the waiting player sent so far, returns false and forgets them if they left
+	//a player has nothing to send but a name before the game starts, a full buffer counts as leaving too
+	private boolean readWaiting() {
+		try {
+			if (waitingBytes.hasRemaining() && waiting.read(waitingBytes) >= 0) {
+				return true;
+			}
+		} catch (IOException e) {
+			//reset by the client, gone as well
+		}
+		waitingKey.cancel();
+		closeQuietly(waiting);
+		waiting = null;
+		waitingBytes = null;
+		return false;
+	}
+
+	//spectator acceptor thread, reads the WATCH frame of each new connection and hands it to that room
+	//the frame may come in pieces, so this has its own selector instead of blocking on a read
+	private void acceptSpectators() {
+		try {
+			while (!done) {
+				watchSelector.select();
+				for (SelectionKey key : watchSelector.selectedKeys()) {
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						SocketChannel channel = spectatorChannel.accept();
+						if (channel != null) {
+							channel.configureBlocking(false);
+							channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+							channel.register(watchSelector, SelectionKey.OP_READ, Protocol.allocate());
+						}
+					} else if (key.isReadable()) {
+						readWatch(key);
+					}
+				}
+				watchSelector.selectedKeys().clear();
+			}
+		} catch (IOException e) {
+			if (!done) {
+				System.err.println("Error accepting spectator: " + e.getMessage());
+			}
+		} finally {
+			for (SelectionKey key : watchSelector.keys()) {
+				if (key.channel() instanceof SocketChannel) {
+					closeQuietly((SocketChannel) key.channel());
+				}
+			}
+			try {
+				watchSelector.close();
+			} catch (IOException e) {
+				System.err.println("Error closing selector: " + e.getMessage());
+			}
+		}
+	}
+
+	private void readWatch(SelectionKey key) {
+		SocketChannel channel = (SocketChannel) key.channel();
+		ByteBuffer buffer = (ByteBuffer) key.attachment();
+		try {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Spectator left before watching");
+			}
+			buffer.flip();
+			if (Protocol.completeFrameSize(buffer) < 0) {
+				buffer.compact();
+				return;
+			}
+			if (Protocol.readFrame(buffer) != Protocol.WATCH) {
+				throw new IOException("Spectator did not send WATCH");
+			}
+			Room room = findRoom(buffer.getInt());
+			key.cancel();
+			if (room == null) {
+				closeQuietly(channel);
+			} else {
+				room.watch(channel);
+			}
+		} catch (IOException e) {
+			key.cancel();
+			closeQuietly(channel);
+		}
+	}
+
+	//0 means the newest room still being played
+	private Room findRoom(int id) {
+		if (id != 0) {
+			return openRooms.get(id);
+		}
+		Room newest = null;
+		for (Room room : openRooms.values()) {
+			if (newest == null || room.id > newest.id) {
+				newest = room;
+			}
+		}
+		return newest;
+	}
+
+	public void shutdown() {
+		done = true;
+		try {
+			if (serverChannel != null) {
+				serverChannel.close();
+			}
+			if (acceptSelector != null) {
+				acceptSelector.wakeup();
+			}
+			if (spectatorChannel != null) {
+				spectatorChannel.close();
+				watchSelector.wakeup();
+			}
+		} catch (IOException e) {
+			System.err.println("Error during shutdown: " + e.getMessage());
+		}
+		for (EventLoop loop : loops) {
+			if (loop != null) {
+				loop.selector.wakeup();
+			}
+		}
+	}
+
+	//for the shutdown hook, the loops close their rooms and the replays are written before the process ends
+	public void shutdownAndWait(long timeoutMillis) {
+		shutdown();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		try {
+			for (Thread thread : loopThreads) {
+				if (thread != null) {
+					thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		ReplayRecorder.awaitWrites(Math.max(1, deadline - System.currentTimeMillis()));
+	}
+
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	public int getRoomCount() {
+		return roomCount.get();
+	}
+
+	//-1 without spectators
+	public int getSpectatorPort() {
+		return spectatorChannel == null ? -1 : spectatorChannel.socket().getLocalPort();
+	}
+
+	//a player is connected and waits for an opponent, the next one to connect joins them
+	public boolean isPlayerWaiting() {
+		SocketChannel channel = waiting;
+		return channel != null && channel.isOpen();
+	}
+
+	public int getSpectatorCount() {
+		int count = 0;
+		for (Room room : openRooms.values()) {
+			count += room.spectators;
+		}
+		return count;
+	}
+
+	//two players for a new room, handed from the acceptor to a loop
+	private static class Pairing {
+		final SocketChannel player1;
+		final ByteBuffer sent1;
+		final SocketChannel player2;
+
+		Pairing(SocketChannel player1, ByteBuffer sent1, SocketChannel player2) {
+			this.player1 = player1;
+			this.sent1 = sent1;
+			this.player2 = player2;
+		}
+	}
+
+	//one selector thread, handles the network events of its rooms and is one of the scheduler's workers
+	//another loop may be ticking one of its rooms at the same time, so events are handled with the room's lock
+	private class EventLoop implements Runnable {
+		private final int index;
+		private final Selector selector;
+		private final Queue<Pairing> newRooms = new ConcurrentLinkedQueue<>();
+		//reused for every frame encoded on this loop, whichever room it is for
+		private final ByteBuffer outBuffer = Protocol.allocate();
+		private final TickStats tickStats;
+		//ready keys are handed to this instead of going through selectedKeys, whose iterator allocates
+		private final Consumer<SelectionKey> keyHandler = this::handle;
+
+		EventLoop(int index) throws IOException {
+			this.index = index;
+			selector = Selector.open();
+			tickStats = new TickStats("room-loop-" + index, tickRate);
+		}
+
+		//called from the acceptor, sent1 is what player 1 sent while waiting, in write mode
+		void open(SocketChannel player1, ByteBuffer sent1, SocketChannel player2) {
+			newRooms.add(new Pairing(player1, sent1, player2));
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			long tickNanos = scheduler.getTickNanos();
+			//the same tick numbers on every loop, so they tick together
+			long tick = scheduler.tickAt(System.nanoTime()) + 1;
+			try {
+				while (!done) {
+					long due = scheduler.dueNanos(tick);
+					long wait = due - System.nanoTime();
+					if (wait > 0) {
+						//round up, waking a little late is better than spinning until the tick
+						selector.select(keyHandler, (wait + 999_999) / 1_000_000);
+					} else {
+						selector.selectNow(keyHandler);
+					}
+
+					openNewRooms();
+
+					long now = System.nanoTime();
+					if (now - due >= 0) {
+						scheduler.runTick(index, tick);
+						scheduler.removeFinished(index);
+						tickStats.record(now, System.nanoTime());
+						tick++;
+						if (now - due > tickNanos * tickRate) {
+							//more than a second behind, skip ahead instead of catching up
+							tick = scheduler.tickAt(now) + 1;
+						}
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("Room loop error: " + e.getMessage());
+			} finally {
+				for (Room room : openRooms.values()) {
+					if (room.loop == this) {
+						room.getLock().lock();
+						try {
+							room.close();
+						} finally {
+							room.getLock().unlock();
+						}
+					}
+				}
+				try {
+					selector.close();
+				} catch (IOException e) {
+					System.err.println("Error closing selector: " + e.getMessage());
+				}
+			}
+		}
+
+		private void openNewRooms() {
+			Pairing players;
+			while ((players = newRooms.poll()) != null) {
+				try {
+					scheduler.add(index, new Room(this, players.player1, players.sent1, players.player2));
+					roomCount.incrementAndGet();
+				} catch (IOException e) {
+					System.err.println("Error opening room: " + e.getMessage());
+					closeQuietly(players.player1);
+					closeQuietly(players.player2);
+				}
+			}
+		}
+
+		private void handle(SelectionKey key) {
+			if (key.attachment() instanceof SpectatorFeed.Viewer) {
+				((SpectatorFeed.Viewer) key.attachment()).handle();
+				return;
+			}
+			Session session = (Session) key.attachment();
+			Room room = session.room;
+			room.getLock().lock();
+			try {
+				room.out = outBuffer;
+				if (key.isValid() && key.isReadable()) {
+					session.read();
+				}
+				if (key.isValid() && key.isWritable()) {
+					session.flush();
+				}
+			} catch (IOException e) {
+				room.close();
+			} finally {
+				room.getLock().unlock();
+			}
+		}
+	}
+
+	//one match between two sessions, only touched with its lock held
+	private class Room extends RoomScheduler.Task implements GameSimulation.Listener {
+		//owns the sockets
+		private final EventLoop loop;
+		//encoding buffer of the loop working on the room right now
+		private ByteBuffer out;
+		private final GameSimulation simulation;
+		private final Session player1;
+		private final Session player2;
+		private final ReplayRecorder recorder;
+		private final int id = roomIds.incrementAndGet();
+		//every state, score and name is encoded once for all spectators
+		private final SpectatorFeed feed = new SpectatorFeed(tickRate, traffic, getLock());
+		//handed over by the spectator acceptor, registered on the next tick
+		private final Queue<SocketChannel> newSpectators = new ConcurrentLinkedQueue<>();
+		private volatile int spectators;
+		private volatile boolean closed;
+
+		Room(EventLoop loop, SocketChannel channel1, ByteBuffer sent1, SocketChannel channel2) throws IOException {
+			this.loop = loop;
+			this.out = loop.outBuffer;
+			simulation = new GameSimulation(tickRate, ballSpeed);
+			simulation.setListener(this);
+			Path directory = replayDirectory;
+			recorder = directory == null ? null : ReplayRecorder.start(directory, Integer.toString(id), simulation);
+			player1 = new Session(this, 1, channel1);
+			player2 = new Session(this, 2, channel2);
+
+			//both players are here, the game starts right away
+			player1.queue(Protocol.encodeStart(out, tickRate, 1));
+			player2.queue(Protocol.encodeStart(out, tickRate, 2));
+			player1.readWaited(sent1);
+			openRooms.put(id, this);
+		}
+
+		//spectator acceptor thread
+		void watch(SocketChannel channel) {
+			newSpectators.add(channel);
+			if (closed) {
+				//close() may already have emptied the queue
+				closeNewSpectators();
+			}
+		}
+
+		private void closeNewSpectators() {
+			SocketChannel channel;
+			while ((channel = newSpectators.poll()) != null) {
+				closeQuietly(channel);
+			}
+		}
+
+		private void openNewSpectators() {
+			SocketChannel channel;
+			while ((channel = newSpectators.poll()) != null) {
+				try {
+					feed.add(channel, loop.selector);
+				} catch (IOException e) {
+					closeQuietly(channel);
+				}
+			}
+		}
+
+		@Override
+		protected void tick(int worker) {
+			if (closed) {
+				return;
+			}
+			out = loops[worker].outBuffer;
+			long now = System.nanoTime();
+			simulation.step();
+			if (recorder != null) {
+				recorder.tick();
+			}
+			player1.acknowledgeInput();
+			player2.acknowledgeInput();
+			player1.ping(now);
+			player2.ping(now);
+			long tick = simulation.getTick();
+			if (tick % Protocol.SEND_INTERVAL == 0) {
+				ByteBuffer frame = Protocol.encodeState(out, (int) tick, simulation.getBallX(),
+						simulation.getBallY(), simulation.getPlayer1Y(), simulation.getPlayer2Y());
+				//each player at the rate its link keeps up with
+				if (tick % player1.link.sendInterval(now) == 0) {
+					player1.queueState(frame, now);
+				}
+				if (tick % player2.link.sendInterval(now) == 0) {
+					player2.queueState(frame, now);
+				}
+				feed.publishState(frame);
+			}
+			try {
+				player1.flush();
+				player2.flush();
+			} catch (IOException e) {
+				close();
+				return;
+			}
+			if (!newSpectators.isEmpty()) {
+				openNewSpectators();
+			}
+			feed.flush();
+			spectators = feed.size();
+		}
+
+		void broadcast(ByteBuffer frame) {
+			player1.queue(frame);
+			player2.queue(frame);
+			feed.publish(frame);
+		}
+
+		@Override
+		public void onTick(GameSimulation simulation) {
+		}
+
+		@Override
+		public void onScore(GameSimulation simulation) {
+			broadcast(Protocol.encodeScore(out, simulation.getPlayer1Score(),
+					simulation.getPlayer2Score()));
+		}
+
+		@Override
+		protected boolean isFinished() {
+			return closed;
+		}
+
+		//when one player leaves the match is over for both
+		void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (getDeadlineMisses() > 0) {
+				System.out.println("Room " + id + " closed, " + getDeadlineMisses() + " of " + getTicks()
+						+ " ticks finished after the next one was due");
+			}
+			openRooms.remove(id);
+			feed.close();
+			closeNewSpectators();
+			spectators = 0;
+			if (recorder != null) {
+				recorder.close();
+			}
+			MatchHistory matches = history;
+			if (matches != null && getTicks() > 0) {
+				matches.record(player1.name, player2.name, simulation.getPlayer1Score(), simulation.getPlayer2Score());
+			}
+			player1.close();
+			player2.close();
+			roomCount.decrementAndGet();
+		}
+	}
+
+	//one connected player, all methods run with the room's lock held
+	private class Session {
+		private final Room room;
+		private final int slot;
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+		//frames that must arrive, in order
+		private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+		//their buffers go back here once written, so acks and scores don't allocate either
+		private final ArrayDeque<ByteBuffer> spareFrames = new ArrayDeque<>();
+		//newest state not yet handed to the socket, swapped with stateOut when it is
+		private ByteBuffer pendingState = Protocol.allocate();
+		private ByteBuffer stateOut = Protocol.allocate();
+		private boolean statePending;
+		private long pendingStateSince;
+		private final StateEncoder stateEncoder = new StateEncoder();
+		//frame the socket could only take part of, when it was queued and how big it is
+		private ByteBuffer writing;
+		private long writingSince;
+		private boolean writingState;
+		private int writingBytes;
+		private boolean writeInterest;
+		private long droppedStates;
+
+		//held input bits, and the last input sequence the client was told about
+		private int held;
+		private int ackedSequence;
+		private final LinkQuality link = new LinkQuality();
+		//null until the client sent one
+		private String name;
+		//when the frames being handled were read, for pongs
+		private long readNanos;
+
+		Session(Room room, int slot, SocketChannel channel) throws IOException {
+			this.room = room;
+			this.slot = slot;
+			this.channel = channel;
+			key = channel.register(room.loop.selector, SelectionKey.OP_READ, this);
+		}
+
+		void read() throws IOException {
+			if (channel.read(readBuffer) < 0) {
+				throw new EOFException("Client closed the connection");
+			}
+			handleFrames();
+		}
+
+		//what the acceptor read while the player waited for an opponent, usually the name
+		void readWaited(ByteBuffer sent) throws IOException {
+			sent.flip();
+			readBuffer.put(sent);
+			handleFrames();
+		}
+
+		private void handleFrames() throws IOException {
+			readNanos = System.nanoTime();
+			readBuffer.flip();
+			int size;
+			while ((size = Protocol.completeFrameSize(readBuffer)) > 0) {
+				traffic.received(size);
+				int end = readBuffer.position() + size;
+				handleFrame(Protocol.readFrame(readBuffer));
+				readBuffer.position(end);
+			}
+			readBuffer.compact();
+		}
+
+		private void handleFrame(byte type) {
+			if (type == Protocol.INPUT) {
+				held = Protocol.applyInput(held, readBuffer.get());
+				room.simulation.setPlayerInput(slot, held, readBuffer.getShort() & 0xFFFF);
+			} else if (type == Protocol.NAME) {
+				readBuffer.get(); //slot the client asked for, the room decides
+				name = Protocol.readName(readBuffer);
+				if (room.recorder != null) {
+					room.recorder.name(slot, name);
+				}
+				room.broadcast(Protocol.encodeName(room.out, slot, name));
+			} else if (type == Protocol.PING) {
+				queue(Protocol.encodePong(room.out, readBuffer.getLong(), readNanos));
+			} else if (type == Protocol.PONG) {
+				link.pong(readBuffer.getLong(), readBuffer.getLong(), readBuffer.getLong(), readNanos);
+			}
+		}
+
+		void ping(long now) {
+			if (link.pingDue(now)) {
+				queue(Protocol.encodePing(room.out, now));
+			}
+		}
+
+		//tells the client which tick first used its latest input, for its paddle prediction
+		void acknowledgeInput() {
+			int sequence = room.simulation.getAppliedSequence(slot);
+			if (sequence != ackedSequence) {
+				ackedSequence = sequence;
+				queue(Protocol.encodeInputAck(room.out, sequence,
+						(int) room.simulation.getAppliedTick(slot)));
+			}
+		}
+
+		//copies the frame, the caller reuses its buffer
+		//the time it was queued goes in front of the frame, writing starts at position 8
+		void queue(ByteBuffer frame) {
+			if (outbound.size() >= MAX_QUEUED_MESSAGES) {
+				ConnectionMetrics.DROPPED_CONNECTIONS.increment();
+				room.close();
+				return;
+			}
+			ByteBuffer copy = spareFrames.poll();
+			if (copy == null) {
+				copy = ByteBuffer.allocate(8 + Protocol.MAX_FRAME_SIZE);
+			}
+			copy.clear();
+			copy.putLong(System.nanoTime());
+			copy.put(frame.array(), 0, frame.limit());
+			copy.flip();
+			copy.position(8);
+			outbound.add(copy);
+		}
+
+		void queueState(ByteBuffer frame, long now) {
+			if (statePending) {
+				droppedStates++;
+				ConnectionMetrics.DROPPED_STATES.increment();
+				link.congested(now);
+			}
+			pendingStateSince = now;
+			pendingState.clear();
+			pendingState.put(frame.array(), 0, frame.limit());
+			pendingState.flip();
+			statePending = true;
+		}
+
+		//write as much as the socket takes, waits for OP_WRITE if it is full
+		void flush() throws IOException {
+			while (true) {
+				if (writing == null) {
+					writing = outbound.poll();
+					if (writing != null) {
+						writingSince = writing.getLong(0);
+						writingState = false;
+					} else if (statePending) {
+						ByteBuffer next = pendingState;
+						pendingState = stateOut;
+						stateOut = next;
+						statePending = false;
+						writing = stateEncoder.encode(stateOut);
+						writingSince = pendingStateSince;
+						writingState = true;
+					}
+					if (writing == null) {
+						break;
+					}
+					writingBytes = writing.remaining();
+				}
+				channel.write(writing);
+				if (writing.hasRemaining()) {
+					//the socket buffer is full, the link is behind
+					link.congested(System.nanoTime());
+					setWriteInterest(true);
+					return;
+				}
+				long latency = System.nanoTime() - writingSince;
+				(writingState ? ConnectionMetrics.STATE_LATENCY : ConnectionMetrics.MESSAGE_LATENCY).record(latency);
+				traffic.sent(writingBytes);
+				if (!writingState) {
+					spareFrames.add(writing);
+				}
+				writing = null;
+			}
+			setWriteInterest(false);
+		}
+
+		private void setWriteInterest(boolean interest) {
+			if (writeInterest != interest) {
+				writeInterest = interest;
+				key.interestOps(interest ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			}
+		}
+
+		void close() {
+			key.cancel();
+			closeQuietly(channel);
+			if (droppedStates > 0) {
+				System.out.println("Player " + slot + " left, " + droppedStates + " stale states dropped");
+			}
+		}
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			System.err.println("Error closing connection: " + e.getMessage());
+		}
+	}
+
+	//headless entry point, games start on their own as soon as two players are connected
+	//args: see ServerConfig.usage()
+	public static void main(String[] args) throws IOException {
+		RoomServer server;
+		int metricsPort;
+		Path replayDirectory;
+		Path historyDirectory;
+		int spectatorPort;
+		DirectoryRegistration registration = null;
+		try {
+			ServerConfig config = ServerConfig.parse(args);
+			int port = config.getInt(ServerConfig.PORT, DEFAULT_PORT);
+			int loops = config.getInt(ServerConfig.LOOPS, Runtime.getRuntime().availableProcessors());
+			int tickRate = config.getInt(ServerConfig.TICK_RATE, GameSimulation.DEFAULT_TICK_RATE);
+			int ballSpeed = config.getInt(ServerConfig.BALL_SPEED, (int) GameSimulation.DEFAULT_BALL_SPEED);
+			metricsPort = config.getInt(ServerConfig.METRICS_PORT, -1);
+			replayDirectory = config.getPath(ServerConfig.REPLAY_DIR);
+			spectatorPort = config.getInt(ServerConfig.SPECTATOR_PORT, -1);
+			historyDirectory = config.getPath(ServerConfig.HISTORY_DIR);
+			server = new RoomServer(port, loops, tickRate, ballSpeed);
+			InetSocketAddress directory = config.getAddress(ServerConfig.DIRECTORY);
+			if (directory != null) {
+				registration = new DirectoryRegistration(directory, server, config.getString(ServerConfig.ADVERTISE_HOST),
+						config.getString(ServerConfig.NODE_ID), config.getInt(ServerConfig.CAPACITY, DEFAULT_CAPACITY));
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(ServerConfig.usage());
+			System.exit(2);
+			return;
+		}
+
+		server.setReplayDirectory(replayDirectory);
+		//e.g. a directory that can't be created or a log of another format, a reason instead of a stack trace
+		MatchHistory history;
+		try {
+			history = historyDirectory == null ? null : MatchHistory.open(historyDirectory);
+		} catch (IOException e) {
+			System.err.println("Could not open match history " + historyDirectory + ": " + e.getMessage());
+			System.exit(2);
+			return;
+		}
+		server.setMatchHistory(history);
+		server.setSpectatorPort(spectatorPort);
+		server.start();
+		Metrics.get().registerMBean();
+		if (metricsPort >= 0) {
+			Metrics.get().serveHttp(metricsPort);
+		}
+		if (registration != null) {
+			registration.start();
+		}
+		//containers stop the process with a signal, leave the directory, close the listening socket and finish
+		//the replays and the match history on the way out
+		DirectoryRegistration leaving = registration;
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			if (leaving != null) {
+				leaving.shutdown();
+			}
+			server.shutdownAndWait(2000);
+			if (history != null) {
+				history.close(2000);
+			}
+		}, "room-shutdown"));
+	}
+}
@@ -1,11 +1,14 @@
 package application;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
+//set from network threads and drawn on the fx thread
 public class ScoreBoard {
-    private int player1Score;
-    private int player2Score;
+    private volatile int player1Score;
+    private volatile int player2Score;
     
     //positions of text on the screen
     private static final int SCORE_POSITION_X1 = 200;
@@ -13,8 +16,15 @@ public class ScoreBoard {
     private static final int SCORE_POSITION_Y = 50;
     
     //name of player 1 and 2
-    private String p1Name;
-    private String p2Name;
+    private volatile String p1Name;
+    private volatile String p2Name;
+
+    //bumped on every change so the renderer knows when to draw the scores again
+    private final AtomicInteger version = new AtomicInteger();
+    //text as last drawn, only rebuilt when version moved
+    private String p1Text;
+    private String p2Text;
+    private int textVersion = -1;
 
     public ScoreBoard() {
         this.player1Score = 0;
@@ -23,18 +33,26 @@ public class ScoreBoard {
 
     public void increasePlayer1Score() {
         player1Score++;
+        version.incrementAndGet();
     }
 
     public void increasePlayer2Score() {
         player2Score++;
+        version.incrementAndGet();
     }
     
     public void setP1Score(int p1) {
-    	player1Score = p1;
+    	if (player1Score != p1) {
+    		player1Score = p1;
+    		version.incrementAndGet();
+    	}
     }
     
     public void setP2Score(int p2) {
-    	player2Score = p2;
+    	if (player2Score != p2) {
+    		player2Score = p2;
+    		version.incrementAndGet();
+    	}
     }
     
     public int getScoreP1() {
@@ -47,16 +65,36 @@ public class ScoreBoard {
     
     public void setP1Name(String s) {
     	p1Name = s;
+    	version.incrementAndGet();
     }
     
     public void setP2Name(String s) {
     	p2Name = s;
+    	version.incrementAndGet();
+    }
+
+    public int getVersion() {
+    	return version.get();
     }
 
-    //call to draw/update scoreboard on screen
+    //call to draw/update scoreboard on screen, from the fx thread
     public void draw(GraphicsContext gc) {
+        refreshText();
         gc.setFill(Color.WHITE);
-        gc.fillText(p1Name + ": " + player1Score, SCORE_POSITION_X1, SCORE_POSITION_Y);
-        gc.fillText(p2Name + ": " + player2Score, SCORE_POSITION_X2, SCORE_POSITION_Y);
+        gc.fillText(p1Text, SCORE_POSITION_X1, SCORE_POSITION_Y);
+        gc.fillText(p2Text, SCORE_POSITION_X2, SCORE_POSITION_Y);
+    }
+
+    //rebuild the text if anything changed since last time, returns true if it did
+    boolean refreshText() {
+        int current = version.get();
+        if (current == textVersion) {
+        	return false;
+        }
+        //read the version first, a change after this shows up as a new version next frame
+        textVersion = current;
+        p1Text = p1Name + ": " + player1Score;
+        p2Text = p2Name + ": " + player2Score;
+        return true;
     }
 }
@@ -1,82 +1,129 @@
 package application;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
-import javafx.scene.Group;
 import javafx.scene.Scene;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.VBox;
-import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
-public class Server extends Application implements Runnable {
+public class Server extends Application implements Runnable, GameSimulation.Listener {
 
 	private List<ConnectionHandler> connections;
+	//the same connections as an array for the loops that run every tick, iterating the list allocates
+	private volatile ConnectionHandler[] connectionArray = new ConnectionHandler[0];
 		
 	private ServerSocket serverSocket;
 	private boolean done;
 	private ExecutorService threadPool;
 	private int port;
-	private boolean player2Connected = false;
+	//set once a connection took the player 2 slot, guarded by this
+	private volatile boolean player2Connected = false;
+	private volatile String player2Name;
+	//set once the start frame went out, guarded by the broadcast methods
+	private boolean started;
 	private Label player2StatusLabel;
 	private String playerName;
 	private Label ipLabel;
 	private TextField portField;
 	private TextField nameField;
 	private Button startButton;
+	private CheckBox virtualThreadsBox;
+	private boolean useVirtualThreads;
 	private Button startGameButton;
 
 	//Screen
-	private static final int WIDTH = 800;
-	private static final int HEIGHT = 600;
-	//paddle
-	private static final int PADDLE_WIDTH = 10;
-	private static final int PADDLE_HEIGHT = 100;
-	private static final double PADDLE_SPEED = 5.0;
+	private static final int WIDTH = GameSimulation.WIDTH;
+	private static final int HEIGHT = GameSimulation.HEIGHT;
+
+	//game runs on its own tick thread, the fx thread only draws a copy of the state
+	private final GameSimulation simulation;
+	private final GameState renderState = new GameState(0, 0, 0, 0);
+	//-Dpong.replayDir, null when matches are not recorded
+	private final String replayDir;
+	//records the match from the moment the game starts, null before that or without a replay directory
+	private volatile ReplayRecorder recorder;
+	//the match is added to it when it ends if -Dpong.historyDir is set, null otherwise
+	private final MatchHistory history;
+	//the match went into the history already, guarded by this
+	private boolean recorded;
+	//GameSimulation.UP and DOWN bits of the keys held by player 1, fx thread only
+	private int heldKeys;
+
+	private GameRenderer renderer;
 	
-	private static final int BALL_SIZE = 15;
+	private ScoreBoard scoreBoard;
+	private final RenderStats renderStats = new RenderStats("Server");
 
-	//game state variables
-	private double ballX, ballY, ballXSpeed, ballYSpeed;
-	private double player1Y, player2Y;
-	private Set<KeyCode> activeKeys;
+	//reliable frames a connection may have queued before the client is considered lost
+	private static final int MAX_QUEUED_MESSAGES = 64;
 
-	//input from client 
-	private boolean clientPressedUp;
-	private boolean clientPressedDown;
-	private GraphicsContext gc;
-	
-	private ScoreBoard scoreBoard;
+	//reused for every outgoing frame, guarded by the broadcast methods
+	private final ByteBuffer outBuffer = Protocol.allocate();
+	private final ByteBuffer snapshotBuffer = Protocol.allocate();
+
+	//optional unreliable channel for state snapshots, same port number as tcp
+	private DatagramChannel udpChannel;
+	//numbers connections in the metrics
+	private final AtomicInteger connectionIds = new AtomicInteger();
 
 	public Server() {
 		connections = new CopyOnWriteArrayList<>();
 		done = false;
 		scoreBoard = new ScoreBoard();
+		simulation = new GameSimulation();
+		simulation.setListener(this);
+		simulation.setTickStats(new TickStats("game", simulation.getTickRate()));
+		replayDir = System.getProperty("pong.replayDir");
+		history = openHistory(System.getProperty("pong.historyDir"));
+	}
+
+	//the game goes on without history if it can't be opened
+	private static MatchHistory openHistory(String directory) {
+		if (directory == null) {
+			return null;
+		}
+		try {
+			return MatchHistory.open(Paths.get(directory));
+		} catch (IOException e) {
+			System.err.println("Could not open match history " + directory + ": " + e.getMessage());
+			return null;
+		}
 	}
 
 	//main loop to handle connections
@@ -84,23 +131,18 @@ public class Server extends Application implements Runnable {
 	public void run() {
 		try {
 			serverSocket = new ServerSocket(port);
-			threadPool = Executors.newCachedThreadPool();
+			//reader and writer of every connection run on this pool
+			threadPool = ThreadPools.newConnectionPool(useVirtualThreads);
 			System.out.println("Server started at port " + serverSocket.getLocalPort());
+			openUdpChannel();
 
 			while (!done) {
 				Socket client = serverSocket.accept();
 				
-				//only allow one player to connect
-				if (!player2Connected) {
-					player2Connected = true;
-					Platform.runLater(() -> player2StatusLabel.setText("Player 2: Connected"));
-
-					ConnectionHandler handler = new ConnectionHandler(client);
-					connections.add(handler);
-					threadPool.execute(handler);
-				} else {
-					client.close();
-				}
+				//the handler reads whether it plays or watches, the accept loop never waits for a client
+				ConnectionHandler handler = new ConnectionHandler(client);
+				connections.add(handler);
+				threadPool.execute(handler);
 			}
 		} catch (IOException e) {
 			System.err.println("Error initializing server: " + e.getMessage());
@@ -108,22 +150,207 @@ public class Server extends Application implements Runnable {
 		}
 	}
 
-	//broadcast to connections (only one allowed)
-	public void broadcast(Object message) {
+	//only connections that said whether they play or watch get frames
+	private synchronized void connectionsChanged() {
+		List<ConnectionHandler> joined = new ArrayList<>();
 		for (ConnectionHandler ch : connections) {
-			if (ch != null) {
-				ch.sendMessage(message);
+			if (ch.joined) {
+				joined.add(ch);
+			}
+		}
+		connectionArray = joined.toArray(new ConnectionHandler[0]);
+	}
+
+	//the first player to connect gets slot 2, false if a player has it already
+	private synchronized boolean claimPlayer2() {
+		if (player2Connected) {
+			return false;
+		}
+		player2Connected = true;
+		renderStats.runLater(() -> player2StatusLabel.setText("Player 2: Connected"));
+		return true;
+	}
+
+	//broadcast to player 2 and the spectators, the frame is copied once and every connection
+	//queues that same copy, the writers only read it
+	public void broadcast(ByteBuffer frame) {
+		ConnectionHandler[] all = connectionArray;
+		if (all.length == 0) {
+			return;
+		}
+		ByteBuffer shared = stamp(frame);
+		for (ConnectionHandler ch : all) {
+			ch.queue(shared);
+		}
+	}
+
+	//copy of frame with the time it was queued in front, writers start at position 8
+	private static ByteBuffer stamp(ByteBuffer frame) {
+		ByteBuffer copy = ByteBuffer.allocate(8 + frame.limit());
+		copy.putLong(System.nanoTime());
+		copy.put(frame.array(), 0, frame.limit());
+		copy.flip();
+		copy.position(8);
+		return copy;
+	}
+
+	//like broadcast, but a connection that is behind only keeps the newest state
+	//connections that said hello over udp get a datagram snapshot instead
+	//each connection gets states as often as its link keeps up with, see LinkQuality
+	public synchronized void broadcastState() {
+		long now = System.nanoTime();
+		long tick = simulation.getTick();
+		ByteBuffer frame = Protocol.encodeState(outBuffer, (int) tick, simulation.getBallX(),
+				simulation.getBallY(), simulation.getPlayer1Y(), simulation.getPlayer2Y());
+		ByteBuffer snapshot = null;
+		for (ConnectionHandler ch : connectionArray) {
+			if (tick % ch.link.sendInterval(now) != 0) {
+				continue;
+			}
+			if (ch.udpAddress == null) {
+				ch.sendState(frame, now);
+			} else {
+				if (snapshot == null) {
+					snapshot = Protocol.encodeSnapshot(snapshotBuffer, (int) simulation.getTick(),
+							simulation.getBallX(), simulation.getBallY(), simulation.getPlayer1Y(),
+							simulation.getPlayer2Y());
+				}
+				ch.sendSnapshot(snapshot);
+			}
+		}
+	}
+
+	//a ping a second to every connection, their pongs tell each link's round trip
+	private synchronized void ping() {
+		long now = System.nanoTime();
+		for (ConnectionHandler ch : connectionArray) {
+			if (ch.link.pingDue(now)) {
+				ch.sendMessage(Protocol.encodePing(outBuffer, now));
+			}
+		}
+	}
+
+	//tells the client which tick first used its latest input, for its paddle prediction
+	private synchronized void acknowledgeInput() {
+		int sequence = simulation.getAppliedSequence(2);
+		for (ConnectionHandler ch : connectionArray) {
+			if (!ch.spectator && ch.ackedSequence != sequence) {
+				ch.ackedSequence = sequence;
+				ch.sendMessage(Protocol.encodeInputAck(outBuffer, sequence, (int) simulation.getAppliedTick(2)));
+			}
+		}
+	}
+
+	private void openUdpChannel() {
+		try {
+			udpChannel = DatagramChannel.open();
+			udpChannel.bind(new InetSocketAddress(port));
+			threadPool.execute(this::receiveDatagrams);
+		} catch (IOException e) {
+			System.err.println("UDP unavailable, game state goes over TCP only: " + e.getMessage());
+			udpChannel = null;
+		}
+	}
+
+	//udp thread, a hello tells us where to send a connection's snapshots
+	private void receiveDatagrams() {
+		ByteBuffer buf = Protocol.allocate();
+		try {
+			while (!done) {
+				buf.clear();
+				SocketAddress from = udpChannel.receive(buf);
+				buf.flip();
+				if (Protocol.completeFrameSize(buf) < 0 || Protocol.readFrame(buf) != Protocol.UDP_HELLO) {
+					continue;
+				}
+				int token = buf.getInt();
+				for (ConnectionHandler ch : connections) {
+					if (ch.token == token && ch.udpAddress == null) {
+						ch.udpAddress = from;
+						System.out.println("Sending game state over UDP to " + from);
+					}
+				}
 			}
+		} catch (IOException e) {
+			if (!done) {
+				System.err.println("UDP error: " + e.getMessage());
+			}
+		}
+	}
+
+	public synchronized void broadcastScore() {
+		broadcast(Protocol.encodeScore(outBuffer, scoreBoard.getScoreP1(), scoreBoard.getScoreP2()));
+	}
+
+	public synchronized void broadcastName(int slot, String name) {
+		broadcast(Protocol.encodeName(outBuffer, slot, name));
+	}
+
+	//player 2 gets its slot, spectators 0
+	public synchronized void broadcastStart() {
+		started = true;
+		for (ConnectionHandler ch : connectionArray) {
+			ch.sendMessage(Protocol.encodeStart(outBuffer, simulation.getTickRate(), ch.spectator ? 0 : 2));
 		}
 	}
 
+	//what a spectator joining late has missed, the names, the score and the start
+	private synchronized void catchUp(ConnectionHandler spectator) {
+		spectator.sendMessage(Protocol.encodeName(outBuffer, 1, playerName));
+		String name2 = player2Name;
+		if (name2 != null) {
+			spectator.sendMessage(Protocol.encodeName(outBuffer, 2, name2));
+		}
+		spectator.sendMessage(Protocol.encodeScore(outBuffer, scoreBoard.getScoreP1(), scoreBoard.getScoreP2()));
+		if (started) {
+			spectator.sendMessage(Protocol.encodeStart(outBuffer, simulation.getTickRate(), 0));
+		}
+	}
+
+	//once, when player 2 leaves or the window closes, and only if the game was started with player 2
+	private synchronized void recordMatch() {
+		if (history == null || recorded || !started) {
+			return;
+		}
+		recorded = true;
+		history.record(playerName, player2Name, simulation.getPlayer1Score(), simulation.getPlayer2Score());
+	}
+
+	//fx thread, right before the simulation starts so the first checkpoint is the state the game starts from
+	private synchronized void startRecording() {
+		if (replayDir == null || recorder != null) {
+			return;
+		}
+		ReplayRecorder started = ReplayRecorder.start(Paths.get(replayDir), "host", simulation);
+		if (started == null) {
+			return;
+		}
+		//the names came in before there was anything to record them
+		started.name(1, playerName);
+		String name2 = player2Name;
+		if (name2 != null) {
+			started.name(2, name2);
+		}
+		recorder = started;
+	}
+
 	public void shutdown() {
 		try {
 			done = true;
-			threadPool.shutdown();
+			simulation.stop();
+			ReplayRecorder recorder = this.recorder;
+			if (recorder != null) {
+				recorder.close();
+			}
+			if (threadPool != null) {
+				threadPool.shutdown();
+			}
 			if (serverSocket != null && !serverSocket.isClosed()) {
 				serverSocket.close();
 			}
+			if (udpChannel != null) {
+				udpChannel.close();
+			}
 			for (ConnectionHandler ch : connections) {
 				ch.shutdown();
 			}
@@ -136,6 +363,7 @@ public class Server extends Application implements Runnable {
 	@Override
 	public void start(Stage primaryStage) {
 		primaryStage.setTitle("Ping Pong Game - Server");
+		Metrics.get().exportFromProperties();
 
 		ipLabel = new Label();
 		try {
@@ -152,6 +380,11 @@ public class Server extends Application implements Runnable {
 
 		player2StatusLabel = new Label("Player 2: Not Connected");
 
+		//the project targets java 17, which has no virtual threads, there the box is off and says so
+		virtualThreadsBox = new CheckBox(ThreadPools.virtualThreadsAvailable() ? "Use virtual threads"
+				: "Use virtual threads (needs Java 21, this is Java " + Runtime.version().feature() + ")");
+		virtualThreadsBox.setDisable(!ThreadPools.virtualThreadsAvailable());
+
 		startButton = new Button("Start Server");
 		startButton.setOnAction(event -> {
 			try {
@@ -162,6 +395,7 @@ public class Server extends Application implements Runnable {
 					showAlert(AlertType.ERROR, "Port Unavailable", "Port " + inputPort + " is already in use.");
 				} else {
 					port = inputPort;
+					useVirtualThreads = virtualThreadsBox.isSelected();
 					playerName = nameField.getText();
 					scoreBoard.setP1Name(playerName);
 					if (playerName.isEmpty()) {
@@ -174,6 +408,7 @@ public class Server extends Application implements Runnable {
 					showAlert(AlertType.INFORMATION, "Server has started on port " + inputPort + " and ip " + InetAddress.getLocalHost().getHostAddress() ,
 							"Player 2 is now able to connect to the server.");
 					startButton.setDisable(true);
+					virtualThreadsBox.setDisable(true);
 					ipLabel.setText("Server IP: " + InetAddress.getLocalHost().getHostAddress() + " - Server Started");
 				}
 			} catch (NumberFormatException | UnknownHostException e) {
@@ -185,8 +420,8 @@ public class Server extends Application implements Runnable {
 
 		startGameButton.setOnAction(event -> {
 			if (player2Connected) {
-				//send "StartGame" signal to connected client
-				broadcast("StartGame");
+				//send start signal to connected client
+				broadcastStart();
 				showGameWindow(primaryStage);
 			} else {
 				showAlert(AlertType.ERROR, "Player 2 Not Connected!", "Game is starting without player 2.");
@@ -199,11 +434,11 @@ public class Server extends Application implements Runnable {
 			}
 		});
 
-		VBox vbox = new VBox(10, ipLabel, portLabel, portField, nameLabel, nameField, player2StatusLabel, startButton,
-				startGameButton);
+		VBox vbox = new VBox(10, ipLabel, portLabel, portField, nameLabel, nameField, player2StatusLabel,
+				virtualThreadsBox, startButton, startGameButton);
 		vbox.setPadding(new Insets(10));
 
-		Scene scene = new Scene(vbox, 300, 300);
+		Scene scene = new Scene(vbox, 300, 330);
 		primaryStage.setScene(scene);
 		primaryStage.show();
 	}
@@ -228,260 +463,353 @@ public class Server extends Application implements Runnable {
 
 	//display game
 	private void showGameWindow(Stage primaryStage) {
-		Canvas canvas = new Canvas(WIDTH, HEIGHT);
-		gc = canvas.getGraphicsContext2D();
+		renderer = new GameRenderer(scoreBoard);
 
-		Group root = new Group();
-		root.getChildren().add(canvas);
-
-		Scene scene = new Scene(root, WIDTH, HEIGHT);
+		Scene scene = new Scene(renderer.getView(), WIDTH, HEIGHT);
 		primaryStage.setScene(scene);
 		primaryStage.show();
 
-		initializeGame();
-
-		activeKeys = ConcurrentHashMap.newKeySet();
 		scene.setOnKeyPressed(this::handleKeyPress);
 		scene.setOnKeyReleased(this::handleKeyRelease);
-		
-		//limit frames per second (fps) in order to prevent very high fps issues
-		final long frameInterval = 100000000 / 60; //ns
-	    new AnimationTimer() {
-	        private long lastUpdate = 0;
-
-	        @Override
-	        public void handle(long now) {
-	            if (now - lastUpdate >= frameInterval) {
-	                updateGame();
-	                draw(gc);
-	                lastUpdate = now;
-	            }
-	        }
-	    }.start();
-
-	    //old implementation
-	    //can cause very high framerates
-		/*
+
+		//game updates happen on the simulation thread at a fixed tick rate,
+		//the animation timer only draws the latest state
+		startRecording();
+		simulation.start();
 		new AnimationTimer() {
 			@Override
 			public void handle(long now) {
-				updateGame();
-				draw(gc);
+				renderStats.frameStarted(now);
+				simulation.copyState(renderState);
+				renderer.draw(renderState.ballX, renderState.ballY, renderState.player1Y, renderState.player2Y);
+				renderStats.frameFinished();
 			}
-		}.start();*/
+		}.start();
 
 		primaryStage.setOnCloseRequest(event -> {
 			shutdown();
+			ReplayRecorder.awaitWrites(2000);
+			if (history != null) {
+				recordMatch();
+				history.close(2000);
+			}
 			Platform.exit();
 			System.exit(0);
 		});
 	}
 
-	private void initializeGame() {
-		ballX = WIDTH / 2 - BALL_SIZE / 2;
-		ballY = HEIGHT / 2 - BALL_SIZE / 2;
-		ballXSpeed = 2;
-		ballYSpeed = 2;
-		player1Y = HEIGHT / 2 - PADDLE_HEIGHT / 2;
-		player2Y = HEIGHT / 2 - PADDLE_HEIGHT / 2;
-	}
-
 	//start movement when key is pressed
 	private void handleKeyPress(KeyEvent event) {
-		activeKeys.add(event.getCode());
+		int bit = keyBit(event.getCode());
+		if (bit != 0 && (heldKeys & bit) == 0) {
+			heldKeys |= bit;
+			simulation.setPlayerInput(1, heldKeys, 0);
+		}
 	}
 
 	//end when key is released
 	private void handleKeyRelease(KeyEvent event) {
-		activeKeys.remove(event.getCode());
-	}
-
-	//update game state
-	private void updateGame() {
-		if (activeKeys.contains(KeyCode.W)) {
-			player1Y -= PADDLE_SPEED;
-			if (player1Y < 0) {
-				player1Y = 0;
-			}
-		}
-
-		if (activeKeys.contains(KeyCode.S)) {
-			player1Y += PADDLE_SPEED;
-			if (player1Y > HEIGHT - PADDLE_HEIGHT) {
-				player1Y = HEIGHT - PADDLE_HEIGHT;
-			}
-		}
-
-		if (clientPressedUp) {
-			player2Y -= PADDLE_SPEED;
-			if (player2Y < 0) {
-				player2Y = 0;
-			}
+		int bit = keyBit(event.getCode());
+		if ((heldKeys & bit) != 0) {
+			heldKeys &= ~bit;
+			simulation.setPlayerInput(1, heldKeys, 0);
 		}
+	}
 
-		if (clientPressedDown) {
-			player2Y += PADDLE_SPEED;
-			if (player2Y > HEIGHT - PADDLE_HEIGHT) {
-				player2Y = HEIGHT - PADDLE_HEIGHT;
-			}
+	//W and S move player 1, other keys do nothing
+	private static int keyBit(KeyCode code) {
+		if (code == KeyCode.W) {
+			return GameSimulation.UP;
+		} else if (code == KeyCode.S) {
+			return GameSimulation.DOWN;
 		}
+		return 0;
+	}
 
-		//ball movement
-		ballX += ballXSpeed;
-		ballY += ballYSpeed;
-
-		//collision with top and bottom walls
-		if (ballY <= 0 || ballY >= HEIGHT - BALL_SIZE) {
-			ballYSpeed = -ballYSpeed;
+	//simulation thread, send game state to client every few ticks, it interpolates in between
+	@Override
+	public void onTick(GameSimulation simulation) {
+		ReplayRecorder recorder = this.recorder;
+		if (recorder != null) {
+			recorder.tick();
 		}
-
-		//ball collision with paddles
-		if ((ballX <= PADDLE_WIDTH && ballY + BALL_SIZE >= player1Y && ballY <= player1Y + PADDLE_HEIGHT)
-				|| (ballX >= WIDTH - PADDLE_WIDTH - BALL_SIZE && ballY + BALL_SIZE >= player2Y
-						&& ballY <= player2Y + PADDLE_HEIGHT)) {
-			ballXSpeed = -ballXSpeed;
+		acknowledgeInput();
+		ping();
+		if (simulation.getTick() % Protocol.SEND_INTERVAL == 0) {
+			broadcastState();
 		}
-
-        if (ballX <= 0) {
-        	
-            scoreBoard.increasePlayer2Score();
-
-            broadcast(scoreBoard.getScoreP1());
-            broadcast(scoreBoard.getScoreP2());
-            
-            initializeGame();
-        } else if (ballX >= WIDTH) {
-        	
-            scoreBoard.increasePlayer1Score();
-
-            broadcast(scoreBoard.getScoreP1());
-            broadcast(scoreBoard.getScoreP2());
-            
-            initializeGame();
-        }
-
-		// send game state to client
-		GameState gameState = new GameState(ballX, ballY, player1Y, player2Y);
-		broadcast(gameState);
 	}
 
-	//draw game 
-	private void draw(GraphicsContext gc) {
-		gc.setFill(Color.BLACK);
-		gc.fillRect(0, 0, WIDTH, HEIGHT);
-
-		gc.setFill(Color.WHITE);
-		gc.fillRect(0, player1Y, PADDLE_WIDTH, PADDLE_HEIGHT);
-		gc.fillRect(WIDTH - PADDLE_WIDTH, player2Y, PADDLE_WIDTH, PADDLE_HEIGHT);
-
-		gc.fillOval(ballX, ballY, BALL_SIZE, BALL_SIZE);
-		
-		scoreBoard.draw(gc);
+	//simulation thread, someone scored
+	@Override
+	public void onScore(GameSimulation simulation) {
+		scoreBoard.setP1Score(simulation.getPlayer1Score());
+		scoreBoard.setP2Score(simulation.getPlayer2Score());
+		broadcastScore();
 	}
+
 	
 
 	//handle connection from client
+	//reads on the pool thread that runs it, writes happen on a separate writer so a slow
+	//client never blocks the simulation or the fx thread
 	class ConnectionHandler implements Runnable {
 		private Socket client;
-		private ObjectInputStream in;
-		private ObjectOutputStream out;
+		//spectators get everything player 2 gets except input acks, and what they send is ignored
+		//decided by the first frame, a spectator sends WATCH and a player its NAME, a player that
+		//comes when player 2 is there already watches too
+		private boolean spectator = true;
+		//set after spectator, broadcasts only go to joined connections
+		private volatile boolean joined;
+		private DataInputStream in;
+		private OutputStream out;
+		private final ByteBuffer inBuffer = Protocol.allocate();
+
+		//frames that must arrive (score, name, start), in order
+		private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger queuedMessages = new AtomicInteger();
+
+		//only the newest state is worth sending, an unsent state is replaced by the next one
+		//buffers go around between pending and spare so steady state needs no allocation
+		private final AtomicReference<ByteBuffer> pendingState = new AtomicReference<>();
+		private final AtomicReference<ByteBuffer> spareState = new AtomicReference<>();
+		private final AtomicLong droppedStates = new AtomicLong();
+		//only used by the writer, turns keyframes into deltas against what was last written
+		private final StateEncoder stateEncoder = new StateEncoder();
+		//when the pending state was handed over, for the send latency
+		private volatile long pendingStateSince;
+
+		private final ConnectionMetrics metrics = ConnectionMetrics.labelled(Integer.toString(connectionIds.incrementAndGet()));
+		private final LinkQuality link = new LinkQuality();
+		//pongs are encoded on the reader thread, outBuffer belongs to the broadcast methods
+		private final ByteBuffer pongBuffer = Protocol.allocate();
+
+		private volatile Thread writer;
+		private volatile boolean closed;
+
+		//quoted by the client in its udp hello, after which states go to udpAddress
+		private final int token = ThreadLocalRandom.current().nextInt();
+		private volatile SocketAddress udpAddress;
+
+		//held input bits, and the last input sequence the client was told about (simulation thread)
+		private int held;
+		private int ackedSequence;
 
 		public ConnectionHandler(Socket client) {
 			this.client = client;
+			metrics.link(link);
 		}
 
 		//thread
 		@Override
 		public void run() {
 			try {
-				out = new ObjectOutputStream(client.getOutputStream());
-				in = new ObjectInputStream(client.getInputStream());
-				
-				//send name (server player) to client
-				scoreBoard.setP1Name(playerName);
-				broadcast(playerName);
-
-				Object message;
-				while ((message = in.readObject()) != null) {
-					if (message instanceof Integer) {
-						int val = (Integer) message;
-
-						if (val == 0) {
-							clientPressedDown = true;
-						} else if (val == 1) {
-							clientPressedDown = false;
-						}
-
-						if (val == 2) {
-							clientPressedUp = true;
-						} else if (val == 3) {
-							clientPressedUp = false;
-						}
+				client.setTcpNoDelay(true);
+				out = new BufferedOutputStream(client.getOutputStream());
+				in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+				threadPool.execute(this::writeLoop);
+				if (udpChannel != null) {
+					sendMessage(Protocol.encodeWelcome(Protocol.allocate(), token));
+				}
+
+
+				byte first = Protocol.readFrame(in, inBuffer);
+				metrics.received(inBuffer.limit() + 2);
+				spectator = first != Protocol.NAME || !claimPlayer2();
+				joined = true;
+				connectionsChanged();
+
+				if (spectator) {
+					catchUp(this);
+				} else {
+					//send name (server player) to client
+					scoreBoard.setP1Name(playerName);
+					broadcastName(1, playerName);
+					if (recorder != null) {
+						recorder.name(1, playerName);
+					}
+					nameReceived();
+				}
+
+				while (true) {
+					byte type = Protocol.readFrame(in, inBuffer);
+					long received = System.nanoTime();
+					metrics.received(inBuffer.limit() + 2);
+					if (type == Protocol.PING) {
+						sendMessage(Protocol.encodePong(pongBuffer, inBuffer.getLong(), received));
+					} else if (type == Protocol.PONG) {
+						link.pong(inBuffer.getLong(), inBuffer.getLong(), inBuffer.getLong(), received);
+					} else if (type == Protocol.UDP_OFF && udpAddress != null) {
+						//the client stopped getting snapshots, its next hello turns udp back on
+						udpAddress = null;
+						System.out.println("Client gets no snapshots, game state back on TCP");
+					}
+					if (spectator) {
+						continue;
 					}
-					else {
-						String s = (String) message;
-						scoreBoard.setP2Name(s);
+					if (type == Protocol.INPUT) {
+						held = Protocol.applyInput(held, inBuffer.get());
+						simulation.setPlayerInput(2, held, inBuffer.getShort() & 0xFFFF);
+					} else if (type == Protocol.NAME) {
+						nameReceived();
 					}
 				}
-			} catch (ClassNotFoundException | IOException e) {
-				System.err.println("Connection error: " + e.getMessage());
+			} catch (IOException e) {
+				if (!closed) {
+					System.err.println("Connection error: " + e.getMessage());
+				}
 			} finally {
 				shutdown();
 			}
 		}
 
-		public void sendMessage(Object message) {
+		//player 2's name is in inBuffer
+		private void nameReceived() {
+			inBuffer.get(); //slot, the client is always player 2
+			String name = Protocol.readName(inBuffer);
+			scoreBoard.setP2Name(name);
+			player2Name = name;
+			broadcastName(2, name);
+			if (recorder != null) {
+				recorder.name(2, name);
+			}
+		}
+
+		//writer thread, sends everything queued and then the latest state, parks when idle
+		private void writeLoop() {
+			writer = Thread.currentThread();
 			try {
-				if (out != null) {
-					out.writeObject(message);
-					out.flush();
+				while (!closed) {
+					boolean wrote = false;
+					ByteBuffer frame;
+					while ((frame = outbound.poll()) != null) {
+						queuedMessages.decrementAndGet();
+						out.write(frame.array(), frame.position(), frame.remaining());
+						ConnectionMetrics.MESSAGE_LATENCY.record(System.nanoTime() - frame.getLong(0));
+						metrics.sent(frame.remaining());
+						wrote = true;
+					}
+
+					ByteBuffer state = pendingState.getAndSet(null);
+					if (state != null) {
+						long since = pendingStateSince;
+						ByteBuffer encoded = stateEncoder.encode(state);
+						out.write(encoded.array(), 0, encoded.limit());
+						ConnectionMetrics.STATE_LATENCY.record(System.nanoTime() - since);
+						metrics.sent(encoded.limit());
+						spareState.compareAndSet(null, state);
+						wrote = true;
+					}
+
+					if (wrote) {
+						out.flush();
+					} else {
+						LockSupport.park(this);
+					}
 				}
 			} catch (IOException e) {
-				System.err.println("Error sending message: " + e.getMessage());
+				if (!closed) {
+					System.err.println("Error sending message: " + e.getMessage());
+				}
+			} finally {
+				writer = null;
 				shutdown();
 			}
 		}
 
+		//queue a frame that must be delivered, the frame is copied so the caller can reuse it
+		public void sendMessage(ByteBuffer frame) {
+			if (!closed) {
+				queue(stamp(frame));
+			}
+		}
+
+		//a stamped frame that may be queued on other connections too, so it is never written to
+		void queue(ByteBuffer stamped) {
+			if (closed) {
+				return;
+			}
+			if (queuedMessages.incrementAndGet() > MAX_QUEUED_MESSAGES) {
+				System.err.println("Client stopped reading, closing connection");
+				ConnectionMetrics.DROPPED_CONNECTIONS.increment();
+				shutdown();
+				return;
+			}
+			outbound.add(stamped);
+			LockSupport.unpark(writer);
+		}
+
+		//replace the pending state with a newer one, only called from the simulation thread
+		public void sendState(ByteBuffer frame, long now) {
+			if (closed) {
+				return;
+			}
+			ByteBuffer buf = spareState.getAndSet(null);
+			if (buf == null) {
+				buf = Protocol.allocate();
+			}
+			buf.clear();
+			buf.put(frame.array(), 0, frame.limit());
+			buf.flip();
+
+			pendingStateSince = now;
+			ByteBuffer stale = pendingState.getAndSet(buf);
+			if (stale != null) {
+				droppedStates.incrementAndGet();
+				ConnectionMetrics.DROPPED_STATES.increment();
+				link.congested(now);
+				spareState.set(stale);
+			}
+			LockSupport.unpark(writer);
+		}
+
+		//datagrams are never queued, if the socket buffer is full the snapshot is simply lost
+		public void sendSnapshot(ByteBuffer snapshot) {
+			try {
+				snapshot.position(0);
+				udpChannel.send(snapshot, udpAddress);
+			} catch (IOException e) {
+				System.err.println("UDP send failed, back to TCP: " + e.getMessage());
+				udpAddress = null;
+			}
+		}
+
+		//frames waiting to be written, including a pending state
+		public int getQueueDepth() {
+			return queuedMessages.get() + (pendingState.get() != null ? 1 : 0);
+		}
+
+		//states that were replaced before the client could take them
+		public long getDroppedStates() {
+			return droppedStates.get();
+		}
+
 		public void shutdown() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			LockSupport.unpark(writer);
 			try {
-				if (in != null) {
-					in.close();
-				}
-				if (out != null) {
-					out.close();
-				}
+				//closing the socket also closes both streams and unblocks the reader and writer
 				if (client != null && !client.isClosed()) {
 					client.close();
 				}
 			} catch (IOException e) {
 				System.err.println("Error during connection shutdown: " + e.getMessage());
 			} finally {
+				if (!spectator) {
+					//player 2 left, the match is over
+					recordMatch();
+				}
 				connections.remove(this);
+				connectionsChanged();
+				metrics.close();
+				System.out.println("Connection closed, " + droppedStates.get() + " stale states dropped");
 			}
 		}
 	}
 
-	//state of the game
-	static class GameState implements Serializable {
-		private static final long serialVersionUID = 1L;
-		double ballX, ballY;
-		double player1Y, player2Y;
-
-		public GameState(double ballX, double ballY, double player1Y, double player2Y) {
-			this.ballX = ballX;
-			this.ballY = ballY;
-			this.player1Y = player1Y;
-			this.player2Y = player2Y;
-		}
-
-		public void updateGameState(GameState gameState) {
-			this.player1Y = gameState.player1Y;
-			this.player2Y = gameState.player2Y;
-			this.ballX = gameState.ballX;
-			this.ballY = gameState.ballY;
-		}
-	}
-
 	public static void main(String[] args) {
 		launch(args);
 	}
@@ -0,0 +1,132 @@
+package application;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+//startup settings for the headless server, no javafx involved
+//a properties file given with --config is read first, --key value arguments override it,
+//and the old positional form "port loops tickRate" still works
+public class ServerConfig {
+
+	public static final String PORT = "port";
+	public static final String LOOPS = "loops";
+	public static final String TICK_RATE = "tick-rate";
+	//pixels per second, collisions are swept so a low tick rate with a fast ball still plays right
+	public static final String BALL_SPEED = "ball-speed";
+	//prometheus text on http://localhost:port/metrics, off unless set
+	public static final String METRICS_PORT = "metrics-port";
+	//every match is recorded to a file there for ReplayPlayer, off unless set
+	public static final String REPLAY_DIR = "replay-dir";
+	//spectators connect here and send WATCH, off unless set
+	public static final String SPECTATOR_PORT = "spectator-port";
+	//host:port of a Directory to register with, and what to tell it: rooms this server takes, the address
+	//clients reach it at (the one it reaches the directory from by default) and its name (address:port)
+	public static final String DIRECTORY = "directory";
+	public static final String CAPACITY = "capacity";
+	public static final String ADVERTISE_HOST = "advertise-host";
+	public static final String NODE_ID = "node-id";
+	//every finished match is added to the MatchHistory there, off unless set
+	public static final String HISTORY_DIR = "history-dir";
+
+	private static final List<String> KEYS = Arrays.asList(PORT, LOOPS, TICK_RATE, BALL_SPEED, METRICS_PORT,
+			REPLAY_DIR, SPECTATOR_PORT, DIRECTORY, CAPACITY, ADVERTISE_HOST, NODE_ID,
+			HISTORY_DIR);
+	private static final List<String> POSITIONAL = Arrays.asList(PORT, LOOPS, TICK_RATE);
+
+	private final Properties properties = new Properties();
+
+	public static ServerConfig parse(String[] args) {
+		ServerConfig config = new ServerConfig();
+		Properties overrides = new Properties();
+		int positional = 0;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.startsWith("--")) {
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value for " + arg);
+				}
+				String key = arg.substring(2);
+				String value = args[++i];
+				if (key.equals("config")) {
+					//a missing or unreadable file is a usage error like any other bad argument
+					try (Reader reader = Files.newBufferedReader(Paths.get(value))) {
+						config.properties.load(reader);
+					} catch (IOException e) {
+						throw new IllegalArgumentException("Can't read config file " + value + ": " + e);
+					}
+				} else {
+					overrides.setProperty(key, value);
+				}
+			} else if (positional < POSITIONAL.size()) {
+				overrides.setProperty(POSITIONAL.get(positional++), arg);
+			} else {
+				throw new IllegalArgumentException("Unexpected argument " + arg);
+			}
+		}
+
+		config.properties.putAll(overrides);
+		for (String key : config.properties.stringPropertyNames()) {
+			if (!KEYS.contains(key)) {
+				throw new IllegalArgumentException("Unknown setting " + key);
+			}
+		}
+		return config;
+	}
+
+	public int getInt(String key, int defaultValue) {
+		String value = properties.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Setting " + key + " is not a number: " + value);
+		}
+	}
+
+	public String getString(String key) {
+		String value = properties.getProperty(key);
+		return value == null ? null : value.trim();
+	}
+
+	//host:port, the port is required
+	public InetSocketAddress getAddress(String key) {
+		String value = getString(key);
+		if (value == null) {
+			return null;
+		}
+		int colon = value.lastIndexOf(':');
+		if (colon <= 0) {
+			throw new IllegalArgumentException("Setting " + key + " is not host:port: " + value);
+		}
+		try {
+			return InetSocketAddress.createUnresolved(value.substring(0, colon),
+					Integer.parseInt(value.substring(colon + 1)));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Setting " + key + " is not host:port: " + value);
+		}
+	}
+
+	public Path getPath(String key) {
+		String value = properties.getProperty(key);
+		return value == null ? null : Paths.get(value.trim());
+	}
+
+	public static String usage() {
+		return "Usage: RoomServer [--config file] [--port 9999] [--loops n] [--tick-rate 60] [--ball-speed 120]\n"
+				+ "                  [--metrics-port 9464] [--replay-dir replays] [--spectator-port 9998]\n"
+				+ "                  [--directory host:9990] [--capacity 1000] [--advertise-host host] [--node-id name]\n"
+				+ "                  [--history-dir history]\n"
+				+ "   or: RoomServer [port] [loops] [tick rate]\n"
+				+ "The config file holds the same settings as a properties file, e.g. tick-rate=60";
+	}
+}
@@ -0,0 +1,200 @@
+package application;
+
+import java.lang.invoke.VarHandle;
+
+//recent server states on the client, stamped with their server tick
+//the client renders a little in the past so there are usually two states to interpolate between,
+//when states are late the ball is extrapolated for a short while and the paddles hold still
+//add is called from the network threads, sample from the fx thread
+//the fx thread never waits for a lock: add bumps version to odd, writes, bumps it to even again,
+//and sample retries if version changed while it was reading (a seqlock)
+public class SnapshotBuffer {
+
+	private static final int EMPTY = 0;
+	private static final int SAMPLED = 1;
+	private static final int EXTRAPOLATED = 2;
+
+	private static final int CAPACITY = 32;
+	//a ball moving further than this per tick was put back in the middle after a goal, don't slide it there
+	private static final double MAX_BALL_STEP = 50.0;
+	//how far past the newest state the ball may be extrapolated
+	private static final int MAX_EXTRAPOLATION_TICKS = 10;
+
+	private static final double MAX_BALL_X = GameSimulation.WIDTH;
+	private static final double MIN_BALL_X = -GameSimulation.BALL_SIZE;
+	private static final double MAX_BALL_Y = GameSimulation.HEIGHT - GameSimulation.BALL_SIZE;
+
+	private final double tickNanos;
+
+	//ring of states, newest is the index of the last one added
+	private final int[] ticks = new int[CAPACITY];
+	private final double[] ballX = new double[CAPACITY];
+	private final double[] ballY = new double[CAPACITY];
+	private final double[] player1Y = new double[CAPACITY];
+	private final double[] player2Y = new double[CAPACITY];
+	private int count;
+	//always a valid index, even when sample sees it half updated
+	private int newest = CAPACITY - 1;
+
+	//local nanoTime of server tick 0, taken from the fastest arrivals
+	private double tickZeroNanos;
+	//smoothed number of ticks between two states, the render delay is two of those
+	private double tickGap = Protocol.SEND_INTERVAL;
+
+	//odd while a state is being written
+	private volatile int version;
+	//local nanoTime the newest state arrived, for the snapshot age
+	private volatile long newestReceivedNanos;
+
+	//only written by the fx thread
+	private volatile long extrapolatedFrames;
+
+	public SnapshotBuffer(int tickRate) {
+		tickNanos = 1_000_000_000.0 / tickRate;
+	}
+
+	//synchronized only against the other network thread while tcp hands over to udp, sample doesn't lock
+	public synchronized void add(int tick, double ballX, double ballY, double player1Y, double player2Y,
+			long receivedNanos) {
+		if (count > 0 && tick - ticks[newest] <= 0) {
+			//older than what we have, it arrived out of order
+			return;
+		}
+
+		int v = version;
+		version = v + 1;
+		//keep the writes below from moving before the odd version
+		VarHandle.storeStoreFence();
+
+		if (count > 0) {
+			tickGap += (tick - ticks[newest] - tickGap) * 0.1;
+		}
+		newest = (newest + 1) % CAPACITY;
+		ticks[newest] = tick;
+		this.ballX[newest] = ballX;
+		this.ballY[newest] = ballY;
+		this.player1Y[newest] = player1Y;
+		this.player2Y[newest] = player2Y;
+
+		//a state that arrives faster than any before shows the real offset right away,
+		//slower ones only move it a little so one late packet doesn't shift the whole timeline
+		double sample = receivedNanos - tick * tickNanos;
+		if (count == 0 || sample < tickZeroNanos) {
+			tickZeroNanos = sample;
+		} else {
+			tickZeroNanos += (sample - tickZeroNanos) * 0.01;
+		}
+		if (count < CAPACITY) {
+			count++;
+		}
+		newestReceivedNanos = receivedNanos;
+		version = v + 2;
+	}
+
+	//fills out with the state to show at local time now, returns false if nothing arrived yet
+	public boolean sample(long nowNanos, GameState out) {
+		while (true) {
+			int before = version;
+			if ((before & 1) != 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+			//a torn read only gives wrong numbers in out, never an exception, and is thrown away below
+			int result = read(nowNanos, out);
+			VarHandle.loadLoadFence();
+			if (version == before) {
+				if (result == EXTRAPOLATED) {
+					extrapolatedFrames++;
+				}
+				return result != EMPTY;
+			}
+		}
+	}
+
+	private int read(long nowNanos, GameState out) {
+		if (count == 0) {
+			return EMPTY;
+		}
+		double renderDelay = Math.max(tickGap * 2, 1) * tickNanos;
+		double renderTick = (nowNanos - tickZeroNanos - renderDelay) / tickNanos;
+
+		if (renderTick >= ticks[newest]) {
+			return extrapolate(renderTick, out) ? EXTRAPOLATED : SAMPLED;
+		}
+
+		int later = newest;
+		for (int i = 1; i < count; i++) {
+			int earlier = (newest - i + CAPACITY) % CAPACITY;
+			if (ticks[earlier] <= renderTick) {
+				interpolate(earlier, later, renderTick, out);
+				return SAMPLED;
+			}
+			later = earlier;
+		}
+		//further back than anything kept
+		copy(later, out);
+		return SAMPLED;
+	}
+
+	private void interpolate(int a, int b, double renderTick, GameState out) {
+		double ticksBetween = ticks[b] - ticks[a];
+		double f = (renderTick - ticks[a]) / ticksBetween;
+		out.player1Y = player1Y[a] + (player1Y[b] - player1Y[a]) * f;
+		out.player2Y = player2Y[a] + (player2Y[b] - player2Y[a]) * f;
+
+		if (ballJumped(a, b, ticksBetween)) {
+			out.ballX = ballX[b];
+			out.ballY = ballY[b];
+		} else {
+			out.ballX = ballX[a] + (ballX[b] - ballX[a]) * f;
+			out.ballY = ballY[a] + (ballY[b] - ballY[a]) * f;
+		}
+	}
+
+	//keep the ball going in the direction of the last two states, bounce it off top and bottom
+	//returns false if the newest state is shown as it is
+	private boolean extrapolate(double renderTick, GameState out) {
+		copy(newest, out);
+		if (count < 2) {
+			return false;
+		}
+		int previous = (newest - 1 + CAPACITY) % CAPACITY;
+		double ticksBetween = ticks[newest] - ticks[previous];
+		double ahead = Math.min(renderTick - ticks[newest], MAX_EXTRAPOLATION_TICKS);
+		if (ahead <= 0 || ballJumped(previous, newest, ticksBetween)) {
+			return false;
+		}
+
+		double x = ballX[newest] + (ballX[newest] - ballX[previous]) / ticksBetween * ahead;
+		double y = ballY[newest] + (ballY[newest] - ballY[previous]) / ticksBetween * ahead;
+		if (y < 0) {
+			y = -y;
+		} else if (y > MAX_BALL_Y) {
+			y = 2 * MAX_BALL_Y - y;
+		}
+		out.ballX = Math.max(MIN_BALL_X, Math.min(MAX_BALL_X, x));
+		out.ballY = Math.max(0, Math.min(MAX_BALL_Y, y));
+		return true;
+	}
+
+	private boolean ballJumped(int a, int b, double ticksBetween) {
+		double limit = MAX_BALL_STEP * ticksBetween;
+		return Math.abs(ballX[b] - ballX[a]) > limit || Math.abs(ballY[b] - ballY[a]) > limit;
+	}
+
+	private void copy(int i, GameState out) {
+		out.ballX = ballX[i];
+		out.ballY = ballY[i];
+		out.player1Y = player1Y[i];
+		out.player2Y = player2Y[i];
+	}
+
+	//frames drawn past the newest state because the next one was late
+	public long getNewestReceivedNanos() {
+		return newestReceivedNanos;
+	}
+
+	public long getExtrapolatedFrames() {
+		return extrapolatedFrames;
+	}
+}
@@ -0,0 +1,291 @@
+package application;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+//read-only viewers of one match, everything here runs with the match's lock held, which the thread
+//ticking the match has and Viewer.handle takes
+//every frame is encoded once into a shared direct buffer and each viewer gets it from there with one
+//gathering write, the socket reads straight out of the shared buffers without a copy per viewer
+//only the part of a frame a full socket would not take is copied, into that viewer's own remainder
+//a viewer that is behind never slows the match: states it had no room for are skipped, and if it
+//misses more than MAX_EVENTS scores and names it gets the current ones instead
+public class SpectatorFeed {
+
+	public static final int MAX_EVENTS = 32;
+
+	private final ConnectionMetrics traffic;
+	private final Lock lock;
+	private final ByteBuffer start;
+
+	//scores and names in the order they happened, events[n % MAX_EVENTS] is the n-th one
+	private final ByteBuffer[] events = new ByteBuffer[MAX_EVENTS];
+	private long eventCount;
+	//the latest of each, for viewers that join late or fell too far behind
+	private final ByteBuffer score = frameBuffer();
+	private final ByteBuffer[] names = { null, frameBuffer(), frameBuffer() };
+
+	//newest state as a keyframe and as a delta against the state published before it
+	private final ByteBuffer keyframe = frameBuffer();
+	private final ByteBuffer delta = frameBuffer();
+	private final short[] previous = new short[Protocol.STATE_FIELDS];
+	private final short[] current = new short[Protocol.STATE_FIELDS];
+	private int stateTick;
+	private int previousTick;
+	private boolean hasState;
+	private boolean hasDelta;
+	private int sinceKeyframe;
+
+	private final List<Viewer> viewers = new ArrayList<>();
+	//filled for one viewer at a time: catch up frames or events, then the state
+	private final ByteBuffer[] gather = new ByteBuffer[MAX_EVENTS + 4];
+	//whatever viewers send is read into this and ignored
+	private final ByteBuffer discard = ByteBuffer.allocateDirect(256);
+
+	public SpectatorFeed(int tickRate, ConnectionMetrics traffic, Lock lock) {
+		this.traffic = traffic;
+		this.lock = lock;
+		start = copy(Protocol.encodeStart(Protocol.allocate(), tickRate, 0), frameBuffer());
+		for (int i = 0; i < MAX_EVENTS; i++) {
+			events[i] = frameBuffer();
+		}
+		score.limit(0);
+		names[1].limit(0);
+		names[2].limit(0);
+	}
+
+	private static ByteBuffer frameBuffer() {
+		return ByteBuffer.allocateDirect(Protocol.MAX_FRAME_SIZE);
+	}
+
+	//copies a complete frame into target, ready to be written from position 0
+	private static ByteBuffer copy(ByteBuffer frame, ByteBuffer target) {
+		target.clear();
+		target.put(frame.array(), 0, frame.limit());
+		target.flip();
+		return target;
+	}
+
+	//a SCORE or NAME frame every viewer must get, the caller reuses its buffer
+	public void publish(ByteBuffer frame) {
+		byte type = frame.get(3);
+		if (type == Protocol.SCORE) {
+			copy(frame, score);
+		} else if (type == Protocol.NAME) {
+			int slot = frame.get(Protocol.HEADER_SIZE);
+			if (slot == 1 || slot == 2) {
+				copy(frame, names[slot]);
+			}
+		}
+		copy(frame, events[(int) (eventCount % MAX_EVENTS)]);
+		eventCount++;
+	}
+
+	//a complete STATE frame, turned into the keyframe and the delta all viewers share
+	public void publishState(ByteBuffer frame) {
+		System.arraycopy(current, 0, previous, 0, Protocol.STATE_FIELDS);
+		previousTick = stateTick;
+		stateTick = Protocol.peekState(frame, current);
+		copy(frame, keyframe);
+
+		int tickStep = stateTick - previousTick;
+		hasDelta = hasState && ++sinceKeyframe < StateEncoder.KEYFRAME_INTERVAL && tickStep > 0
+				&& tickStep <= Protocol.MAX_DELTA_TICKS;
+		if (hasDelta) {
+			Protocol.encodeDelta(delta, previous, current, tickStep);
+		} else {
+			sinceKeyframe = 0;
+		}
+		hasState = true;
+	}
+
+	//called with the lock held, the viewer is registered with selector and attached to its key
+	public Viewer add(SocketChannel channel, Selector selector) throws IOException {
+		Viewer viewer = new Viewer(channel);
+		viewer.key = channel.register(selector, SelectionKey.OP_READ, viewer);
+		viewers.add(viewer);
+		return viewer;
+	}
+
+	//after publishing, writes what each viewer is missing as far as its socket takes it
+	public void flush() {
+		for (int i = 0; i < viewers.size(); i++) {
+			viewers.get(i).flush();
+		}
+		viewers.removeIf(viewer -> viewer.closed);
+	}
+
+	public int size() {
+		return viewers.size();
+	}
+
+	public void close() {
+		for (int i = 0; i < viewers.size(); i++) {
+			viewers.get(i).close();
+		}
+		viewers.clear();
+	}
+
+	//one spectator connection
+	public class Viewer {
+		private final SocketChannel channel;
+		private SelectionKey key;
+		//rest of a frame the socket only took part of, sent before anything else
+		private final ByteBuffer remainder = frameBuffer();
+		//next event to send, and whether the current score and names have to go out first
+		private long nextEvent;
+		private boolean catchUp = true;
+		private boolean started;
+		//tick of the last state written, deltas only go to viewers that have the state they build on
+		private int sentTick;
+		private boolean sentState;
+		private boolean writeInterest;
+		private boolean closed;
+
+		private Viewer(SocketChannel channel) {
+			this.channel = channel;
+			remainder.limit(0);
+		}
+
+		//the socket has room again, or the viewer sent something
+		public void handle() {
+			lock.lock();
+			try {
+				if (key.isValid() && key.isReadable()) {
+					discard.clear();
+					if (channel.read(discard) < 0) {
+						close();
+						return;
+					}
+				}
+				if (key.isValid() && key.isWritable()) {
+					flush();
+				}
+			} catch (IOException e) {
+				close();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void flush() {
+			if (closed) {
+				return;
+			}
+			try {
+				if (remainder.hasRemaining()) {
+					channel.write(remainder);
+					if (remainder.hasRemaining()) {
+						setWriteInterest(true);
+						return;
+					}
+				}
+
+				int count = 0;
+				int eventFrames = 0;
+				if (eventCount - nextEvent > MAX_EVENTS) {
+					catchUp = true;
+				}
+				if (catchUp) {
+					//what was missed only set the score and the names, the current ones say the same
+					if (!started) {
+						gather[count++] = start;
+					}
+					count = addIfSet(names[1], count);
+					count = addIfSet(names[2], count);
+					count = addIfSet(score, count);
+				} else {
+					for (long e = nextEvent; e < eventCount; e++) {
+						gather[count++] = events[(int) (e % MAX_EVENTS)];
+						eventFrames++;
+					}
+				}
+				int catchUpFrames = catchUp ? count : 0;
+				boolean sendState = hasState && (!sentState || sentTick != stateTick);
+				boolean sendDelta = sendState && hasDelta && sentState && sentTick == previousTick;
+				if (sendState) {
+					gather[count++] = sendDelta ? delta : keyframe;
+				}
+				if (count == 0) {
+					setWriteInterest(false);
+					return;
+				}
+
+				for (int i = 0; i < count; i++) {
+					gather[i].position(0);
+				}
+				long written = channel.write(gather, 0, count);
+				if (written > 0) {
+					traffic.sent((int) written);
+				}
+
+				//everything up to the first frame that did not fully go out has been sent
+				int done = 0;
+				while (done < count && !gather[done].hasRemaining()) {
+					done++;
+				}
+				boolean partial = done < count && gather[done].position() > 0;
+				if (partial) {
+					//the rest of it goes out from the viewer's own copy, the shared frame can change
+					remainder.clear();
+					remainder.put(gather[done]);
+					remainder.flip();
+					done++;
+				}
+				if (catchUp) {
+					started |= done > 0;
+					if (done >= catchUpFrames) {
+						catchUp = false;
+						nextEvent = eventCount;
+					}
+				} else {
+					nextEvent += Math.min(done, eventFrames);
+				}
+				if (sendState && done == count) {
+					if (sentState && sentTick - previousTick < 0) {
+						//it never got the states in between
+						ConnectionMetrics.DROPPED_STATES.increment();
+					}
+					sentTick = stateTick;
+					sentState = true;
+				}
+				setWriteInterest(done < count || partial);
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		private int addIfSet(ByteBuffer frame, int count) {
+			if (frame.limit() > 0) {
+				gather[count++] = frame;
+			}
+			return count;
+		}
+
+		private void setWriteInterest(boolean interest) {
+			if (writeInterest != interest) {
+				writeInterest = interest;
+				key.interestOps(interest ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			}
+		}
+
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				System.err.println("Error closing spectator: " + e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package application;
+
+import java.nio.ByteBuffer;
+
+//per connection encoder for state frames
+//servers encode each tick once as a quantized STATE keyframe, every connection then sends either
+//that keyframe or a STATE_DELTA against the last state it wrote
+//over tcp the last written state is the one the client will have applied before the delta arrives,
+//so it serves as the acknowledged baseline, a keyframe still goes out every KEYFRAME_INTERVAL states
+public class StateEncoder {
+
+	public static final int KEYFRAME_INTERVAL = 60;
+
+	private final short[] baseline = new short[Protocol.STATE_FIELDS];
+	private final short[] current = new short[Protocol.STATE_FIELDS];
+	private final ByteBuffer deltaBuffer = Protocol.allocate();
+	private int baselineTick;
+	private boolean hasBaseline;
+	private int sinceKeyframe;
+
+	//keyframe is a complete STATE frame, the returned frame is valid until the next call
+	public ByteBuffer encode(ByteBuffer keyframe) {
+		int tick = Protocol.peekState(keyframe, current);
+		int tickStep = tick - baselineTick;
+
+		ByteBuffer frame;
+		if (!hasBaseline || ++sinceKeyframe >= KEYFRAME_INTERVAL || tickStep < 0
+				|| tickStep > Protocol.MAX_DELTA_TICKS) {
+			frame = keyframe;
+			hasBaseline = true;
+			sinceKeyframe = 0;
+		} else {
+			frame = Protocol.encodeDelta(deltaBuffer, baseline, current, tickStep);
+		}
+		System.arraycopy(current, 0, baseline, 0, Protocol.STATE_FIELDS);
+		baselineTick = tick;
+		return frame;
+	}
+}
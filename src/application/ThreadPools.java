@@ -0,0 +1,45 @@
+package application;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//executors for connection handling
+public final class ThreadPools {
+
+	private ThreadPools() {
+	}
+
+	//true if this runtime has virtual threads (java 21 and later)
+	public static boolean virtualThreadsAvailable() {
+		return findVirtualFactory() != null;
+	}
+
+	//one virtual thread per task when asked for and available, otherwise the cached platform pool
+	//looked up by reflection so the project still builds and runs on java 17, the version it targets,
+	//where asking for virtual threads does nothing: it is always the cached pool there
+	//Benchmarks connections compares what a connection costs with each
+	public static ExecutorService newConnectionPool(boolean virtual) {
+		if (virtual) {
+			Method factory = findVirtualFactory();
+			if (factory != null) {
+				try {
+					return (ExecutorService) factory.invoke(null);
+				} catch (ReflectiveOperationException e) {
+					System.err.println("Could not create virtual thread executor: " + e.getMessage());
+				}
+			} else {
+				System.err.println("Virtual threads need java 21 or later, using platform threads");
+			}
+		}
+		return Executors.newCachedThreadPool();
+	}
+
+	private static Method findVirtualFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package application;
+
+import java.util.concurrent.atomic.LongAdder;
+
+//metrics for one tick loop: how long ticks take and how many per second actually happen
+//record is only called from the loop's own thread
+public class TickStats {
+
+	private final long tickNanos;
+	private final LatencyHistogram duration;
+	private final LongAdder ticks;
+	private final LongAdder overruns;
+
+	//ticks per second over the last full second, counted between tick starts
+	private volatile double achievedRate;
+	private boolean windowStarted;
+	private long windowStart;
+	private long windowTicks;
+
+	public TickStats(String loop, int targetRate) {
+		tickNanos = 1_000_000_000L / targetRate;
+		String label = "{loop=\"" + loop + "\"}";
+		Metrics metrics = Metrics.get();
+		duration = metrics.histogram("pong_tick_seconds" + label, "Time to run one tick, simulation and sending");
+		ticks = metrics.counter("pong_ticks_total" + label, "Ticks run");
+		overruns = metrics.counter("pong_tick_overruns_total" + label, "Ticks that took longer than the tick interval");
+		metrics.gauge("pong_tick_rate" + label, "Ticks per second over the last second", () -> achievedRate);
+		metrics.gauge("pong_tick_rate_target" + label, "Configured ticks per second", () -> targetRate);
+	}
+
+	public void record(long startNanos, long endNanos) {
+		long took = endNanos - startNanos;
+		duration.record(took);
+		ticks.increment();
+		if (took > tickNanos) {
+			overruns.increment();
+		}
+
+		if (!windowStarted) {
+			windowStarted = true;
+			windowStart = startNanos;
+			return;
+		}
+		windowTicks++;
+		long window = startNanos - windowStart;
+		if (window >= 1_000_000_000L) {
+			achievedRate = windowTicks * 1e9 / window;
+			windowStart = startNanos;
+			windowTicks = 0;
+		}
+	}
+}
@@ -1,6 +1,9 @@
 module Prov {
 	requires javafx.controls;
 	requires javafx.graphics;
+	requires java.management;
+	requires jdk.management;
+	requires jdk.httpserver;
 	
 	opens application to javafx.graphics, javafx.fxml;
 }
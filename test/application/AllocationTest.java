@@ -0,0 +1,210 @@
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.ThreadMXBean;
+
+//the bytes a hot path allocates once warmed up, which must be 0
+class AllocationTest {
+
+	private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+	//how long a path runs before counting, so it is compiled (escape analysis only happens in compiled code),
+	//and the operations counted
+	private static final long WARMUP_NANOS = 2_500_000_000L;
+	private static final int OPS = 1_000_000;
+	//how long the room loop is watched
+	private static final long ROOM_WARMUP_MILLIS = 5000;
+	private static final int ROOM_WINDOWS = 5;
+	private static final long ROOM_WINDOW_MILLIS = 2000;
+
+	//results go here so the work can't be optimized away
+	private static volatile long sink;
+
+	private interface Operation {
+		void run() throws Throwable;
+	}
+
+	@BeforeAll
+	static void countAllocations() {
+		assumeTrue(THREADS.isThreadAllocatedMemorySupported(), "this jvm can't count allocated bytes per thread");
+		THREADS.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	//what Server does every tick, without the sockets: step, ack inputs, encode the state and
+	//its delta, a score frame after goals and the tick metrics
+	@Test
+	void serverTick() throws Throwable {
+		GameSimulation simulation = new GameSimulation();
+		ByteBuffer frame = Protocol.allocate();
+		StateEncoder encoder = new StateEncoder();
+		TickStats tickStats = new TickStats("test", simulation.getTickRate());
+		simulation.setListener(new GameSimulation.Listener() {
+			@Override
+			public void onTick(GameSimulation simulation) {
+			}
+
+			@Override
+			public void onScore(GameSimulation simulation) {
+				sink += Protocol.encodeScore(frame, simulation.getPlayer1Score(), simulation.getPlayer2Score()).limit();
+			}
+		});
+		int[] acked = new int[1];
+		assertNoAllocation(() -> {
+			long start = System.nanoTime();
+			int tick = (int) simulation.getTick();
+			if (tick % 30 == 0) {
+				simulation.setPlayerInput(2, (tick / 30) % 3, (tick / 30) & 0xFFFF);
+			}
+			simulation.step();
+			int sequence = simulation.getAppliedSequence(2);
+			if (sequence != acked[0]) {
+				acked[0] = sequence;
+				sink += Protocol.encodeInputAck(frame, sequence, (int) simulation.getAppliedTick(2)).limit();
+			}
+			if (simulation.getTick() % Protocol.SEND_INTERVAL == 0) {
+				Protocol.encodeState(frame, (int) simulation.getTick(), simulation.getBallX(), simulation.getBallY(),
+						simulation.getPlayer1Y(), simulation.getPlayer2Y());
+				sink += encoder.encode(frame).limit();
+			}
+			tickStats.record(start, System.nanoTime());
+		});
+	}
+
+	//one Client frame at 60 fps on a made up clock: decode a state every other frame, hand it to the
+	//snapshot buffer and the predictor, press or release a key now and then, then sample and advance
+	//the drawing itself needs a running javafx toolkit and isn't part of it
+	@Test
+	void clientFrame() throws Throwable {
+		int tickRate = GameSimulation.DEFAULT_TICK_RATE;
+		GameSimulation server = new GameSimulation(tickRate);
+		StateEncoder encoder = new StateEncoder();
+		ByteBuffer keyframe = Protocol.allocate();
+		short[] state = new short[Protocol.STATE_FIELDS];
+		SnapshotBuffer snapshots = new SnapshotBuffer(tickRate);
+		PaddlePredictor predictor = new PaddlePredictor(2, tickRate);
+		GameState renderState = new GameState(0, 0, 0, 0);
+		long frameNanos = 1_000_000_000L / 60;
+		long[] now = { 0 };
+		int[] lastTick = new int[1];
+		assertNoAllocation(() -> {
+			now[0] += frameNanos;
+			server.step();
+			long tick = server.getTick();
+			if (tick % 40 == 0) {
+				int sequence = predictor.input(tick % 80 == 0 ? Protocol.UP_PRESSED : Protocol.UP_RELEASED);
+				server.setPlayerInput(2, tick % 80 == 0 ? GameSimulation.UP : 0, sequence);
+			}
+			if (tick % Protocol.SEND_INTERVAL == 0) {
+				Protocol.encodeState(keyframe, (int) tick, server.getBallX(), server.getBallY(), server.getPlayer1Y(),
+						server.getPlayer2Y());
+				ByteBuffer frame = encoder.encode(keyframe);
+				frame.position(0);
+				int tickRead = Protocol.readFrame(frame) == Protocol.STATE ? Protocol.readState(frame, state)
+						: Protocol.readDelta(frame, lastTick[0], state);
+				lastTick[0] = tickRead;
+				predictor.acknowledge(server.getAppliedSequence(2), (int) server.getAppliedTick(2));
+				snapshots.add(tickRead, Protocol.dequantize(state[Protocol.BALL_X]),
+						Protocol.dequantize(state[Protocol.BALL_Y]), Protocol.dequantize(state[Protocol.PLAYER1_Y]),
+						Protocol.dequantize(state[Protocol.PLAYER2_Y]), now[0]);
+				predictor.reconcile(tickRead, Protocol.dequantize(state[Protocol.PLAYER2_Y]));
+			}
+			if (snapshots.sample(now[0], renderState)) {
+				sink += (long) renderState.ballX;
+			}
+			predictor.advance(now[0]);
+			sink += (long) predictor.getY();
+		});
+	}
+
+	//the score text is only rebuilt after a change, drawing an unchanged board costs nothing
+	@Test
+	void scoreText() throws Throwable {
+		ScoreBoard scoreBoard = new ScoreBoard();
+		scoreBoard.setP1Name("Player one");
+		scoreBoard.setP2Name("Player two");
+		assertNoAllocation(() -> {
+			if (scoreBoard.refreshText()) {
+				sink++;
+			}
+		});
+	}
+
+
+	//a real RoomServer loop with two bots playing over loopback, the loop thread's allocations per tick
+	//count everything it does: selecting, reading inputs, ticking, acks, scores and writing states
+	//it is watched over a few windows and the quietest one counts: something done every tick allocates
+	//in all of them, while the jvm still links and recompiles rarely taken paths now and then for
+	//a minute or so, which allocates a few hundred bytes on that thread without being our code
+	@Test
+	void roomLoop() throws Exception {
+		RoomServer server = new RoomServer(0, 1, GameSimulation.DEFAULT_TICK_RATE,
+				GameSimulation.DEFAULT_BALL_SPEED);
+		server.start();
+		BotClient.Stats stats = new BotClient.Stats();
+		BotClient[] bots = new BotClient[2];
+		try {
+			for (int i = 0; i < bots.length; i++) {
+				bots[i] = new BotClient("127.0.0.1", server.getPort(), "Bot" + i, 50, stats);
+				Thread bot = new Thread(bots[i], "test-bot-" + i);
+				bot.setDaemon(true);
+				bot.start();
+			}
+			Thread loop = null;
+			for (Thread thread : Thread.getAllStackTraces().keySet()) {
+				if (thread.getName().equals("room-loop-0")) {
+					loop = thread;
+				}
+			}
+			LongAdder ticks = Metrics.get().counter("pong_ticks_total{loop=\"room-loop-0\"}", "Ticks run");
+
+			Thread.sleep(ROOM_WARMUP_MILLIS);
+			long quietestBytes = Long.MAX_VALUE;
+			long quietestTicks = 0;
+			for (int i = 0; i < ROOM_WINDOWS; i++) {
+				long ticksBefore = ticks.sum();
+				long before = THREADS.getThreadAllocatedBytes(loop.getId());
+				Thread.sleep(ROOM_WINDOW_MILLIS);
+				long bytes = THREADS.getThreadAllocatedBytes(loop.getId()) - before;
+				if (bytes < quietestBytes) {
+					quietestBytes = bytes;
+					quietestTicks = ticks.sum() - ticksBefore;
+				}
+			}
+			assertEquals(bots.length, stats.started.sum(), "bots playing");
+			assertTrue(quietestTicks > 0, "the room never ticked");
+			assertEquals(0, quietestBytes, "bytes in " + quietestTicks + " ticks");
+		} finally {
+			for (BotClient bot : bots) {
+				if (bot != null) {
+					bot.shutdown();
+				}
+			}
+			server.shutdown();
+		}
+	}
+
+	//warm up, then count what the current thread allocates over OPS operations
+	private static void assertNoAllocation(Operation op) throws Throwable {
+		long warmUpEnd = System.nanoTime() + WARMUP_NANOS;
+		while (System.nanoTime() < warmUpEnd) {
+			for (int i = 0; i < 256; i++) {
+				op.run();
+			}
+		}
+		long thread = Thread.currentThread().getId();
+		long before = THREADS.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < OPS; i++) {
+			op.run();
+		}
+		assertEquals(0, THREADS.getThreadAllocatedBytes(thread) - before, "bytes in " + OPS + " operations");
+	}
+}
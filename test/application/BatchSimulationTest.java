@@ -0,0 +1,70 @@
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+//BatchSimulation must give bit for bit what GameSimulation gives: the same matches in both with the same random
+//inputs, at tick rates from 20 to 144 and ball speeds from the default to far beyond a field per tick,
+//their checkpoints compared after every tick
+class BatchSimulationTest {
+
+	//matches and ticks compared at each tick rate and ball speed, 67 so the vector steps have a tail
+	private static final int MATCHES = 67;
+	private static final int TICKS = 5000;
+
+	@Test
+	void columnsGiveWhatObjectsGive() {
+		sameAsObjects(settings -> new BatchSimulation(MATCHES, (int) settings[0], settings[1]));
+	}
+
+	@Test
+	void vectorsGiveWhatObjectsGive() {
+		sameAsObjects(settings -> new VectorBatchSimulation(MATCHES, (int) settings[0], settings[1]));
+	}
+
+	private static void sameAsObjects(Function<double[], BatchSimulation> batches) {
+		ByteBuffer objectState = ByteBuffer.allocate(GameSimulation.CHECKPOINT_SIZE);
+		ByteBuffer batchState = ByteBuffer.allocate(GameSimulation.CHECKPOINT_SIZE);
+		long goals = 0;
+		for (double speed : new double[] { GameSimulation.DEFAULT_BALL_SPEED, 600, 3000, 50_000, 1e6 }) {
+			for (int tickRate : new int[] { 60, 20, 144 }) {
+				BatchSimulation batch = batches.apply(new double[] { tickRate, speed });
+				GameSimulation[] simulations = new GameSimulation[MATCHES];
+				for (int i = 0; i < MATCHES; i++) {
+					simulations[i] = new GameSimulation(tickRate, speed);
+				}
+				Random random = new Random(42);
+				for (int tick = 0; tick < TICKS; tick++) {
+					for (int i = 0; i < MATCHES; i++) {
+						if (random.nextInt(20) == 0) {
+							int slot = 1 + random.nextInt(2);
+							int held = random.nextInt(4);
+							batch.setPlayerInput(i, slot, held);
+							simulations[i].setPlayerInput(slot, held, 0);
+						}
+					}
+					batch.step();
+					for (int i = 0; i < MATCHES; i++) {
+						simulations[i].step();
+						objectState.clear();
+						simulations[i].saveCheckpoint(objectState);
+						batchState.clear();
+						batch.saveCheckpoint(i, batchState);
+						assertEquals(objectState.flip(), batchState.flip(), String.format(
+								"match %d at %d ticks/s, %.0f px/s, tick %d", i, tickRate, speed, tick + 1));
+					}
+				}
+				for (int i = 0; i < MATCHES; i++) {
+					goals += batch.getPlayer1Score(i) + batch.getPlayer2Score(i);
+				}
+			}
+		}
+		assertNotEquals(0, goals, "goals");
+	}
+}
@@ -0,0 +1,160 @@
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+//the swept collisions of GameSimulation against a reference that moves the ball in small steps,
+//at tick rates from 1 to 120 and ball speeds up to 20000 pixels per second
+class GameSimulationSweepTest {
+
+	//single ticks compared with the reference, the reference's steps per tick, and the matches
+	//and ticks played with paddles always on the ball's path
+	private static final int CASES = 20_000;
+	private static final int SUBSTEPS = 20_000;
+	private static final int MATCHES = 50;
+	private static final int TICKS = 1000;
+
+	private static final double MAX_Y = GameSimulation.HEIGHT - GameSimulation.BALL_SIZE;
+	private static final double LEFT_FACE = GameSimulation.PADDLE_WIDTH;
+	private static final double RIGHT_FACE = GameSimulation.WIDTH - GameSimulation.PADDLE_WIDTH
+			- GameSimulation.BALL_SIZE;
+	private static final double MAX_PADDLE_Y = GameSimulation.HEIGHT - GameSimulation.PADDLE_HEIGHT;
+
+	@Test
+	void oneTickEndsWhereTheReferenceDoes() {
+		ByteBuffer checkpoint = ByteBuffer.allocate(GameSimulation.CHECKPOINT_SIZE);
+		Random random = new Random(42);
+		int offReference = 0, outside = 0, speedChanged = 0, throughPaddle = 0;
+		for (int i = 0; i < CASES; i++) {
+			int tickRate = 1 + random.nextInt(120);
+			double speed = Math.exp(random.nextDouble() * Math.log(20_000));
+			double x = LEFT_FACE + random.nextDouble() * (RIGHT_FACE - LEFT_FACE);
+			double y = random.nextDouble() * MAX_Y;
+			double dx = (random.nextBoolean() ? 1 : -1) * speed / tickRate * (0.2 + random.nextDouble());
+			double dy = (random.nextBoolean() ? 1 : -1) * speed / tickRate * random.nextDouble() * 3;
+			double paddle1 = random.nextDouble() * MAX_PADDLE_Y;
+			double paddle2 = random.nextDouble() * MAX_PADDLE_Y;
+			GameSimulation simulation = new GameSimulation(tickRate, speed);
+			checkpoint.clear();
+			checkpoint.putLong(0).putDouble(x).putDouble(y).putDouble(dx).putDouble(dy).putDouble(paddle1)
+					.putDouble(paddle2).putInt(0).putInt(0).flip();
+			simulation.restoreCheckpoint(checkpoint);
+			double[] expected = reference(x, y, dx, dy, paddle1, paddle2);
+			simulation.step();
+
+			if (simulation.getPlayer1Score() + simulation.getPlayer2Score() > 0) {
+				if (expected[0] > 0 && expected[0] < GameSimulation.WIDTH) {
+					throughPaddle++;
+				}
+				continue;
+			}
+			checkpoint.clear();
+			simulation.saveCheckpoint(checkpoint);
+			double tolerance = (Math.abs(dx) + Math.abs(dy)) / SUBSTEPS * 4 + 1e-6;
+			if (Math.abs(simulation.getBallX() - expected[0]) > tolerance
+					|| Math.abs(simulation.getBallY() - expected[1]) > tolerance) {
+				offReference++;
+			}
+			if (simulation.getBallY() < 0 || simulation.getBallY() > MAX_Y) {
+				outside++;
+			}
+			//ball speeds follow tick, x, y in the checkpoint
+			if (Math.abs(Math.abs(checkpoint.getDouble(24)) - Math.abs(dx)) > 1e-9
+					|| Math.abs(Math.abs(checkpoint.getDouble(32)) - Math.abs(dy)) > 1e-9) {
+				speedChanged++;
+			}
+		}
+		assertEquals("0 off, 0 outside the walls, 0 speed changes, 0 through a paddle",
+				String.format("%d off, %d outside the walls, %d speed changes, %d through a paddle", offReference,
+						outside, speedChanged, throughPaddle));
+	}
+
+	@Test
+	void noGoalsWithPaddlesOnTheBallsPath() {
+		ByteBuffer checkpoint = ByteBuffer.allocate(GameSimulation.CHECKPOINT_SIZE);
+		Random random = new Random(42);
+		int goals = 0;
+		for (int match = 0; match < MATCHES; match++) {
+			GameSimulation simulation = new GameSimulation(10 + random.nextInt(50), 500 + random.nextDouble() * 6000);
+			for (int tick = 0; tick < TICKS; tick++) {
+				checkpoint.clear();
+				simulation.saveCheckpoint(checkpoint);
+				double x = simulation.getBallX(), y = simulation.getBallY();
+				double dx = checkpoint.getDouble(24), dy = checkpoint.getDouble(32);
+				double cross1 = crossing(x, y, dx, dy, LEFT_FACE);
+				double cross2 = crossing(x, y, dx, dy, RIGHT_FACE);
+				//paddle positions follow the ball speeds, each paddle's middle goes where the ball's middle crosses
+				double offset = (GameSimulation.PADDLE_HEIGHT - GameSimulation.BALL_SIZE) / 2.0;
+				checkpoint.putDouble(40, Double.isNaN(cross1) ? MAX_PADDLE_Y / 2
+						: Math.max(0, Math.min(MAX_PADDLE_Y, cross1 - offset)));
+				checkpoint.putDouble(48, Double.isNaN(cross2) ? MAX_PADDLE_Y / 2
+						: Math.max(0, Math.min(MAX_PADDLE_Y, cross2 - offset)));
+				checkpoint.flip();
+				simulation.restoreCheckpoint(checkpoint);
+				simulation.step();
+			}
+			goals += simulation.getPlayer1Score() + simulation.getPlayer2Score();
+		}
+		assertEquals(0, goals, "goals in " + MATCHES * TICKS + " ticks");
+	}
+
+	//where the ball ends the tick moving in small steps: reflected when a step crosses a wall, or a paddle face
+	//with the paddle there at the moment of crossing, returns x, y
+	private static double[] reference(double x, double y, double dx, double dy, double paddle1, double paddle2) {
+		double stepX = dx / SUBSTEPS, stepY = dy / SUBSTEPS;
+		for (int i = 0; i < SUBSTEPS; i++) {
+			double previousX = x, previousY = y;
+			x += stepX;
+			y += stepY;
+			if (y < 0) {
+				y = -y;
+				stepY = -stepY;
+			} else if (y > MAX_Y) {
+				y = 2 * MAX_Y - y;
+				stepY = -stepY;
+			}
+			if (stepX < 0 && previousX >= LEFT_FACE && x < LEFT_FACE) {
+				if (meets(previousY + stepY * (LEFT_FACE - previousX) / stepX, paddle1)) {
+					x = 2 * LEFT_FACE - x;
+					stepX = -stepX;
+				}
+			} else if (stepX > 0 && previousX <= RIGHT_FACE && x > RIGHT_FACE) {
+				if (meets(previousY + stepY * (RIGHT_FACE - previousX) / stepX, paddle2)) {
+					x = 2 * RIGHT_FACE - x;
+					stepX = -stepX;
+				}
+			}
+		}
+		return new double[] { x, y };
+	}
+
+	private static boolean meets(double ballY, double paddleY) {
+		return ballY + GameSimulation.BALL_SIZE >= paddleY && ballY <= paddleY + GameSimulation.PADDLE_HEIGHT;
+	}
+
+	//the ball's y when it first reaches face x in this tick without paddles, NaN if it doesn't
+	private static double crossing(double x, double y, double dx, double dy, double face) {
+		int steps = 2000;
+		double stepX = dx / steps, stepY = dy / steps;
+		for (int i = 0; i < steps; i++) {
+			double previousX = x;
+			x += stepX;
+			y += stepY;
+			if (y < 0) {
+				y = -y;
+				stepY = -stepY;
+			} else if (y > MAX_Y) {
+				y = 2 * MAX_Y - y;
+				stepY = -stepY;
+			}
+			if ((previousX - face) * (x - face) <= 0) {
+				return y;
+			}
+		}
+		return Double.NaN;
+	}
+}
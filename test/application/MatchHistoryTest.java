@@ -0,0 +1,70 @@
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MatchHistoryTest {
+
+	//matches recorded, players, and how many of them play half of the matches
+	private static final int MATCHES = 20_000;
+	private static final int PLAYERS = 2000;
+	private static final int HOT = 64;
+
+	@TempDir
+	Path directory;
+
+	//opening with the index must give the same standings and head to head records as reading the whole log,
+	//which ends with an unfinished record that is cut off again
+	@Test
+	void indexGivesWhatTheLogGives() throws IOException {
+		MatchHistory history = MatchHistory.open(directory);
+		Random random = new Random(1);
+		for (int i = 0; i < MATCHES; i++) {
+			int player1 = i % 2 == 0 ? random.nextInt(HOT) : random.nextInt(PLAYERS);
+			int player2 = random.nextInt(PLAYERS);
+			history.record("Bot" + player1, "Bot" + player2, random.nextInt(10), 1 + random.nextInt(9));
+		}
+		history.close(60_000);
+
+		MatchHistory fromIndex = MatchHistory.open(directory);
+		List<String> indexed = records(fromIndex);
+		fromIndex.close(60_000);
+
+		Path log = directory.resolve(MatchHistory.LOG_FILE);
+		long logSize = Files.size(log);
+		Files.write(log, new byte[] { 2, 0, 0, 0 }, StandardOpenOption.APPEND);
+		Files.delete(directory.resolve(MatchHistory.INDEX_FILE));
+		MatchHistory fromLog = MatchHistory.open(directory);
+		List<String> scanned = records(fromLog);
+		fromLog.close(60_000);
+
+		assertFalse(indexed.isEmpty());
+		assertEquals(indexed, scanned);
+		assertEquals(logSize, Files.size(log), "log size after the unfinished record");
+	}
+
+	//every standing, and head to head records from cold and hot players' chains
+	private static List<String> records(MatchHistory history) throws IOException {
+		List<String> records = new ArrayList<>();
+		for (MatchHistory.Standing standing : history.top(Integer.MAX_VALUE)) {
+			records.add(standing.toString());
+		}
+		Random pairs = new Random(2);
+		for (int i = 0; i < 2000; i++) {
+			int player1 = i % 2 == 0 ? pairs.nextInt(HOT) : pairs.nextInt(PLAYERS);
+			records.add(String.valueOf(history.headToHead("Bot" + player1, "Bot" + pairs.nextInt(PLAYERS))));
+		}
+		return records;
+	}
+}
@@ -0,0 +1,97 @@
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+//PaddlePredictor against a GameSimulation as the server, inputs and states take the same number of ticks
+//each way: reconciling must leave the predicted paddle where it was unless a goal put the paddles back in
+//the middle, and once nothing is on the way the prediction must be where the server has the paddle
+class PaddlePredictorTest {
+
+	private static final int TICKS = 20_000;
+
+	//one way latency in ticks
+	@ParameterizedTest
+	@ValueSource(ints = { 0, 1, 3, 6, 15 })
+	void reconcilingOnlyCorrectsAtGoals(int latency) {
+		GameSimulation server = new GameSimulation();
+		PaddlePredictor predictor = new PaddlePredictor(2, server.getTickRate());
+		long tickNanos = 1_000_000_000L / server.getTickRate();
+		long now = 1;
+		predictor.advance(now);
+		//{ arrives at, held, sequence } and { arrives at, acked sequence, its first tick, tick, y, goal }
+		ArrayDeque<long[]> inputs = new ArrayDeque<>();
+		ArrayDeque<long[]> states = new ArrayDeque<>();
+		Random random = new Random(latency);
+		int held = 0;
+		//corrections where no goal was and at goals
+		int[] corrections = new int[2];
+		//the keys are let go at the end, so after the last state the prediction has nothing left to add
+		for (int t = 1; t <= TICKS + latency + 1; t++) {
+			int code = -1;
+			if (t <= TICKS && random.nextInt(15) == 0) {
+				code = random.nextInt(4);
+			} else if (t == TICKS + 1 && held != 0) {
+				code = (held & GameSimulation.UP) != 0 ? Protocol.UP_RELEASED : Protocol.DOWN_RELEASED;
+			}
+			if (code >= 0) {
+				int sequence = predictor.input(code);
+				held = Protocol.applyInput(held, code);
+				inputs.add(new long[] { t + latency, held, sequence });
+			}
+			while (!inputs.isEmpty() && inputs.peek()[0] <= t) {
+				long[] input = inputs.poll();
+				server.setPlayerInput(2, (int) input[1], (int) input[2]);
+			}
+			int goals = server.getPlayer1Score() + server.getPlayer2Score();
+			server.step();
+			boolean goal = server.getPlayer1Score() + server.getPlayer2Score() != goals;
+			states.add(new long[] { t + latency, server.getAppliedSequence(2), server.getAppliedTick(2), server.getTick(),
+					Double.doubleToLongBits(server.getPlayer2Y()), goal ? 1 : 0 });
+			now += tickNanos;
+			predictor.advance(now);
+			while (!states.isEmpty() && states.peek()[0] <= t) {
+				reconcile(predictor, states.poll(), corrections);
+			}
+		}
+		//the states still on the way, the last one is the server as it is now
+		while (!states.isEmpty()) {
+			reconcile(predictor, states.poll(), corrections);
+		}
+		assertEquals(0, corrections[0], "corrections where no goal was, " + corrections[1] + " at goals");
+		assertEquals(server.getPlayer2Y(), predictor.getY(), "y at the end");
+	}
+
+	//more inputs than the predictor keeps without an ack, the newest acked, must start over from the server
+	@Test
+	void tooManyUnackedInputsStartOverFromTheServer() {
+		PaddlePredictor predictor = new PaddlePredictor(2, GameSimulation.DEFAULT_TICK_RATE);
+		long tickNanos = 1_000_000_000L / GameSimulation.DEFAULT_TICK_RATE;
+		long now = 1;
+		predictor.advance(now);
+		int sequence = 0;
+		for (int i = 0; i < 700; i++) {
+			sequence = predictor.input(i % 2 == 0 ? Protocol.DOWN_PRESSED : Protocol.DOWN_RELEASED);
+			now += tickNanos;
+			predictor.advance(now);
+		}
+		predictor.acknowledge(sequence, 5000);
+		predictor.reconcile(5000, 100);
+		assertEquals(100, predictor.getY(), "y after 700 inputs");
+	}
+
+	private static void reconcile(PaddlePredictor predictor, long[] state, int[] corrections) {
+		predictor.acknowledge((int) state[1], (int) state[2]);
+		double before = predictor.getY();
+		predictor.reconcile((int) state[3], Double.longBitsToDouble(state[4]));
+		if (predictor.getY() != before) {
+			corrections[state[5] == 0 ? 0 : 1]++;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+//a match with random inputs recorded the way Server does, starting after it was played for a while,
+//then played back against its checkpoints, seeking to states kept while recording, and once
+//more with inputs changed, which has to show up as a divergence
+class ReplayTest {
+
+	//ticks recorded after the ticks played before the recording starts, and one in how many recorded ticks
+	//is kept to seek back to
+	private static final int TICKS = 200_000;
+	private static final int LEAD = 1234;
+	private static final int SAMPLE = 2000;
+
+	@TempDir
+	Path directory;
+
+	private GameSimulation simulation;
+	private Path file;
+	private final List<Long> ticks = new ArrayList<>();
+	private final List<ByteBuffer> states = new ArrayList<>();
+
+	@BeforeEach
+	void record() throws IOException {
+		simulation = new GameSimulation();
+		for (int i = 0; i < LEAD; i++) {
+			simulation.step();
+		}
+		ReplayRecorder recorder = ReplayRecorder.start(directory, "check", simulation);
+		recorder.name(1, "Alice");
+		recorder.name(2, "Bob");
+		Random random = new Random(7);
+		int held1 = 0;
+		int held2 = 0;
+		for (int i = 0; i < TICKS; i++) {
+			if (random.nextInt(12) == 0) {
+				held1 = random.nextInt(4);
+			}
+			if (random.nextInt(12) == 0) {
+				held2 = random.nextInt(4);
+			}
+			simulation.setPlayerInput(1, held1, i);
+			simulation.setPlayerInput(2, held2, i);
+			simulation.step();
+			recorder.tick();
+			if (random.nextInt(SAMPLE) == 0) {
+				ByteBuffer state = ByteBuffer.allocate(GameSimulation.CHECKPOINT_SIZE);
+				simulation.saveCheckpoint(state);
+				ticks.add(simulation.getTick());
+				states.add(state.flip());
+			}
+		}
+		recorder.close();
+		ReplayRecorder.awaitWrites(60_000);
+		file = recorder.getFile();
+	}
+
+	@Test
+	void playsBackAsRecorded() throws IOException {
+		ReplayPlayer player = new ReplayPlayer(file);
+		assertEquals(-1, player.verify(), "diverged at");
+		assertEquals(LEAD, player.getFirstTick());
+		assertEquals(simulation.getTick(), player.getSimulation().getTick());
+		assertEquals("Alice", player.getName(1));
+		assertEquals("Bob", player.getName(2));
+	}
+
+	@Test
+	void seeksToKeptStates() throws IOException {
+		assertFalse(ticks.isEmpty());
+		ReplayPlayer player = new ReplayPlayer(file);
+		player.verify();
+		ByteBuffer state = ByteBuffer.allocate(GameSimulation.CHECKPOINT_SIZE);
+		for (int i = ticks.size() - 1; i >= 0; i--) {
+			player.seek(ticks.get(i));
+			state.clear();
+			player.getSimulation().saveCheckpoint(state);
+			assertEquals(states.get(i), state.flip(), "state at tick " + ticks.get(i));
+		}
+	}
+
+	//player 1 going down instead of up and the other way round in every input run up to the second
+	//checkpoint, which starts right after the runs, a single changed run could be undone by the wall
+	@Test
+	void changedInputsDiverge() throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		int offset = ReplayRecorder.HEADER_SIZE + 1 + GameSimulation.CHECKPOINT_SIZE;
+		while (bytes[offset] == ReplayRecorder.NAME) {
+			offset += 3 + bytes[offset + 2];
+		}
+		for (; bytes[offset] >= 0; offset++) {
+			int input1 = bytes[offset] & 3;
+			if (input1 == GameSimulation.UP || input1 == GameSimulation.DOWN) {
+				bytes[offset] ^= GameSimulation.UP | GameSimulation.DOWN;
+			}
+		}
+		Path tampered = directory.resolve("tampered.pongreplay");
+		Files.write(tampered, bytes);
+		long tamperedAt = new ReplayPlayer(tampered).verify();
+		assertTrue(tamperedAt >= 0, "diverged at " + tamperedAt);
+	}
+}
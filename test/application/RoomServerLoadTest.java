@@ -0,0 +1,126 @@
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+//a RoomServer in this process with a loop per core and bots over loopback
+class RoomServerLoadTest {
+
+	//rooms of bots unless -Dpong.loadRooms says otherwise (gradle loadTest -PloadRooms=300),
+	//how long they get to start playing, and how long the ticks are counted
+	private static final int ROOMS = Integer.getInteger("pong.loadRooms", 1000);
+	private static final long START_MILLIS = 60_000;
+	private static final long MEASURE_MILLIS = 20_000;
+	//share of the ticks the tick rate promises every loop must run
+	private static final double KEPT_UP = 0.95;
+
+	private final int loops = Runtime.getRuntime().availableProcessors();
+	private final int tickRate = GameSimulation.DEFAULT_TICK_RATE;
+	private RoomServer server;
+	private ExecutorService pool;
+	private final List<BotClient> bots = new ArrayList<>();
+
+	@BeforeEach
+	void start() throws Exception {
+		server = new RoomServer(0, loops, tickRate, GameSimulation.DEFAULT_BALL_SPEED);
+		server.start();
+		pool = ThreadPools.newConnectionPool(ThreadPools.virtualThreadsAvailable());
+	}
+
+	@AfterEach
+	void stop() {
+		for (BotClient bot : bots) {
+			bot.shutdown();
+		}
+		pool.shutdownNow();
+		server.shutdown();
+	}
+
+	//a player who connects, sends a name and leaves before an opponent comes: the next two must play each other
+	@Test
+	void nextTwoPlayAfterAPlayerLeft() throws Exception {
+		try (Socket left = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			ByteBuffer frame = Protocol.encodeName(Protocol.allocate(), 2, "Left");
+			left.getOutputStream().write(frame.array(), 0, frame.limit());
+			assertTrue(waitFor(server::isPlayerWaiting, 5000), "left player waiting");
+		}
+		assertTrue(waitFor(() -> !server.isPlayerWaiting(), 5000), "left player forgotten");
+		BotClient.Stats stats = new BotClient.Stats();
+		for (int i = 0; i < 2; i++) {
+			play(new BotClient("127.0.0.1", server.getPort(), "Pair" + i, 50, stats));
+		}
+		assertTrue(waitFor(() -> stats.started.sum() == 2, 5000), stats.started.sum() + " of 2 next players playing");
+	}
+
+	//every bot must get into a game and stay connected, and over MEASURE_MILLIS every loop must run KEPT_UP
+	//of the ticks the tick rate promises at least
+	//states per bot are only printed, a link that falls behind gets fewer on purpose (see LinkQuality)
+	//the bots take more cpu than the rooms, on a small machine give fewer rooms or run LoadDriver on another one
+	@Test
+	@Tag("load")
+	void roomsOfBotsKeepTheTickRate() throws Exception {
+		BotClient.Stats stats = new BotClient.Stats();
+		int botCount = ROOMS * 2;
+		for (int i = 0; i < botCount; i++) {
+			play(new BotClient("127.0.0.1", server.getPort(), "Bot" + i, 150, stats));
+		}
+		boolean started = waitFor(() -> stats.started.sum() + stats.refused.sum() + stats.dropped.sum() >= botCount,
+				START_MILLIS);
+		LongAdder[] ticks = new LongAdder[loops];
+		long[] ticksBefore = new long[loops];
+		for (int i = 0; i < loops; i++) {
+			ticks[i] = Metrics.get().counter("pong_ticks_total{loop=\"room-loop-" + i + "\"}", "Ticks run");
+			ticksBefore[i] = ticks[i].sum();
+		}
+		long statesBefore = stats.states.sum();
+		long start = System.nanoTime();
+		Thread.sleep(MEASURE_MILLIS);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		double slowestLoop = Double.MAX_VALUE;
+		for (int i = 0; i < loops; i++) {
+			slowestLoop = Math.min(slowestLoop, (ticks[i].sum() - ticksBefore[i]) / seconds);
+		}
+		System.out.printf("%d rooms: %.1f states/s per bot of %.1f, lateness %s%n", ROOMS,
+				(stats.states.sum() - statesBefore) / seconds / botCount, (double) tickRate / Protocol.SEND_INTERVAL,
+				stats.stateLateness.summary());
+
+		String bots = String.format("%d of %d bots playing, %d refused, %d dropped, %d rooms", stats.started.sum(),
+				botCount, stats.refused.sum(), stats.dropped.sum(), server.getRoomCount());
+		assertTrue(started, bots);
+		assertEquals(botCount, stats.started.sum(), bots);
+		assertEquals(0, stats.dropped.sum(), bots);
+		assertTrue(slowestLoop >= KEPT_UP * tickRate,
+				String.format("slowest of %d loops %.1f ticks/s of %d", loops, slowestLoop, tickRate));
+	}
+
+	private void play(BotClient bot) {
+		bots.add(bot);
+		pool.execute(bot);
+	}
+
+	//polls until the condition holds, false if it didn't within timeoutMillis
+	private static boolean waitFor(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+		long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+		while (!condition.getAsBoolean()) {
+			if (System.nanoTime() - deadline > 0) {
+				return false;
+			}
+			Thread.sleep(10);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,83 @@
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+//the hand-off of states from the network thread to the fx thread's frame
+class SnapshotBufferTest {
+
+	//how long a network thread adds states while this one samples
+	private static final long HAND_OFF_NANOS = 2_000_000_000L;
+
+	//a network thread adds states as fast as it can while this thread samples like the fx thread
+	//every field is a line through the same value, so a sample mixing two states breaks the sums
+	@Test
+	void noSampleMixesTwoStates() throws InterruptedException {
+		SnapshotBuffer buffer = new SnapshotBuffer(GameSimulation.DEFAULT_TICK_RATE);
+		Thread network = new Thread(() -> {
+			long end = System.nanoTime() + HAND_OFF_NANOS;
+			for (int tick = 1; System.nanoTime() < end; tick++) {
+				//up and down between 0 and 200 one step per tick, so it never looks like a goal
+				double value = Math.abs(tick % 400 - 200);
+				buffer.add(tick, value, value + 10, 2 * value, 200 - value, System.nanoTime());
+			}
+		}, "snapshot-network");
+		network.start();
+		GameState out = new GameState(0, 0, 0, 0);
+		long samples = 0;
+		long mixed = 0;
+		while (network.isAlive()) {
+			if (buffer.sample(System.nanoTime(), out)) {
+				samples++;
+				if (Math.abs(out.ballY - out.ballX - 10) > 1e-6 || Math.abs(out.player1Y + 2 * out.player2Y - 400) > 1e-6) {
+					mixed++;
+				}
+			}
+		}
+		network.join();
+		assertNotEquals(0, samples, "samples");
+		assertEquals(0, mixed, "mixed samples out of " + samples);
+	}
+
+	//sampling while another thread holds the buffer's lock, which sample must not wait for
+	@Test
+	void sampleDoesNotWaitForTheLock() throws InterruptedException {
+		SnapshotBuffer buffer = new SnapshotBuffer(GameSimulation.DEFAULT_TICK_RATE);
+		buffer.add(1, 100, 110, 200, 100, System.nanoTime());
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread holder = new Thread(() -> {
+			synchronized (buffer) {
+				locked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "snapshot-lock");
+		holder.start();
+		locked.await();
+		//on a thread of its own, so a sample that does wait fails the test instead of hanging it
+		CountDownLatch sampled = new CountDownLatch(1);
+		long start = System.nanoTime();
+		Thread fx = new Thread(() -> {
+			if (buffer.sample(System.nanoTime(), new GameState(0, 0, 0, 0))) {
+				sampled.countDown();
+			}
+		}, "snapshot-sample");
+		fx.start();
+		boolean done = sampled.await(1, TimeUnit.SECONDS);
+		long took = System.nanoTime() - start;
+		release.countDown();
+		holder.join();
+		fx.join();
+		assertTrue(done && took < 100_000_000L, String.format("%.3f ms while add's lock was held", took / 1e6));
+	}
+}
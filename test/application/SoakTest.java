@@ -0,0 +1,211 @@
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+//TICKS ticks unthrottled over loopback between two jvms: the server end steps a simulation, sends
+//every tick's state as a keyframe or delta and acks inputs, the client end decodes them into a snapshot buffer
+//and paddle predictor and sends an input now and then
+//both report the heap in use after a gc every REPORT ticks, which must stay under HEAP_CEILING
+//while memory grows with the ticks sent (as it did with ObjectOutputStream) an end fails or runs out of heap
+//it takes a while, so it is tagged and only runs with gradle soakTest
+@Tag("soak")
+class SoakTest {
+
+	//ticks streamed, how often each end reports its heap, the -Xmx of each end,
+	//and what the heap in use after a gc may reach on either
+	private static final int TICKS = 10_000_000;
+	private static final int REPORT = 1_000_000;
+	private static final String MAX_HEAP = "64m";
+	private static final long HEAP_CEILING = 8 << 20;
+
+	@Test
+	void heapStaysFlat() throws Exception {
+		String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+		String classPath = System.getProperty("java.class.path");
+		Process server = new ProcessBuilder(java, "-Xmx" + MAX_HEAP, "-cp", classPath, End.class.getName(), "server",
+				"0").redirectErrorStream(true).start();
+		try (BufferedReader serverOut = new BufferedReader(new InputStreamReader(server.getInputStream()))) {
+			String port = serverOut.readLine();
+			assertTrue(port != null && port.startsWith("port "), "the server end didn't start: " + port);
+			long start = System.nanoTime();
+			Process client = new ProcessBuilder(java, "-Xmx" + MAX_HEAP, "-cp", classPath, End.class.getName(),
+					"client", port.substring(5)).redirectErrorStream(true).start();
+			try (BufferedReader clientOut = new BufferedReader(new InputStreamReader(client.getInputStream()))) {
+				checkEnd("client", clientOut, client);
+			}
+			checkEnd("server", serverOut, server);
+			System.out.printf("soak %.1f s, %.0f ticks/s%n", (System.nanoTime() - start) / 1e9,
+					TICKS * 1e9 / (System.nanoTime() - start));
+		} finally {
+			server.destroy();
+		}
+	}
+
+	//an end prints a line per report, "heap <tick> <bytes>", then "done <ticks> <problems>"
+	private static void checkEnd(String name, BufferedReader output, Process process) throws Exception {
+		long firstHeap = -1, maxHeap = 0;
+		long ticks = 0, problems = -1;
+		for (String line; (line = output.readLine()) != null;) {
+			String[] fields = line.split(" ");
+			if (fields[0].equals("heap") && fields.length == 3) {
+				long heap = Long.parseLong(fields[2]);
+				firstHeap = firstHeap < 0 ? heap : firstHeap;
+				maxHeap = Math.max(maxHeap, heap);
+			} else if (fields[0].equals("done") && fields.length == 3) {
+				ticks = Long.parseLong(fields[1]);
+				problems = Long.parseLong(fields[2]);
+			} else {
+				System.out.println(name + ": " + line);
+			}
+		}
+		int status = process.waitFor();
+		String detail = String.format("%s: heap after gc %.1f MB at first, at most %.1f MB", name,
+				firstHeap / 1048576.0, maxHeap / 1048576.0);
+		System.out.println(detail);
+		assertEquals(0, status, name + " status");
+		assertEquals(TICKS, ticks, name + " ticks");
+		assertEquals(0, problems, name + " problems");
+		assertTrue(maxHeap <= HEAP_CEILING, detail);
+	}
+
+	//one end of the soak run in its own jvm, args: server <port> or client <port>
+	//problems are states out of order for the client, inputs the server couldn't read for the server
+	static class End {
+		public static void main(String[] args) throws Exception {
+			if (args[0].equals("server")) {
+				server(Integer.parseInt(args[1]));
+			} else {
+				client(Integer.parseInt(args[1]));
+			}
+		}
+
+		private static void server(int port) throws Exception {
+			try (ServerSocket listener = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+				System.out.println("port " + listener.getLocalPort());
+				try (Socket socket = listener.accept()) {
+					socket.setTcpNoDelay(true);
+					OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+					DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+					GameSimulation simulation = new GameSimulation();
+					long[] problems = new long[1];
+					Thread inputs = new Thread(() -> {
+						ByteBuffer inBuffer = Protocol.allocate();
+						int held = 0;
+						try {
+							while (true) {
+								if (Protocol.readFrame(in, inBuffer) == Protocol.INPUT) {
+									held = Protocol.applyInput(held, inBuffer.get());
+									simulation.setPlayerInput(2, held, inBuffer.getShort() & 0xFFFF);
+								}
+							}
+						} catch (EOFException e) {
+							//the client got everything and hung up
+						} catch (IOException e) {
+							problems[0]++;
+						}
+					}, "soak-inputs");
+					inputs.start();
+
+					ByteBuffer keyframe = Protocol.allocate();
+					ByteBuffer ack = Protocol.allocate();
+					StateEncoder encoder = new StateEncoder();
+					int acked = 0;
+					for (int tick = 1; tick <= TICKS; tick++) {
+						simulation.step();
+						int sequence = simulation.getAppliedSequence(2);
+						if (sequence != acked) {
+							acked = sequence;
+							ByteBuffer frame = Protocol.encodeInputAck(ack, sequence, (int) simulation.getAppliedTick(2));
+							out.write(frame.array(), 0, frame.limit());
+						}
+						Protocol.encodeState(keyframe, tick, simulation.getBallX(), simulation.getBallY(),
+								simulation.getPlayer1Y(), simulation.getPlayer2Y());
+						ByteBuffer frame = encoder.encode(keyframe);
+						out.write(frame.array(), 0, frame.limit());
+						if (tick % REPORT == 0) {
+							reportHeap(tick);
+						}
+					}
+					out.flush();
+					socket.shutdownOutput();
+					inputs.join();
+					System.out.println("done " + TICKS + " " + problems[0]);
+				}
+			}
+		}
+
+		private static void client(int port) throws Exception {
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+				socket.setTcpNoDelay(true);
+				OutputStream out = socket.getOutputStream();
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				int tickRate = GameSimulation.DEFAULT_TICK_RATE;
+				SnapshotBuffer snapshots = new SnapshotBuffer(tickRate);
+				PaddlePredictor predictor = new PaddlePredictor(2, tickRate);
+				GameState renderState = new GameState(0, 0, 0, 0);
+				ByteBuffer inBuffer = Protocol.allocate();
+				ByteBuffer outBuffer = Protocol.allocate();
+				short[] state = new short[Protocol.STATE_FIELDS];
+				long outOfOrder = 0;
+				int lastTick = 0;
+				while (lastTick < TICKS) {
+					byte type = Protocol.readFrame(in, inBuffer);
+					if (type == Protocol.INPUT_ACK) {
+						int sequence = inBuffer.getShort() & 0xFFFF;
+						predictor.acknowledge(sequence, inBuffer.getInt());
+						continue;
+					}
+					int tick = type == Protocol.STATE ? Protocol.readState(inBuffer, state)
+							: Protocol.readDelta(inBuffer, lastTick, state);
+					if (tick != lastTick + 1) {
+						outOfOrder++;
+					}
+					lastTick = tick;
+					long now = System.nanoTime();
+					snapshots.add(tick, Protocol.dequantize(state[Protocol.BALL_X]),
+							Protocol.dequantize(state[Protocol.BALL_Y]), Protocol.dequantize(state[Protocol.PLAYER1_Y]),
+							Protocol.dequantize(state[Protocol.PLAYER2_Y]), now);
+					predictor.reconcile(tick, Protocol.dequantize(state[Protocol.PLAYER2_Y]));
+					//a frame drawn and a key pressed or released now and then
+					if (tick % 16 == 0) {
+						snapshots.sample(now, renderState);
+						predictor.advance(now);
+					}
+					if (tick % 480 == 0) {
+						int code = tick % 960 == 0 ? Protocol.UP_PRESSED : Protocol.UP_RELEASED;
+						ByteBuffer frame = Protocol.encodeInput(outBuffer, code, predictor.input(code));
+						out.write(frame.array(), 0, frame.limit());
+					}
+					if (tick % REPORT == 0) {
+						reportHeap(tick);
+					}
+				}
+				System.out.println("done " + lastTick + " " + outOfOrder);
+			}
+		}
+
+		private static void reportHeap(int tick) {
+			System.gc();
+			System.out.println("heap " + tick + " " + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+//a SpectatorFeed over loopback, one in STALLED of the viewers never reads
+class SpectatorFeedTest {
+
+	private static final int STALLED = 10;
+	private static final int STATES = 300;
+	//how much more a viewer of 1000 may cost than one of 10
+	private static final double SCALING_LIMIT = 3;
+
+	//every viewer that reads has to end up with the last state published, whatever the stalled ones do
+	@ParameterizedTest
+	@ValueSource(ints = { 1, 10, 100, 1000 })
+	void readingViewersGetTheLastState(int viewers) throws IOException {
+		assertEquals(0, fanOut(viewers)[1], "viewers on another state");
+	}
+
+	//publishing a state and flushing it to all viewers has to cost about the same per viewer however many watch
+	@Test
+	void costPerViewerStaysFlat() throws IOException {
+		//once first so both are measured compiled
+		fanOut(1000);
+		double perViewer10 = fanOut(10)[0] / 10.0;
+		double perViewer1000 = fanOut(1000)[0] / 1000.0;
+		assertTrue(perViewer1000 <= perViewer10 * SCALING_LIMIT, String.format(
+				"%.1f ns per viewer of 1000, %.1f ns per viewer of 10", perViewer1000, perViewer10));
+	}
+
+	//median ns to publish a state and flush it to viewers, and how many reading viewers ended on another state
+	private static long[] fanOut(int viewers) throws IOException {
+		ReentrantLock lock = new ReentrantLock();
+		SpectatorFeed feed = new SpectatorFeed(GameSimulation.DEFAULT_TICK_RATE, ConnectionMetrics.unlabelled(), lock);
+		List<SocketChannel> readers = new ArrayList<>();
+		List<SocketChannel> stalled = new ArrayList<>();
+		try (Selector selector = Selector.open();
+				ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), viewers);
+			for (int i = 0; i < viewers; i++) {
+				SocketChannel viewer = SocketChannel.open(server.getLocalAddress());
+				viewer.configureBlocking(false);
+				(i % STALLED == STALLED - 1 ? stalled : readers).add(viewer);
+				SocketChannel accepted = server.accept();
+				accepted.configureBlocking(false);
+				lock.lock();
+				try {
+					feed.add(accepted, selector);
+				} finally {
+					lock.unlock();
+				}
+			}
+
+			GameSimulation simulation = new GameSimulation();
+			ByteBuffer frame = Protocol.allocate();
+			ByteBuffer[] in = new ByteBuffer[readers.size()];
+			short[][] states = new short[readers.size()][Protocol.STATE_FIELDS];
+			int[] ticks = new int[readers.size()];
+			for (int r = 0; r < readers.size(); r++) {
+				in[r] = ByteBuffer.allocate(4096);
+			}
+			long[] nanos = new long[STATES];
+			for (int i = 0; i < STATES; i++) {
+				simulation.step();
+				Protocol.encodeState(frame, (int) simulation.getTick(), simulation.getBallX(), simulation.getBallY(),
+						simulation.getPlayer1Y(), simulation.getPlayer2Y());
+				lock.lock();
+				try {
+					long start = System.nanoTime();
+					feed.publishState(frame);
+					feed.flush();
+					nanos[i] = System.nanoTime() - start;
+				} finally {
+					lock.unlock();
+				}
+				for (int r = 0; r < readers.size(); r++) {
+					ticks[r] = read(readers.get(r), in[r], states[r], ticks[r]);
+				}
+			}
+
+			short[] last = new short[Protocol.STATE_FIELDS];
+			int lastTick = Protocol.peekState(frame, last);
+			long wrong = 0;
+			for (int r = 0; r < readers.size(); r++) {
+				if (ticks[r] != lastTick || !Arrays.equals(states[r], last)) {
+					wrong++;
+				}
+			}
+			Arrays.sort(nanos);
+			return new long[] { nanos[STATES / 2], wrong };
+		} finally {
+			feed.close();
+			for (SocketChannel viewer : readers) {
+				viewer.close();
+			}
+			for (SocketChannel viewer : stalled) {
+				viewer.close();
+			}
+		}
+	}
+
+	//reads what a viewer got so far and applies its states, returns the tick of the newest one
+	//a frame that only partly arrived stays in the buffer for the next call
+	private static int read(SocketChannel viewer, ByteBuffer in, short[] state, int tick) throws IOException {
+		while (viewer.read(in) > 0) {
+			//reading until the socket is empty
+		}
+		in.flip();
+		int size;
+		while ((size = Protocol.completeFrameSize(in)) > 0) {
+			int end = in.position() + size;
+			byte type = Protocol.readFrame(in);
+			if (type == Protocol.STATE) {
+				tick = Protocol.readState(in, state);
+			} else if (type == Protocol.STATE_DELTA) {
+				tick = Protocol.readDelta(in, tick, state);
+			}
+			in.position(end);
+		}
+		in.compact();
+		return tick;
+	}
+}
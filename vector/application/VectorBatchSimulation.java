@@ -0,0 +1,89 @@
+package application;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+//BatchSimulation with the paddles and the straight step written against the incubating vector api instead of
+//counting on the jit to vectorize the loops, the swept collisions stay one match at a time
+//every lane does what BatchSimulation does for its match in the same order, so the results are bit for bit
+//the same: it adds and subtracts the same 0 or paddle step, and blends where it compares
+//needs --add-modules jdk.incubator.vector to compile and run, see build.gradle
+public class VectorBatchSimulation extends BatchSimulation {
+
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+	//as many int lanes as there are double lanes, for the inputs
+	private static final VectorSpecies<Integer> INPUTS = VectorSpecies.of(int.class,
+			VectorShape.forBitSize(DOUBLES.length() * Integer.SIZE));
+
+	public VectorBatchSimulation(int size, int tickRate, double ballSpeed) {
+		super(size, tickRate, ballSpeed);
+	}
+
+	@Override
+	public void step() {
+		int bound = DOUBLES.loopBound(size);
+		movePaddles(bound);
+		super.movePaddles(bound, size);
+		moveStraight(bound);
+		super.moveStraight(bound, size);
+		settle(bound);
+		super.settle(bound, size);
+	}
+
+	//an input bit as 0 or 1 times the paddle step is the 0 or paddleStep BatchSimulation looks up
+	private void movePaddles(int bound) {
+		for (int i = 0; i < bound; i++) {
+			ticks[i]++;
+		}
+		for (int i = 0; i < bound; i += DOUBLES.length()) {
+			IntVector input = IntVector.fromArray(INPUTS, inputs, i);
+			move(player1Y, i, step(input, 1), step(input, 2));
+			move(player2Y, i, step(input, 4), step(input, 8));
+		}
+	}
+
+	private DoubleVector step(IntVector input, int bit) {
+		return ((DoubleVector) input.and(bit).lanewise(VectorOperators.ASHR, Integer.numberOfTrailingZeros(bit))
+				.convertShape(VectorOperators.I2D, DOUBLES, 0)).mul(paddleStep);
+	}
+
+	//y - up, y < 0 ? 0 : y, y + down, y > MAX_PADDLE_Y ? MAX_PADDLE_Y : y
+	private static void move(double[] paddleY, int i, DoubleVector up, DoubleVector down) {
+		DoubleVector y = DoubleVector.fromArray(DOUBLES, paddleY, i).sub(up);
+		y = y.blend(0, y.compare(VectorOperators.LT, 0)).add(down);
+		y.blend(MAX_PADDLE_Y, y.compare(VectorOperators.GT, MAX_PADDLE_Y)).intoArray(paddleY, i);
+	}
+
+	private void moveStraight(int bound) {
+		for (int i = 0; i < bound; i += DOUBLES.length()) {
+			DoubleVector.fromArray(DOUBLES, ballX, i).add(DoubleVector.fromArray(DOUBLES, ballXSpeed, i))
+					.intoArray(nextX, i);
+			DoubleVector.fromArray(DOUBLES, ballY, i).add(DoubleVector.fromArray(DOUBLES, ballYSpeed, i))
+					.intoArray(nextY, i);
+		}
+	}
+
+	//the clear lanes take the straight step, the others are swept one by one
+	private void settle(int bound) {
+		for (int i = 0; i < bound; i += DOUBLES.length()) {
+			DoubleVector x = DoubleVector.fromArray(DOUBLES, nextX, i);
+			DoubleVector y = DoubleVector.fromArray(DOUBLES, nextY, i);
+			VectorMask<Double> clear = x.compare(VectorOperators.GT, LEFT_FACE_X + FACE_MARGIN)
+					.and(x.compare(VectorOperators.LT, RIGHT_FACE_X - FACE_MARGIN))
+					.and(y.compare(VectorOperators.GE, 0)).and(y.compare(VectorOperators.LE, MAX_BALL_Y));
+			DoubleVector.fromArray(DOUBLES, ballX, i).blend(x, clear).intoArray(ballX, i);
+			DoubleVector.fromArray(DOUBLES, ballY, i).blend(y, clear).intoArray(ballY, i);
+			if (!clear.allTrue()) {
+				for (int lane = 0; lane < DOUBLES.length(); lane++) {
+					if (!clear.laneIsSet(lane)) {
+						sweep(i + lane);
+					}
+				}
+			}
+		}
+	}
+}